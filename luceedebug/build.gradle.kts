@@ -32,6 +32,11 @@ dependencies {
     testImplementation("com.github.docker-java:docker-java-transport-httpclient5:3.3.0")
     // https://mvnrepository.com/artifact/com.google.http-client/google-http-client
     testImplementation("com.google.http-client:google-http-client:1.43.1")
+    // unit tests that build page-like classes, or cf values, need lucee's types (and what they refer to) at runtime
+    testImplementation(files("extern/lucee-5.3.9.158-SNAPSHOT.jar"))
+    testImplementation(files("extern/5.3.9.158-SNAPSHOT.jar"))
+    testRuntimeOnly("javax.servlet.jsp:javax.servlet.jsp-api:2.3.3")
+    testRuntimeOnly("javax.servlet:javax.servlet-api:3.1.0")
 
     // https://mvnrepository.com/artifact/com.google.guava/guava
     implementation("com.google.guava:guava:32.1.2-jre")
@@ -82,6 +87,13 @@ tasks.test {
     }
 }
 
+// see luceedebug.instrumenter.InstrumenterBenchmark
+tasks.register<JavaExec>("instrumenterBenchmark") {
+    dependsOn("testClasses")
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass.set("luceedebug.instrumenter.InstrumenterBenchmark")
+}
+
 tasks.jar {
     manifest {
         attributes(
@@ -6,9 +6,11 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.jar.JarFile;
 import java.io.File;
+import java.nio.file.Path;
 
 import luceedebug.LuceeTransformer.ClassInjection;
 import luceedebug.generated.Constants;
+import luceedebug.instrumenter.CfmOrCfc;
 
 public class Agent {
     /**
@@ -18,6 +20,7 @@ public class Agent {
      * -javaagent:/abspath/to/jarfile.jar=jdwpHost=jdwpHost,jdwpPort=1234,debugHost=debugHost,debugPort=5678,jarPath=/abspath/to/jarfile.jar
      * 
      * where jdwpHost and cfHost are `localhost` or `0.0.0.0` or etc.
+     * With `engine=inprocess`, there's no jdwp, so neither `-agentlib:jdwp` nor jdwpHost/jdwpPort are needed.
      *
      * Note we have to repeat the jar path in the javaagent args, it would be nice to not require that.
      *
@@ -44,6 +47,36 @@ public class Agent {
          */
         String jarPath;
 
+        /**
+         * optional, `;`-delimited globs of cf source paths to instrument / not instrument, see SourcePathFilter
+         */
+        String includeGlobs = null;
+        String excludeGlobs = null;
+
+        /**
+         * optional, link a file's step hooks only while it has breakpoints or some thread is stepping, see DebugHookCallSites
+         */
+        boolean onDemandInstrumentation = false;
+        long onDemandGracePeriodSeconds = 30;
+
+        /**
+         * optional, limits on suspending threads for breakpoints, 0 for "no limit", see SuspensionBudget
+         */
+        int maxSuspendedThreads = 0;
+        int maxBreakpointHitsPerSecond = 0;
+        long breakpointAutoDisableAfterHits = 0;
+
+        /**
+         * optional, `jdwp` (the default) or `inprocess`, see coreinject.InProcessVm
+         */
+        boolean useInProcessEngine = false;
+
+        /**
+         * optional, directory for caching instrumented classfiles across restarts, see InstrumentedClassCache
+         */
+        String cacheDir = null;
+        long cacheMaxMegabytes = 512;
+
         AgentArgs(String argString) {
             boolean gotJdwpHost = false;
             boolean gotJdwpPort = false;
@@ -100,6 +133,79 @@ public class Agent {
                         gotJarPath = true;
                         break;
                     }
+                    case "include": {
+                        includeGlobs = value;
+                        break;
+                    }
+                    case "exclude": {
+                        excludeGlobs = value;
+                        break;
+                    }
+                    case "ondemandinstrumentation": {
+                        onDemandInstrumentation = Boolean.parseBoolean(value);
+                        break;
+                    }
+                    case "cachedir": {
+                        cacheDir = value;
+                        break;
+                    }
+                    case "cachemaxmegabytes": {
+                        try {
+                            cacheMaxMegabytes = Long.parseLong(value);
+                        }
+                        catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid cacheMaxMegabytes value in agent args string (got '" + value + "' but expected an integer).");
+                        }
+                        break;
+                    }
+                    case "ondemandgraceperiodseconds": {
+                        try {
+                            onDemandGracePeriodSeconds = Long.parseLong(value);
+                        }
+                        catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid onDemandGracePeriodSeconds value in agent args string (got '" + value + "' but expected an integer).");
+                        }
+                        break;
+                    }
+                    case "maxsuspendedthreads": {
+                        try {
+                            maxSuspendedThreads = Integer.parseInt(value);
+                        }
+                        catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid maxSuspendedThreads value in agent args string (got '" + value + "' but expected an integer).");
+                        }
+                        break;
+                    }
+                    case "maxbreakpointhitspersecond": {
+                        try {
+                            maxBreakpointHitsPerSecond = Integer.parseInt(value);
+                        }
+                        catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid maxBreakpointHitsPerSecond value in agent args string (got '" + value + "' but expected an integer).");
+                        }
+                        break;
+                    }
+                    case "engine": {
+                        if (value.equalsIgnoreCase("inprocess")) {
+                            useInProcessEngine = true;
+                        }
+                        else if (value.equalsIgnoreCase("jdwp")) {
+                            useInProcessEngine = false;
+                        }
+                        else {
+                            throw new IllegalArgumentException("Invalid engine value in agent args string (got '" + value + "' but expected 'jdwp' or 'inprocess').");
+                        }
+                        break;
+                    }
+                    case "breakpointautodisableafterhits": {
+                        try {
+                            breakpointAutoDisableAfterHits = Long.parseLong(value);
+                        }
+                        catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid breakpointAutoDisableAfterHits value in agent args string (got '" + value + "' but expected an integer).");
+                        }
+                        break;
+                    }
                 }
             }
 
@@ -107,7 +213,7 @@ public class Agent {
                 var doThrow = false;
                 var errMsg = new StringBuilder();
                 errMsg.append("Missing agent args:");
-                if (!gotJdwpHost) {
+                if (!gotJdwpHost && !useInProcessEngine) {
                     doThrow = true;
                     errMsg.append(" jdwphost");
                 }
@@ -115,7 +221,7 @@ public class Agent {
                     doThrow = true;
                     errMsg.append(" debughost");
                 }
-                if (!gotJdwpPort) {
+                if (!gotJdwpPort && !useInProcessEngine) {
                     doThrow = true;
                     errMsg.append(" jdwpport");
                 }
@@ -150,6 +256,8 @@ public class Agent {
             result.put("luceedebug.coreinject.DebugManager$2", 0);
             result.put("luceedebug.coreinject.DebugManager$CfStepRequest", 0);
             result.put("luceedebug.coreinject.LuceeVm$ReplayableCfBreakpointRequest", 0);
+            result.put("luceedebug.coreinject.LuceeVm$StepFinalizationBreakpoints", 0);
+            result.put("luceedebug.coreinject.LuceeVm$StepFinalizationBreakpoints$1", 0);
             result.put("luceedebug.coreinject.Utils", 0);
             result.put("luceedebug.coreinject.ValTracker$WeakTaggedObject", 0);
             result.put("luceedebug.coreinject.DebugManager$1", 0);
@@ -173,6 +281,23 @@ public class Agent {
             result.put("luceedebug.coreinject.LuceeVm", 0);
             result.put("luceedebug.coreinject.ValTracker$CleanerRunner", 0);
             result.put("luceedebug.coreinject.ExprEvaluator", 0);
+            result.put("luceedebug.coreinject.CfStack", 0);
+            result.put("luceedebug.coreinject.CfStack$DisplayName", 0);
+            result.put("luceedebug.coreinject.BreakpointCondition", 0);
+            result.put("luceedebug.coreinject.Logpoint", 0);
+            result.put("luceedebug.coreinject.ExceptionBreakpoints", 0);
+            result.put("luceedebug.coreinject.SnapshotPoint", 0);
+            result.put("luceedebug.coreinject.SnapshotWriter", 0);
+            result.put("luceedebug.coreinject.Snapshots", 0);
+            result.put("luceedebug.coreinject.Snapshots$Snapshot", 0);
+            result.put("luceedebug.coreinject.SuspensionBudget", 0);
+            result.put("luceedebug.coreinject.SuspensionBudget$BreakpointState", 0);
+            result.put("luceedebug.coreinject.HitConditions", 0);
+            result.put("luceedebug.coreinject.FunctionBreakpointBinder", 0);
+            result.put("luceedebug.coreinject.BreakpointReporting", 0);
+            result.put("luceedebug.coreinject.InProcessVm", 0);
+            result.put("luceedebug.coreinject.InProcessVm$SuspendedThread", 0);
+            result.put("luceedebug.coreinject.InProcessVm$BoundBreakpoint", 0);
             
             result.put("luceedebug.coreinject.Iife", 0);
             result.put("luceedebug.coreinject.Iife$Supplier2", 0);
@@ -185,6 +310,7 @@ public class Agent {
             result.put("luceedebug.coreinject.frame.Frame", 1);
             result.put("luceedebug.coreinject.frame.Frame$FrameContext", 1);
             result.put("luceedebug.coreinject.frame.Frame$FrameContext$SupplierOrNull", 1);
+            result.put("luceedebug.coreinject.frame.Frame$FrameContext$RequestAndDerivedScopes", 1);
             result.put("luceedebug.coreinject.frame.DummyFrame", 1);
     
             return result;
@@ -245,6 +371,10 @@ public class Agent {
         // TODO: clarify the exact failure case we are attempting to workaround here.
         System.out.println("[luceedebug] version " + Constants.version);
 
+        if (parsedArgs.onDemandInstrumentation) {
+            DebugHookCallSites.enableOnDemandMode(parsedArgs.onDemandGracePeriodSeconds * 1000);
+        }
+
         try (var jarFile = new JarFile(parsedArgs.jarPath)) {
             inst.appendToSystemClassLoaderSearch(jarFile);
             var classInjections = jarFile
@@ -267,8 +397,22 @@ public class Agent {
                 .sorted(CoreInjectionLinearization.comparator())
                 .toArray(size -> new ClassInjection[size]);
 
-            final var config = new Config(Config.checkIfFileSystemIsCaseSensitive(parsedArgs.jarPath));
-            final var transformer = new LuceeTransformer(classInjections, parsedArgs.jdwpHost, parsedArgs.jdwpPort, parsedArgs.debugHost, parsedArgs.debugPort, config);
+            final var config = new Config(
+                Config.checkIfFileSystemIsCaseSensitive(parsedArgs.jarPath),
+                new SourcePathFilter(parsedArgs.includeGlobs, parsedArgs.excludeGlobs)
+            );
+            config.setMaxSuspendedThreads(parsedArgs.maxSuspendedThreads);
+            config.setMaxBreakpointHitsPerSecond(parsedArgs.maxBreakpointHitsPerSecond);
+            config.setBreakpointAutoDisableAfterHits(parsedArgs.breakpointAutoDisableAfterHits);
+            config.setUseInProcessEngine(parsedArgs.useInProcessEngine);
+            final InstrumentedClassCache maybeNull_classCache = parsedArgs.cacheDir == null
+                ? null
+                : new InstrumentedClassCache(
+                    Path.of(parsedArgs.cacheDir),
+                    parsedArgs.cacheMaxMegabytes * 1024 * 1024,
+                    "luceedebug=" + Constants.version + ";instrumenter=" + CfmOrCfc.OUTPUT_REVISION
+                );
+            final var transformer = new LuceeTransformer(classInjections, parsedArgs.jdwpHost, parsedArgs.jdwpPort, parsedArgs.debugHost, parsedArgs.debugPort, config, maybeNull_classCache);
             inst.addTransformer(transformer);
         }
         catch (Throwable e) {
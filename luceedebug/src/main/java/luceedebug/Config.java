@@ -4,12 +4,29 @@ import java.io.File;
 
 public class Config {
     private final boolean fsIsCaseSensitive_;
+    private final SourcePathFilter sourcePathFilter_;
     // we probably never want to step into this (the a=b in `function foo(a=b) { ... }` )
     // but for now it's configurable
     private boolean stepIntoUdfDefaultValueInitFrames_ = false;
+    // list only suspended threads in the debugger's thread listing; see attach option `suspendedThreadsOnly`
+    private boolean suspendedThreadsOnly_ = false;
+    // limits on suspending threads for breakpoints, 0 for "no limit"; see agent args, and coreinject.SuspensionBudget
+    private volatile int maxSuspendedThreads_ = 0;
+    private volatile int maxBreakpointHitsPerSecond_ = 0;
+    private volatile long breakpointAutoDisableAfterHits_ = 0;
+    // park stopped threads in-process rather than suspending them over jdwp; see agent arg `engine`, and coreinject.InProcessVm
+    private boolean useInProcessEngine_ = false;
 
-    Config(boolean fsIsCaseSensitive) {
+    public Config(boolean fsIsCaseSensitive, SourcePathFilter sourcePathFilter) {
         this.fsIsCaseSensitive_ = fsIsCaseSensitive;
+        this.sourcePathFilter_ = sourcePathFilter;
+    }
+
+    /**
+     * which cf files get instrumented, see agent args `include` and `exclude`
+     */
+    public SourcePathFilter getSourcePathFilter() {
+        return sourcePathFilter_;
     }
 
     public boolean getStepIntoUdfDefaultValueInitFrames() {
@@ -19,6 +36,41 @@ public class Config {
         this.stepIntoUdfDefaultValueInitFrames_ = v;
     }
 
+    public boolean getSuspendedThreadsOnly() {
+        return this.suspendedThreadsOnly_;
+    }
+    public void setSuspendedThreadsOnly(boolean v) {
+        this.suspendedThreadsOnly_ = v;
+    }
+
+    public int getMaxSuspendedThreads() {
+        return maxSuspendedThreads_;
+    }
+    public void setMaxSuspendedThreads(int v) {
+        this.maxSuspendedThreads_ = v;
+    }
+
+    public int getMaxBreakpointHitsPerSecond() {
+        return maxBreakpointHitsPerSecond_;
+    }
+    public void setMaxBreakpointHitsPerSecond(int v) {
+        this.maxBreakpointHitsPerSecond_ = v;
+    }
+
+    public long getBreakpointAutoDisableAfterHits() {
+        return breakpointAutoDisableAfterHits_;
+    }
+    public void setBreakpointAutoDisableAfterHits(long v) {
+        this.breakpointAutoDisableAfterHits_ = v;
+    }
+
+    public boolean getUseInProcessEngine() {
+        return useInProcessEngine_;
+    }
+    public void setUseInProcessEngine(boolean v) {
+        this.useInProcessEngine_ = v;
+    }
+
     private static String invertCase(String path) {
         int offset = 0;
         int strLen = path.length();
@@ -6,12 +6,13 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 import org.eclipse.lsp4j.debug.*;
 import org.eclipse.lsp4j.debug.launch.DSPLauncher;
@@ -24,7 +25,6 @@ import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.eclipse.lsp4j.jsonrpc.util.ToStringBuilder;
 
-import com.sun.jdi.ObjectCollectedException;
 
 import luceedebug.strong.CanonicalServerAbsPath;
 import luceedebug.strong.RawIdePath;
@@ -68,6 +68,16 @@ public class DapServer implements IDebugProtocolServer {
 
     private IDebugProtocolClient clientProxy_;
 
+    /**
+     * Logpoint messages are buffered and sent in batches, by a thread of its own; see `LogpointOutput`.
+     */
+    private final LogpointOutput logpointOutput_ = new LogpointOutput(text -> {
+        var event = new OutputEventArguments();
+        event.setCategory(OutputEventArgumentsCategory.CONSOLE);
+        event.setOutput(text);
+        clientProxy_.output(event);
+    });
+
     private DapServer(ILuceeVm luceeVm, Config config) {
         this.luceeVm_ = luceeVm;
         this.config_ = config;
@@ -113,6 +123,20 @@ public class DapServer implements IDebugProtocolServer {
                 clientProxy_.breakpoint(bpEvent);
             }
         });
+
+        this.luceeVm_.registerLogpointCallback((bpID, message) -> {
+            logpointOutput_.offer(message);
+        });
+
+        this.luceeVm_.registerExceptionEventCallback((jdwpThreadID, text) -> {
+            final int i32_threadID = (int)(long)jdwpThreadID.get();
+            var event = new StoppedEventArguments();
+            event.setReason("exception");
+            event.setDescription("Paused on exception");
+            event.setText(text);
+            event.setThreadId(i32_threadID);
+            clientProxy_.stopped(event);
+        });
     }
 
     static class DapEntry {
@@ -124,7 +148,10 @@ public class DapServer implements IDebugProtocolServer {
         }
     }
 
-    static public DapEntry createForSocket(ILuceeVm luceeVm, Config config, String host, int port) {
+    /**
+     * @param luceeVm called for each debugger connection, once it's accepted; null means "can't debug right now", and the connection is dropped
+     */
+    static public DapEntry createForSocket(Supplier<ILuceeVm> luceeVm, Config config, String host, int port) {
         try (var server = new ServerSocket()) {
             var addr = new InetSocketAddress(host, port);
             server.setReuseAddress(true);
@@ -142,10 +169,18 @@ public class DapServer implements IDebugProtocolServer {
 
                 logger.finest("accepted debugger connection");
 
-                var dapEntry = create(luceeVm, config, socket.getInputStream(), socket.getOutputStream());
+                final ILuceeVm maybeNull_luceeVm = luceeVm.get();
+                if (maybeNull_luceeVm == null) {
+                    socket.close();
+                    continue;
+                }
+
+                var dapEntry = create(maybeNull_luceeVm, config, socket.getInputStream(), socket.getOutputStream());
                 var future = dapEntry.launcher.startListening();
                 future.get(); // block until the connection closes
 
+                dapEntry.server.logpointOutput_.close();
+
                 logger.finest("debugger connection closed");
             }
         }
@@ -171,8 +206,16 @@ public class DapServer implements IDebugProtocolServer {
         c.setSupportsSingleThreadExecutionRequests(true); // but, vscode does not (from the stack frame panel at least?)
 
         c.setSupportsConditionalBreakpoints(true);
-        c.setSupportsHitConditionalBreakpoints(false); // still shows UI for it though
-        c.setSupportsLogPoints(false); // still shows UI for it though
+        c.setSupportsHitConditionalBreakpoints(true);
+        c.setSupportsLogPoints(true);
+        c.setSupportsFunctionBreakpoints(true);
+
+        c.setExceptionBreakpointFilters(new ExceptionBreakpointsFilter[]{
+            exceptionBreakpointsFilter(EXCEPTION_FILTER_ALL, "All Exceptions", "Stop where an exception first propagates out of a function or page, even if it's caught later on."),
+            exceptionBreakpointsFilter(EXCEPTION_FILTER_UNCAUGHT, "Uncaught Exceptions", "Stop where an exception propagates out of a request's outermost function or page.")
+        });
+        c.setSupportsExceptionFilterOptions(true);
+        c.setSupportsExceptionInfoRequest(true);
 
         return CompletableFuture.completedFuture(c);
     }
@@ -240,6 +283,10 @@ public class DapServer implements IDebugProtocolServer {
         pathTransforms = tryMungePathTransforms(args.get("pathTransforms"));
 
         config_.setStepIntoUdfDefaultValueInitFrames(getBoolOrFalseIfNonBool(args.get("stepIntoUdfDefaultValueInitFrames")));
+        config_.setSuspendedThreadsOnly(getBoolOrFalseIfNonBool(args.get("suspendedThreadsOnly")));
+
+        // instrumented pages' debug hooks are no-ops until a debugger attaches
+        DebugHookCallSites.linkAll();
 
         clientProxy_.initialized();
 
@@ -256,54 +303,22 @@ public class DapServer implements IDebugProtocolServer {
         return CompletableFuture.completedFuture(null);
     }
 
-    static final Pattern threadNamePrefixAndDigitSuffix = Pattern.compile("^(.+?)(\\d+)$");
-
     @Override
     public CompletableFuture<ThreadsResponse> threads() {
         var lspThreads = new ArrayList<org.eclipse.lsp4j.debug.Thread>();
 
-        for (var threadRef : luceeVm_.getThreadListing()) {
-            try {
-                var lspThread = new org.eclipse.lsp4j.debug.Thread();
-                lspThread.setId((int)threadRef.uniqueID()); // <<<<----------------@fixme, ObjectCollectedExceptions here
-                lspThread.setName(threadRef.name()); // <<<<----------------@fixme, ObjectCollectedExceptions here
-                lspThreads.add(lspThread);
-            }
-            catch (ObjectCollectedException e) {
-                // Discard this exception.
-                // We really shouldn't be dealing in terms of jdi thread refs here.
-                // The luceevm should return a list of names and IDs rather than actual threadrefs.
-            }
-            catch (Throwable e) {
-                e.printStackTrace();
-                System.exit(1);
-            }
+        for (var idAndName : luceeVm_.getThreadListing(config_.getSuspendedThreadsOnly())) {
+            var lspThread = new org.eclipse.lsp4j.debug.Thread();
+            lspThread.setId((int)Long.parseLong(idAndName[0]));
+            lspThread.setName(idAndName[1]);
+            lspThreads.add(lspThread);
         }
-        
-        // a lot of thread names like "Thread-Foo-1" and "Thread-Foo-12" which we'd like to order in a nice way
-        lspThreads.sort((lthread, rthread) -> {
-            final var l = lthread.getName().toLowerCase();
-            final var r = rthread.getName().toLowerCase();
-
-            final var ml = threadNamePrefixAndDigitSuffix.matcher(l);
-            final var mr = threadNamePrefixAndDigitSuffix.matcher(r);
-
-            // "Thread-Foo-1"
-            // "Thread-Foo-12"
-            // they share a prefix, so ok compare by integer suffix
-            if (ml.matches() && mr.matches() && ml.group(1).equals(mr.group(1))) {
-                try  {
-                    final var intl = Integer.parseInt(ml.group(2));
-                    final var intr = Integer.parseInt(mr.group(2));
-                    return intl < intr ? -1 : intl == intr ? 0 : 1;
-                }
-                catch (NumberFormatException e) {
-                    // discard, but shouldn't happen
-                }
-            }
 
-            return l.compareTo(r);
-        });
+        // names lead with the request, so threads on the same page sort together; ties by id, so the order is stable
+        lspThreads.sort(
+            Comparator.comparing((org.eclipse.lsp4j.debug.Thread thread) -> thread.getName(), String.CASE_INSENSITIVE_ORDER)
+                .thenComparingInt(thread -> thread.getId())
+        );
 
         var response = new ThreadsResponse();
         response.setThreads(lspThreads.toArray(new org.eclipse.lsp4j.debug.Thread[lspThreads.size()]));
@@ -387,13 +402,17 @@ public class DapServer implements IDebugProtocolServer {
         final int size = args.getBreakpoints().length;
         final int[] lines = new int[size];
         final String[] exprs = new String[size];
+        final String[] hitConditions = new String[size];
+        final String[] logMessages = new String[size];
         for (int i = 0; i < size; ++i) {
             lines[i] = args.getBreakpoints()[i].getLine();
             exprs[i] = args.getBreakpoints()[i].getCondition();
+            hitConditions[i] = args.getBreakpoints()[i].getHitCondition();
+            logMessages[i] = args.getBreakpoints()[i].getLogMessage();
         }
 
         var result = new ArrayList<Breakpoint>();
-        for (IBreakpoint bp : luceeVm_.bindBreakpoints(idePath, serverAbsPath, lines, exprs)) {
+        for (IBreakpoint bp : luceeVm_.bindBreakpoints(idePath, serverAbsPath, lines, exprs, hitConditions, logMessages)) {
             result.add(map_cfBreakpoint_to_lsp4jBreakpoint(bp));
         }
         
@@ -405,30 +424,112 @@ public class DapServer implements IDebugProtocolServer {
 
     private Breakpoint map_cfBreakpoint_to_lsp4jBreakpoint(IBreakpoint cfBreakpoint) {
         var bp = new Breakpoint();
-        bp.setLine(cfBreakpoint.getLine());
+        if (cfBreakpoint.getLine() > 0) {
+            // function breakpoints have no line
+            bp.setLine(cfBreakpoint.getLine());
+        }
         bp.setId(cfBreakpoint.getID());
         bp.setVerified(cfBreakpoint.getIsBound());
+        if (cfBreakpoint.getMessage() != null) {
+            bp.setMessage(cfBreakpoint.getMessage());
+        }
         return bp;
     }
 
     /**
-     * We don't really support this, but not sure how to say that; there doesn't seem to be a "supports exception breakpoints"
-     * flag in the init response? vscode always sends this?
-     * 
-     * in cppdap, it didn't (against the same client code), so there is likely some
-     * initialization configuration that can set whether the client sends this or not
-     * 
-     * Seems adding support for "configuration done" means clients don't need to send this request
-     * https://microsoft.github.io/debug-adapter-protocol/specification#Events_Initialized
-     * 
-     * @unsupported
+     * Names are `functionName` or `ComponentName.functionName`; the thread stops on the function's first line.
+     */
+    @Override
+    public CompletableFuture<SetFunctionBreakpointsResponse> setFunctionBreakpoints(SetFunctionBreakpointsArguments args) {
+        final int size = args.getBreakpoints().length;
+        final String[] names = new String[size];
+        final String[] exprs = new String[size];
+        final String[] hitConditions = new String[size];
+        for (int i = 0; i < size; ++i) {
+            names[i] = args.getBreakpoints()[i].getName();
+            exprs[i] = args.getBreakpoints()[i].getCondition();
+            hitConditions[i] = args.getBreakpoints()[i].getHitCondition();
+        }
+
+        var result = new ArrayList<Breakpoint>();
+        for (IBreakpoint bp : luceeVm_.bindFunctionBreakpoints(names, exprs, hitConditions)) {
+            result.add(map_cfBreakpoint_to_lsp4jBreakpoint(bp));
+        }
+
+        var response = new SetFunctionBreakpointsResponse();
+        response.setBreakpoints(result.toArray(len -> new Breakpoint[len]));
+
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private static final String EXCEPTION_FILTER_ALL = "all";
+    private static final String EXCEPTION_FILTER_UNCAUGHT = "uncaught";
+
+    private static ExceptionBreakpointsFilter exceptionBreakpointsFilter(String filter, String label, String description) {
+        var result = new ExceptionBreakpointsFilter();
+        result.setFilter(filter);
+        result.setLabel(label);
+        result.setDescription(description);
+        result.setDefault_(false);
+        result.setSupportsCondition(true);
+        result.setConditionDescription("Comma separated exception types to stop on, `*` matches anything, e.g. \"expression, database, myapp.*\"");
+        return result;
+    }
+
+    /**
+     * A filter's condition (if the client supports filter options) is the exception types it stops on; no condition means every type.
      */
     @Override
 	public CompletableFuture<SetExceptionBreakpointsResponse> setExceptionBreakpoints(SetExceptionBreakpointsArguments args) {
-        // set success false?
+        String maybeNull_allTypes = null;
+        String maybeNull_uncaughtTypes = null;
+
+        for (var filter : args.getFilters() == null ? new String[0] : args.getFilters()) {
+            if (filter.equals(EXCEPTION_FILTER_ALL)) {
+                maybeNull_allTypes = "*";
+            }
+            else if (filter.equals(EXCEPTION_FILTER_UNCAUGHT)) {
+                maybeNull_uncaughtTypes = "*";
+            }
+        }
+
+        for (var options : args.getFilterOptions() == null ? new ExceptionFilterOptions[0] : args.getFilterOptions()) {
+            final String types = options.getCondition() == null ? "*" : options.getCondition();
+            if (options.getFilterId().equals(EXCEPTION_FILTER_ALL)) {
+                maybeNull_allTypes = types;
+            }
+            else if (options.getFilterId().equals(EXCEPTION_FILTER_UNCAUGHT)) {
+                maybeNull_uncaughtTypes = types;
+            }
+        }
+
+        luceeVm_.setExceptionBreakpoints(maybeNull_allTypes, maybeNull_uncaughtTypes);
+
 		return CompletableFuture.completedFuture(new SetExceptionBreakpointsResponse());
 	}
 
+    @Override
+    public CompletableFuture<ExceptionInfoResponse> exceptionInfo(ExceptionInfoArguments args) {
+        final String[] maybeNull_info = luceeVm_.getExceptionInfo(args.getThreadId());
+        if (maybeNull_info == null) {
+            final var exceptionalResult = new CompletableFuture<ExceptionInfoResponse>();
+            final var error = new ResponseError(ResponseErrorCode.InvalidParams, "thread " + args.getThreadId() + " isn't stopped on an exception", null);
+            exceptionalResult.completeExceptionally(new ResponseErrorException(error));
+            return exceptionalResult;
+        }
+
+        var details = new ExceptionDetails();
+        details.setTypeName(maybeNull_info[0]);
+        details.setMessage(maybeNull_info[1]);
+
+        var response = new ExceptionInfoResponse();
+        response.setExceptionId(maybeNull_info[0]);
+        response.setDescription(maybeNull_info[2] == null || maybeNull_info[2].isEmpty() ? maybeNull_info[1] : maybeNull_info[1] + "\n" + maybeNull_info[2]);
+        response.setBreakMode(maybeNull_info[3].equals(EXCEPTION_FILTER_UNCAUGHT) ? ExceptionBreakMode.UNHANDLED : ExceptionBreakMode.ALWAYS);
+        response.setDetails(details);
+        return CompletableFuture.completedFuture(response);
+    }
+
     /**
      * Can we disable the UI for this in the client plugin?
      * 
@@ -442,7 +543,11 @@ public class DapServer implements IDebugProtocolServer {
     @Override
 	public CompletableFuture<Void> disconnect(DisconnectArguments args) {
         luceeVm_.clearAllBreakpoints();
+        luceeVm_.setExceptionBreakpoints(null, null);
+        luceeVm_.bindFunctionBreakpoints(new String[0], new String[0], new String[0]);
+        GlobalIDebugManagerHolder.debugManager.clearAllStepRequests();
         luceeVm_.continueAll();
+        DebugHookCallSites.unlinkStepHooks();
 		return CompletableFuture.completedFuture(null);
 	}
 
@@ -562,6 +667,8 @@ public class DapServer implements IDebugProtocolServer {
         /** [original, transformed][] */
         private String[][] breakpoints;
         private String[] pathTransforms;
+        /** [sourcePath, description][], see InstrumentationReport */
+        private String[][] degradedInstrumentation;
 
         public String[] getCanonicalFilenames() {
             return canonicalFilenames;
@@ -583,6 +690,13 @@ public class DapServer implements IDebugProtocolServer {
         public void setPathTransforms(String[] v) {
             this.pathTransforms = v;
         }
+
+        public String[][] getDegradedInstrumentation() {
+            return degradedInstrumentation;
+        }
+        public void setDegradedInstrumentation(String[][] v) {
+            this.degradedInstrumentation = v;
+        }
         
         @Override
         public String toString() {
@@ -590,6 +704,7 @@ public class DapServer implements IDebugProtocolServer {
             b.add("canonicalFilenames", this.canonicalFilenames);
             b.add("breakpoints", this.breakpoints);
             b.add("pathTransforms", this.pathTransforms);
+            b.add("degradedInstrumentation", this.degradedInstrumentation);
             return b.toString();
         }
 
@@ -634,6 +749,15 @@ public class DapServer implements IDebugProtocolServer {
                 return false;
             }
 
+            if (this.degradedInstrumentation == null) {
+                if (other.degradedInstrumentation != null) {
+                    return false;
+                }
+            }
+            else if (!Arrays.deepEquals(this.degradedInstrumentation, other.degradedInstrumentation)) {
+                return false;
+            }
+
             return true;
         }
     }
@@ -653,6 +777,7 @@ public class DapServer implements IDebugProtocolServer {
             transforms.add(v.asTraceString());
         }
         response.setPathTransforms(transforms.toArray(new String[0]));
+        response.setDegradedInstrumentation(InstrumentationReport.snapshot());
 
         return CompletableFuture.completedFuture(response);
 	}
@@ -750,6 +875,214 @@ public class DapServer implements IDebugProtocolServer {
         return CompletableFuture.completedFuture(response);
 	}
 
+    class MetricsArguments {
+    }
+
+    class MetricsResponse {
+        /** [name, value][] */
+        private String[][] metrics;
+        /** [sourcePath, candidates, emitted][] */
+        private String[][] stepHookCounts;
+        /** [breakpointID, expr, evaluations, trues, failures, meanMicros, maxMicros][] */
+        private String[][] breakpointConditions;
+        /** [breakpointID, logMessage, logged, dropped][] */
+        private String[][] logpoints;
+
+        public String[][] getMetrics() {
+            return metrics;
+        }
+        public void setMetrics(final String[][] v) {
+            this.metrics = v;
+        }
+
+        public String[][] getStepHookCounts() {
+            return stepHookCounts;
+        }
+        public void setStepHookCounts(final String[][] v) {
+            this.stepHookCounts = v;
+        }
+
+        public String[][] getBreakpointConditions() {
+            return breakpointConditions;
+        }
+        public void setBreakpointConditions(final String[][] v) {
+            this.breakpointConditions = v;
+        }
+
+        public String[][] getLogpoints() {
+            return logpoints;
+        }
+        public void setLogpoints(final String[][] v) {
+            this.logpoints = v;
+        }
+
+        @Override
+        public String toString() {
+            ToStringBuilder b = new ToStringBuilder(this);
+            b.add("metrics", this.metrics);
+            b.add("stepHookCounts", this.stepHookCounts);
+            b.add("breakpointConditions", this.breakpointConditions);
+            b.add("logpoints", this.logpoints);
+            return b.toString();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (this.getClass() != obj.getClass()) {
+                return false;
+            }
+
+            MetricsResponse other = (MetricsResponse) obj;
+
+            if (this.metrics == null) {
+                if (other.metrics != null) {
+                    return false;
+                }
+            }
+            else if (!Arrays.deepEquals(this.metrics, other.metrics)) {
+                return false;
+            }
+
+            if (this.stepHookCounts == null) {
+                if (other.stepHookCounts != null) {
+                    return false;
+                }
+            }
+            else if (!Arrays.deepEquals(this.stepHookCounts, other.stepHookCounts)) {
+                return false;
+            }
+
+            if (this.breakpointConditions == null) {
+                if (other.breakpointConditions != null) {
+                    return false;
+                }
+            }
+            else if (!Arrays.deepEquals(this.breakpointConditions, other.breakpointConditions)) {
+                return false;
+            }
+
+            if (this.logpoints == null) {
+                if (other.logpoints != null) {
+                    return false;
+                }
+            }
+            else if (!Arrays.deepEquals(this.logpoints, other.logpoints)) {
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    @JsonRequest
+	CompletableFuture<MetricsResponse> metrics(MetricsArguments args) {
+        final var response = new MetricsResponse();
+        response.setMetrics(Metrics.snapshot());
+        response.setStepHookCounts(InstrumentationReport.stepHookCountsSnapshot());
+        response.setBreakpointConditions(luceeVm_.getBreakpointConditionStats());
+        response.setLogpoints(luceeVm_.getLogpointStats());
+        return CompletableFuture.completedFuture(response);
+	}
+
+    class SnapshotsArguments {
+        /** if true, the returned snapshots are discarded on the server */
+        private boolean remove;
+        public boolean getRemove() {
+            return remove;
+        }
+
+        @Override
+        public String toString() {
+          ToStringBuilder b = new ToStringBuilder(this);
+          b.add("remove", this.remove);
+          return b.toString();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (this.getClass() != obj.getClass()) {
+                return false;
+            }
+            SnapshotsArguments other = (SnapshotsArguments) obj;
+            if (this.remove != other.remove) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    class SnapshotsResponse {
+        /** [id, breakpointID, path, line, threadName, capturedAtMillis, json][], oldest first */
+        private String[][] snapshots;
+
+        public String[][] getSnapshots() {
+            return snapshots;
+        }
+        public void setSnapshots(final String[][] v) {
+            this.snapshots = v;
+        }
+
+        @Override
+        public String toString() {
+            ToStringBuilder b = new ToStringBuilder(this);
+            b.add("snapshots", this.snapshots);
+            return b.toString();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (this.getClass() != obj.getClass()) {
+                return false;
+            }
+
+            SnapshotsResponse other = (SnapshotsResponse) obj;
+
+            if (this.snapshots == null) {
+                if (other.snapshots != null) {
+                    return false;
+                }
+            }
+            else if (!Arrays.deepEquals(this.snapshots, other.snapshots)) {
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Snapshots taken by snapshot breakpoints, with paths as the ide sees them.
+     */
+    @JsonRequest
+	CompletableFuture<SnapshotsResponse> snapshots(SnapshotsArguments args) {
+        final var snapshots = luceeVm_.getSnapshots(args != null && args.getRemove());
+        for (var snapshot : snapshots) {
+            snapshot[2] = applyPathTransformsServerToIde(snapshot[2]);
+        }
+
+        final var response = new SnapshotsResponse();
+        response.setSnapshots(snapshots);
+        return CompletableFuture.completedFuture(response);
+	}
+
     static private AtomicLong anonymousID = new AtomicLong();
 
     public CompletableFuture<EvaluateResponse> evaluate(EvaluateArguments args) {
@@ -0,0 +1,269 @@
+package luceedebug;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Bootstrap for the invokedynamic instructions that instrumented cf pages use to reach the debug manager.
+ *
+ * Every indy instruction targeting the same frame hook (e.g. every `pushCfFrame` call site in every page) shares a single MutableCallSite.
+ * Step hooks get one MutableCallSite per hook per source file, so that they can be linked for some files and not others (see "on-demand" below).
+ * While no debugger is attached, every call site is linked to a no-op, which the JIT can inline and fold away entirely;
+ * so an installed-but-idle agent costs (nearly) nothing per line or per udf call.
+ * When a debugger attaches, we relink the call sites to the real IDebugManager hooks. `MutableCallSite.setTarget` deoptimizes
+ * any code that inlined the old target, so pages that are already loaded (or even currently running) pick up the new linkage
+ * without being retransformed.
+ *
+ * The line step hook of each file is bound to that file's `LineBreakpoints`, so line breakpoints are checked by the hook itself,
+ * rather than by jdwp breakpoints (which would deoptimize the methods they are set in).
+ *
+ * Frame push/pop hooks, once linked, stay linked for the life of the VM; unlinking them would leave threads that are mid-request
+ * with unbalanced cf stacks. The exception hook is linked along with them (it's only reached when an exception propagates out of a frame,
+ * and returns after a volatile read while no exception filter is on). Step hooks are unlinked when the debugger detaches.
+ *
+ * In on-demand mode (agent arg `onDemandInstrumentation=true`), a file's step hooks are linked only while that file has breakpoints,
+ * or while some thread is stepping (a step-into can land in any file). A file whose step hooks are no longer wanted is unlinked after
+ * a grace period, so toggling a breakpoint off and on again doesn't thrash the JIT. Steady-state overhead is then proportional to the files
+ * actually being debugged. (Step hooks don't track frames' current lines, those are read off the jvm stack when a thread is suspended,
+ * so frames in files with unlinked step hooks still show up in the call stack.)
+ *
+ * This lives in package luceedebug (which is boot-delegated) so it is visible to compiled cf pages.
+ */
+public class DebugHookCallSites {
+    static public final String BOOTSTRAP_METHOD_NAME = "bootstrap";
+    /**
+     * the single static argument is the source file path of the page containing the call site
+     */
+    static public final String BOOTSTRAP_METHOD_DESCRIPTOR = MethodType
+        .methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, String.class)
+        .toMethodDescriptorString();
+
+    private static class HookSite {
+        final String hookName;
+        final String maybeNull_canonicalSourcePath; // null for frame hooks, which are shared across all files
+        final MutableCallSite callSite;
+        boolean isLinked = false;
+
+        HookSite(String hookName, String maybeNull_canonicalSourcePath, MethodType type) {
+            this.hookName = hookName;
+            this.maybeNull_canonicalSourcePath = maybeNull_canonicalSourcePath;
+            this.callSite = new MutableCallSite(type);
+        }
+    }
+
+    /**
+     * (hookName, methodType, canonicalSourcePath-or-null) -> site
+     * Keyed on type as well as name because a call site's type must exactly match the type of the indy instruction it is bound to.
+     */
+    private static final HashMap<List<Object>, HookSite> hookSites = new HashMap<>();
+    private static boolean frameHooksLinked = false;
+    private static boolean stepHooksLinked = false;
+
+    private static boolean onDemand_ = false;
+    private static long onDemandGracePeriodMillis_ = 0;
+    private static final HashSet<String> filesWithBreakpoints = new HashSet<>();
+    private static boolean allStepHooksWantedForStepping = false;
+    private static BooleanSupplier isAnyStepActive = () -> false;
+    private static ScheduledExecutorService maybeNull_unlinkScheduler = null;
+    /**
+     * At most one unlink check is pending at a time. Asking for another while one is pending pushes the pending one back,
+     * so that it still runs a full grace period after the latest ask.
+     */
+    private static boolean isUnlinkCheckPending = false;
+    private static long unlinkCheckDueMillis = 0;
+
+    /**
+     * invoked by the jvm, once per indy instruction, the first time that instruction is executed
+     */
+    public static synchronized CallSite bootstrap(MethodHandles.Lookup lookup, String hookName, MethodType type, String sourcePath) {
+        final String maybeNull_canonicalSourcePath = IDebugManager.isStepNotificationEntryFunc(hookName) && !hookName.equals(IDebugManager.EXCEPTION_HOOK_NAME)
+            ? Config.canonicalizeFileName(sourcePath)
+            : null;
+        return hookSites.computeIfAbsent(Arrays.asList(hookName, type, maybeNull_canonicalSourcePath), ignored -> {
+            final var site = new HookSite(hookName, maybeNull_canonicalSourcePath, type);
+            site.isLinked = shouldBeLinked(site);
+            site.callSite.setTarget(targetFor(site));
+            return site;
+        }).callSite;
+    }
+
+    public static synchronized void enableOnDemandMode(long gracePeriodMillis) {
+        onDemand_ = true;
+        onDemandGracePeriodMillis_ = gracePeriodMillis;
+        maybeNull_unlinkScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final var thread = new Thread(runnable, "luceedebug-hook-unlinker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized void linkAll() {
+        frameHooksLinked = true;
+        stepHooksLinked = true;
+        relink();
+    }
+
+    public static synchronized void unlinkStepHooks() {
+        stepHooksLinked = false;
+        relink();
+    }
+
+    /**
+     * The debug manager tells us how to know if any thread is mid-step, so we know when it's OK to unlink step hooks we linked for stepping.
+     */
+    public static synchronized void setIsAnyStepActive(BooleanSupplier f) {
+        isAnyStepActive = f;
+    }
+
+    public static synchronized void noteBreakpointsInFile(String sourcePath, boolean hasBreakpoints) {
+        if (!onDemand_) {
+            return;
+        }
+        final var canonicalPath = Config.canonicalizeFileName(sourcePath);
+        if (hasBreakpoints) {
+            if (filesWithBreakpoints.add(canonicalPath)) {
+                relink();
+            }
+        }
+        else if (filesWithBreakpoints.remove(canonicalPath)) {
+            scheduleUnlinkCheck();
+        }
+    }
+
+    public static synchronized void noteAllBreakpointsCleared() {
+        if (!onDemand_) {
+            return;
+        }
+        filesWithBreakpoints.clear();
+        scheduleUnlinkCheck();
+    }
+
+    public static synchronized void noteStepRequested() {
+        if (!onDemand_) {
+            return;
+        }
+        if (!allStepHooksWantedForStepping) {
+            allStepHooksWantedForStepping = true;
+            relink();
+        }
+        scheduleUnlinkCheck();
+    }
+
+    /**
+     * @return the canonical source paths of files whose step hooks have been bootstrapped, i.e. files that have run since the vm started
+     */
+    public static synchronized String[] getCanonicalSourcePathsWithStepHooks() {
+        final var result = new HashSet<String>();
+        for (var site : hookSites.values()) {
+            if (site.maybeNull_canonicalSourcePath != null) {
+                result.add(site.maybeNull_canonicalSourcePath);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static void scheduleUnlinkCheck() {
+        unlinkCheckDueMillis = System.currentTimeMillis() + onDemandGracePeriodMillis_;
+        if (isUnlinkCheckPending) {
+            return;
+        }
+        isUnlinkCheckPending = true;
+        maybeNull_unlinkScheduler.schedule(DebugHookCallSites::unlinkCheck, onDemandGracePeriodMillis_, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized void unlinkCheck() {
+        final long notYetDueMillis = unlinkCheckDueMillis - System.currentTimeMillis();
+        if (notYetDueMillis > 0) {
+            maybeNull_unlinkScheduler.schedule(DebugHookCallSites::unlinkCheck, notYetDueMillis, TimeUnit.MILLISECONDS);
+            return;
+        }
+        isUnlinkCheckPending = false;
+        if (allStepHooksWantedForStepping) {
+            if (isAnyStepActive.getAsBoolean()) {
+                // still stepping, check again later
+                scheduleUnlinkCheck();
+            }
+            else {
+                allStepHooksWantedForStepping = false;
+            }
+        }
+        relink();
+    }
+
+    private static boolean shouldBeLinked(HookSite site) {
+        if (GlobalIDebugManagerHolder.debugManager == null) {
+            return false;
+        }
+        else if (site.maybeNull_canonicalSourcePath == null) {
+            return frameHooksLinked;
+        }
+        else if (!stepHooksLinked) {
+            return false;
+        }
+        else if (!onDemand_) {
+            return true;
+        }
+        else {
+            return allStepHooksWantedForStepping || filesWithBreakpoints.contains(site.maybeNull_canonicalSourcePath);
+        }
+    }
+
+    /**
+     * Only touches call sites whose linkage actually changes; setting a call site's target deoptimizes code that depends on it.
+     */
+    private static void relink() {
+        final var changed = new ArrayList<MutableCallSite>();
+        for (var site : hookSites.values()) {
+            final boolean shouldBeLinked = shouldBeLinked(site);
+            if (site.isLinked != shouldBeLinked) {
+                site.isLinked = shouldBeLinked;
+                site.callSite.setTarget(targetFor(site));
+                changed.add(site.callSite);
+            }
+        }
+        if (changed.size() > 0) {
+            MutableCallSite.syncAll(changed.toArray(new MutableCallSite[0]));
+        }
+    }
+
+    private static MethodHandle targetFor(HookSite site) {
+        final var type = site.callSite.type();
+        if (!site.isLinked) {
+            return MethodHandles.empty(type);
+        }
+
+        try {
+            if (site.hookName.equals(IDebugManager.LINE_STEP_HOOK_NAME)) {
+                // the hook takes the file's breakpoints as a leading argument, which the pages' indy instructions don't supply
+                final var hook = MethodHandles
+                    .lookup()
+                    .findVirtual(IDebugManager.class, site.hookName, type.insertParameterTypes(0, LineBreakpoints.class))
+                    .bindTo(GlobalIDebugManagerHolder.debugManager);
+                return MethodHandles.insertArguments(hook, 0, LineBreakpoints.forFile(site.maybeNull_canonicalSourcePath));
+            }
+
+            return MethodHandles
+                .lookup()
+                .findVirtual(IDebugManager.class, site.hookName, type)
+                .bindTo(GlobalIDebugManagerHolder.debugManager);
+        }
+        catch (NoSuchMethodException | IllegalAccessException e) {
+            // instrumenter and IDebugManager disagree on a hook signature, this is a bug
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+    }
+}
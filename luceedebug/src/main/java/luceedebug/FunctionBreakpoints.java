@@ -0,0 +1,78 @@
+package luceedebug;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import luceedebug.strong.DapBreakpointID;
+
+/**
+ * The debugger's function breakpoints, checked whenever a cf frame is pushed.
+ *
+ * Immutable; the debug manager swaps in a new instance whenever the debugger sets them, and holds null rather than an empty instance,
+ * so that pushing a frame while there are no function breakpoints costs a single volatile read, and the frame's function name is only looked at otherwise.
+ *
+ * A breakpoint's name is either a function name (`calculateTax`), or a component name and a function name (`OrderService.calculateTax`),
+ * where the component name is that of the file the function is defined in. Both are matched without regard to case, as cf does.
+ */
+public final class FunctionBreakpoints {
+    public static final class Breakpoint {
+        public final String name;
+        public final DapBreakpointID id;
+        /**
+         * condition, null for "not a conditional breakpoint"
+         */
+        public final String maybeNull_expr;
+        /**
+         * checked after the condition passes, null for "stop on every hit"
+         */
+        public final HitCondition maybeNull_hitCondition;
+
+        public Breakpoint(String name, DapBreakpointID id, String maybeNull_expr, HitCondition maybeNull_hitCondition) {
+            this.name = name;
+            this.id = id;
+            this.maybeNull_expr = maybeNull_expr;
+            this.maybeNull_hitCondition = maybeNull_hitCondition;
+        }
+    }
+
+    /**
+     * lower cased `function` or `component.function` -> breakpoint
+     */
+    private final HashMap<String, Breakpoint> byLowerCaseName = new HashMap<>();
+
+    private FunctionBreakpoints(Breakpoint[] breakpoints) {
+        for (var breakpoint : breakpoints) {
+            byLowerCaseName.put(breakpoint.name.trim().toLowerCase(Locale.ROOT), breakpoint);
+        }
+    }
+
+    /**
+     * @return null if there are no breakpoints
+     */
+    public static FunctionBreakpoints maybeNull_of(Breakpoint[] breakpoints) {
+        return breakpoints.length == 0 ? null : new FunctionBreakpoints(breakpoints);
+    }
+
+    /**
+     * @param lowerCaseFunctionName the name the function was called by
+     * @param sourceFilePath of the page the function is defined in
+     * @return the breakpoint on the function, or null if there isn't one
+     */
+    public Breakpoint maybeNull_breakpointFor(String lowerCaseFunctionName, String sourceFilePath) {
+        final Breakpoint maybeNull_byFunctionName = byLowerCaseName.get(lowerCaseFunctionName);
+        if (maybeNull_byFunctionName != null) {
+            return maybeNull_byFunctionName;
+        }
+        return byLowerCaseName.get(componentName(sourceFilePath) + "." + lowerCaseFunctionName);
+    }
+
+    /**
+     * "/app/models/OrderService.cfc" -> "orderservice"
+     */
+    private static String componentName(String sourceFilePath) {
+        final int start = Math.max(sourceFilePath.lastIndexOf('/'), sourceFilePath.lastIndexOf('\\')) + 1;
+        final int dot = sourceFilePath.lastIndexOf('.');
+        final int end = dot < start ? sourceFilePath.length() : dot;
+        return sourceFilePath.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+}
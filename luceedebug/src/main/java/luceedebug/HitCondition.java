@@ -0,0 +1,104 @@
+package luceedebug;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * A breakpoint's DAP `hitCondition`: `==N` (or just `N`), `>=N`, `>N`, `<=N`, `<N`, or `%N` (every Nth hit).
+ * Hits are counted where the breakpoint is checked (see `LineBreakpoints`), so hits that don't satisfy it never suspend the thread.
+ *
+ * The count is a single AtomicLong rather than a striped counter (e.g. LongAdder): `==N` and `%N` need each hit to get its own ordinal,
+ * or concurrent hits could both (or neither) see the Nth. Once the outcome can't change anymore (`==N` and `<=N` after N hits, `>=N` after N),
+ * hits stop writing to the counter, so a hot breakpoint doesn't keep contending on it.
+ */
+public final class HitCondition {
+    private enum Kind { EQUAL, AT_LEAST, AT_MOST, EVERY }
+
+    private static final Pattern syntax = Pattern.compile("^\\s*(==|>=|<=|>|<|%)?\\s*(\\d+)\\s*$");
+
+    public final String text;
+    private final Kind kind;
+    private final long n;
+    private final AtomicLong hits = new AtomicLong();
+
+    private HitCondition(String text, Kind kind, long n) {
+        this.text = text;
+        this.kind = kind;
+        this.n = n;
+    }
+
+    /**
+     * @return Left(error message) if `text` isn't a hit condition we understand
+     */
+    public static Either<String, HitCondition> parse(String text) {
+        final var match = syntax.matcher(text);
+        if (!match.matches()) {
+            return Either.Left("Unsupported hit condition '" + text + "', expected one of ==N, >=N, >N, <=N, <N, %N");
+        }
+
+        final long n;
+        try {
+            n = Long.parseLong(match.group(2));
+        }
+        catch (NumberFormatException e) {
+            return Either.Left("Hit condition '" + text + "' is out of range");
+        }
+
+        final String op = match.group(1) == null ? "==" : match.group(1);
+        switch (op) {
+            case "==": return Either.Right(new HitCondition(text, Kind.EQUAL, n));
+            case ">=": return Either.Right(new HitCondition(text, Kind.AT_LEAST, n));
+            case ">": {
+                if (n == Long.MAX_VALUE) {
+                    return Either.Left("Hit condition '" + text + "' is out of range");
+                }
+                return Either.Right(new HitCondition(text, Kind.AT_LEAST, n + 1));
+            }
+            case "<=": return Either.Right(new HitCondition(text, Kind.AT_MOST, n));
+            case "<": return Either.Right(new HitCondition(text, Kind.AT_MOST, n - 1));
+            default: {
+                if (n == 0) {
+                    return Either.Left("Hit condition '" + text + "' would divide by zero");
+                }
+                return Either.Right(new HitCondition(text, Kind.EVERY, n));
+            }
+        }
+    }
+
+    /**
+     * Counts a hit.
+     * @return true if the breakpoint should stop on this hit
+     */
+    public boolean countHitAndTest() {
+        switch (kind) {
+            case EQUAL: {
+                if (hits.get() >= n) {
+                    return false;
+                }
+                return hits.incrementAndGet() == n;
+            }
+            case AT_LEAST: {
+                if (hits.get() >= n) {
+                    return true;
+                }
+                return hits.incrementAndGet() >= n;
+            }
+            case AT_MOST: {
+                if (hits.get() >= n) {
+                    return false;
+                }
+                return hits.incrementAndGet() <= n;
+            }
+            default: {
+                return hits.incrementAndGet() % n == 0;
+            }
+        }
+    }
+
+    /**
+     * Hits stop being counted once the outcome is settled, so this can stop short of the actual number of hits.
+     */
+    public long getCountedHits() {
+        return hits.get();
+    }
+}
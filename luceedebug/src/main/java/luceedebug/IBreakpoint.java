@@ -6,4 +6,9 @@ public interface IBreakpoint {
     public int getID();
 
     public boolean getIsBound();
+
+    /**
+     * Reason a breakpoint could not be bound, for display in the IDE, or null.
+     */
+    public String getMessage();
 }
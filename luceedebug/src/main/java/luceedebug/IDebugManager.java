@@ -1,6 +1,9 @@
 package luceedebug;
 
 import java.util.ArrayList;
+import java.util.Map;
+
+import luceedebug.strong.DapBreakpointID;
 
 /**
  * We might be able to whittle this down to just {push,pop,step},
@@ -12,6 +15,29 @@ public interface IDebugManager {
     public interface CfStepCallback {
         void call(Thread thread, int minDistanceToLuceedebugBaseFrame);
     }
+
+    public interface CfBreakpointCallback {
+        /**
+         * @return false if the thread won't be suspended after all (the hit was over the suspension budget), and carries on
+         */
+        boolean call(Thread thread, int minDistanceToLuceedebugBaseFrame, DapBreakpointID breakpointID);
+    }
+
+    public interface CfLogpointCallback {
+        void call(DapBreakpointID breakpointID, String message);
+    }
+
+    public interface CfThreadStartedCallback {
+        void call(Thread thread);
+    }
+
+    public interface CfExceptionCallback {
+        /**
+         * @param text a one line description of the exception, for the stopped event
+         * @return false if the thread won't be suspended after all (too many threads are already suspended), and carries on
+         */
+        boolean call(Thread thread, int minDistanceToLuceedebugBaseFrame, String text);
+    }
     
     void spawnWorker(Config config, String jdwpHost, int jdwpPort, String debugHost, int debugPort);
     /**
@@ -29,18 +55,78 @@ public interface IDebugManager {
     // these method names are "magic" in that they serve as tags
     // when scanning the stack for "where did we transition from lucee to luceedebug code".
     // These must be the only "entry points" from lucee compiled CF files into luceedebug.
-    public void luceedebug_stepNotificationEntry_step(int currentLine);
+    /**
+     * Instrumented pages call this as `(int currentLine)`; when linked, the call site supplies the page's breakpoints (see `DebugHookCallSites`).
+     */
+    public void luceedebug_stepNotificationEntry_step(LineBreakpoints breakpoints, int currentLine);
     public void luceedebug_stepNotificationEntry_stepAfterCompletedUdfCall();
+    /**
+     * Called from the catch-all handler of every instrumented page's wrapper methods, as the exception propagates out of the frame,
+     * before the frame is popped. This is a frame hook rather than a step hook as far as linkage goes (it's linked whenever frame hooks are),
+     * but it's named like a step hook, since it may suspend the thread just after its call site.
+     */
+    public void luceedebug_stepNotificationEntry_exception(Throwable exception);
     static public boolean isStepNotificationEntryFunc(String methodName) {
         return methodName.startsWith("luceedebug_stepNotificationEntry_");
     }
+    static final String LINE_STEP_HOOK_NAME = "luceedebug_stepNotificationEntry_step";
+    static final String EXCEPTION_HOOK_NAME = "luceedebug_stepNotificationEntry_exception";
+
+    /**
+     * Step hooks don't record the current line as they run; instead, when a thread is suspended, the line of each cf frame
+     * is read from the jvm stack (over jdwp, or by the suspending thread itself for `InProcessVm`) and set here. Lines <= 0 mean "unknown", and are ignored.
+     */
+    public void setCfFrameLines(Thread thread, int[] linesTopmostFirst);
 
     public void registerStepRequest(Thread thread, int stepType);
     public void clearStepRequest(Thread thread);
+    /**
+     * Including steps armed on threads that are between requests, which would otherwise complete on the thread's next request.
+     */
+    public void clearAllStepRequests();
     public IDebugFrame[] getCfStack(Thread thread);
+    /**
+     * Threads that are currently running cf code, each with a name for the debugger (the request it's running, and the thread name).
+     * Read from the in-process cf stack registry; names are cached per request, so this is cheap to call for every `threads` request.
+     */
+    public Map<Thread, String> getCfThreadNames();
     public IDebugEntity[] getScopesForFrame(long frameID);
     public IDebugEntity[] getVariables(long id, IDebugEntity.DebugEntityType maybeNull_whichType);
     public void registerCfStepHandler(CfStepCallback cb);
+    /**
+     * The callback runs on a thread that reached a line with a breakpoint (and whose condition, if any, passed),
+     * and is expected to suspend it.
+     */
+    public void registerCfBreakpointHandler(CfBreakpointCallback cb);
+    /**
+     * The callback runs on the thread that hit a logpoint (or, for a thread suspended by a jdwp breakpoint, on the jdwp event thread),
+     * with the formatted message; it must not block.
+     */
+    public void registerCfLogpointHandler(CfLogpointCallback cb);
+    /**
+     * The callback runs on a thread that is propagating an exception that matches the exception filters, and is expected to suspend it.
+     */
+    public void registerCfExceptionHandler(CfExceptionCallback cb);
+    /**
+     * The callback runs on a thread as it pushes its first cf frame, once per thread (counting from when the callback is registered),
+     * so an engine can get to know the threads running cf code before any of them stops; it may block briefly.
+     */
+    public void registerCfThreadStartedHandler(CfThreadStartedCallback cb);
+
+    /**
+     * Comma separated exception type patterns (`*` matches anything, so "*" or "" is every type), per DAP exception filter.
+     * @param maybeNull_allTypes stop where a matching exception first propagates out of a frame; null to turn the "all" filter off
+     * @param maybeNull_uncaughtTypes stop where a matching exception propagates out of a request's outermost frame; null to turn the "uncaught" filter off
+     */
+    public void setExceptionBreakpoints(String maybeNull_allTypes, String maybeNull_uncaughtTypes);
+    /**
+     * @param maybeNull_functionBreakpoints null for "no function breakpoints"
+     */
+    public void setFunctionBreakpoints(FunctionBreakpoints maybeNull_functionBreakpoints);
+    /**
+     * @return [exceptionType, message, detail, filter ("all" | "uncaught")], or null if the thread isn't stopped on an exception
+     */
+    public String[] getExceptionInfo(Thread thread);
 
     public String doDump(ArrayList<Thread> suspendedThreads, int variableID);
     public String doDumpAsJSON(ArrayList<Thread> suspendedThreads, int variableID);
@@ -51,5 +137,31 @@ public interface IDebugManager {
     public String getSourcePathForVariablesRef(int variablesRef);
 
     public Either<String, Either<ICfValueDebuggerBridge, /*primitive value*/String>> evaluate(Long frameID, String expr);
-    public boolean evaluateAsBooleanForConditionalBreakpoint(Thread thread, String expr);
+    public boolean evaluateAsBooleanForConditionalBreakpoint(Thread thread, DapBreakpointID breakpointID, String expr);
+    /**
+     * For a thread suspended (by jdwp) at a logpoint; formats the message in the thread's topmost frame and passes it to the logpoint handler.
+     * If it's a snapshot breakpoint (the message starts with `#snapshot`), takes a snapshot of the frame instead.
+     */
+    public void logForSuspendedThread(Thread thread, DapBreakpointID breakpointID, String logMessage, int line);
+    /**
+     * @param remove if true, the returned snapshots are discarded
+     * @return [id, breakpointID, sourceFilePath, line, threadName, capturedAtMillis, json][], oldest first
+     */
+    public String[][] getSnapshots(boolean remove);
+    /**
+     * @return [breakpointID, expr, evaluations, trues, failures, meanMicros, maxMicros][]
+     */
+    public String[][] getBreakpointConditionStats();
+    /**
+     * For a breakpoint that was removed, or is no longer conditional; drops its condition and the condition's stats.
+     */
+    public void forgetBreakpointCondition(DapBreakpointID breakpointID);
+    /**
+     * @return [breakpointID, logMessage, logged, dropped][]
+     */
+    public String[][] getLogpointStats();
+    /**
+     * For a breakpoint that was removed, or is no longer a logpoint; drops its logpoint and the logpoint's stats (or its snapshot breakpoint, and that one's snapshot budget).
+     */
+    public void forgetLogpoint(DapBreakpointID breakpointID);
 }
@@ -3,8 +3,6 @@ package luceedebug;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
-import com.sun.jdi.*;
-
 import luceedebug.strong.DapBreakpointID;
 import luceedebug.strong.JdwpThreadID;
 import luceedebug.strong.CanonicalServerAbsPath;
@@ -26,8 +24,21 @@ public interface ILuceeVm {
         }
     }
     public void registerBreakpointsChangedCallback(Consumer<BreakpointsChangedEvent> cb);
+    /**
+     * Called with each formatted logpoint message, on the thread that hit the logpoint; it must not block.
+     */
+    public void registerLogpointCallback(BiConsumer<DapBreakpointID, String> cb);
+    /**
+     * Called when a thread stops on an exception, with a one line description of the exception.
+     */
+    public void registerExceptionEventCallback(BiConsumer<JdwpThreadID, String> cb);
 
-    public ThreadReference[] getThreadListing();
+    /**
+     * Threads running cf code, named after the request they're running. Doesn't go over jdwp.
+     * @param suspendedOnly list only threads that are suspended
+     * @return [jdwpThreadID, name][]
+     */
+    public String[][] getThreadListing(boolean suspendedOnly);
     public IDebugFrame[] getStackTrace(long jdwpThreadID);
     public IDebugEntity[] getScopes(long frameID);
 
@@ -42,7 +53,12 @@ public interface ILuceeVm {
     public IDebugEntity[] getNamedVariables(long ID);
     public IDebugEntity[] getIndexedVariables(long ID);
 
-    public IBreakpoint[] bindBreakpoints(RawIdePath idePath, CanonicalServerAbsPath serverAbsPath, int[] lines, String[] exprs);
+    /**
+     * @param exprs conditions, null elements for "no condition"
+     * @param hitConditions DAP hit conditions (see `HitCondition`), null elements for "no hit condition"
+     * @param logMessages DAP log messages, null elements for "not a logpoint"
+     */
+    public IBreakpoint[] bindBreakpoints(RawIdePath idePath, CanonicalServerAbsPath serverAbsPath, int[] lines, String[] exprs, String[] hitConditions, String[] logMessages);
 
     public void continue_(long jdwpThreadID);
 
@@ -55,6 +71,26 @@ public interface ILuceeVm {
 
     public void clearAllBreakpoints();
 
+    /**
+     * see `IDebugManager.setExceptionBreakpoints`
+     */
+    public void setExceptionBreakpoints(String maybeNull_allTypes, String maybeNull_uncaughtTypes);
+    /**
+     * @return [exceptionType, message, detail, filter ("all" | "uncaught")], or null if the thread isn't stopped on an exception
+     */
+    public String[] getExceptionInfo(long jdwpThreadID);
+
+    /**
+     * Replaces all function breakpoints. A name is `functionName` or `ComponentName.functionName`, see `FunctionBreakpoints`.
+     * exprs and hitConditions are parallel to names, null entries for "none".
+     */
+    public IBreakpoint[] bindFunctionBreakpoints(String[] names, String[] exprs, String[] hitConditions);
+
+    /**
+     * see `IDebugManager.getSnapshots`
+     */
+    public String[][] getSnapshots(boolean remove);
+
     public String dump(int dapVariablesReference);
     public String dumpAsJSON(int dapVariablesReference);
 
@@ -65,6 +101,16 @@ public interface ILuceeVm {
      **/
     public String[][] getBreakpointDetail();
 
+    /**
+     * @return [breakpointID, expr, evaluations, trues, failures, meanMicros, maxMicros][]
+     */
+    public String[][] getBreakpointConditionStats();
+
+    /**
+     * @return [breakpointID, logMessage, logged, dropped][]
+     */
+    public String[][] getLogpointStats();
+
     /**
      * @return String | null
      */
@@ -0,0 +1,114 @@
+package luceedebug;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import luceedebug.instrumenter.CfmOrCfc;
+
+/**
+ * Which cf files were instrumented with less than full step hook density, or not at all, because an instrumented method would have
+ * exceeded the jvm's 64kb limit on a method's bytecode. See `CfmOrCfc.StepHooks`.
+ * Files instrumented normally don't appear here. Shown by the "luceedebug: show class and breakpoint info" command.
+ *
+ * Also, per file, how many step hooks were emitted versus how many were candidates before redundant ones were dropped.
+ * Shown by the "luceedebug: show agent metrics" command. Neither covers files whose instrumented class came from the class cache.
+ */
+public class InstrumentationReport {
+    /**
+     * source path -> class name -> human readable description
+     * A file can compile to several classes (e.g. a cfc with closures), each instrumented separately, and the file is degraded if any of them is.
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> degradedBySourcePath = new ConcurrentHashMap<>();
+
+    /**
+     * source path -> class name -> [candidates, emitted]
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, int[]>> stepHookCountsBySourcePath = new ConcurrentHashMap<>();
+
+    public static void recordStepHookCounts(String sourcePath, String className, int candidates, int emitted) {
+        stepHookCountsBySourcePath
+            .computeIfAbsent(sourcePath, ignored -> new ConcurrentHashMap<>())
+            .put(className, new int[]{candidates, emitted});
+    }
+
+    /**
+     * @return [sourcePath, candidates, emitted][], summed over the file's classes, sorted by source path
+     */
+    public static String[][] stepHookCountsSnapshot() {
+        final var result = new ArrayList<String[]>();
+        for (var e : new TreeMap<>(stepHookCountsBySourcePath).entrySet()) {
+            int candidates = 0;
+            int emitted = 0;
+            for (var counts : e.getValue().values()) {
+                candidates += counts[0];
+                emitted += counts[1];
+            }
+            result.add(new String[]{e.getKey(), Integer.toString(candidates), Integer.toString(emitted)});
+        }
+        return result.toArray(new String[0][]);
+    }
+
+    /**
+     * @param stepHooksByDelegateName as passed to CfmOrCfc, only contains methods that were degraded
+     */
+    public static void recordInstrumented(String sourcePath, String className, Map<String, CfmOrCfc.StepHooks> stepHooksByDelegateName) {
+        if (stepHooksByDelegateName.isEmpty()) {
+            // e.g. the file was edited and recompiled, and now fits
+            final var maybeNull_byClassName = degradedBySourcePath.get(sourcePath);
+            if (maybeNull_byClassName != null) {
+                // the (maybe now empty) per-class map is left in place, so a concurrent record for another of the file's classes isn't lost
+                maybeNull_byClassName.remove(className);
+            }
+            return;
+        }
+
+        final var methods = new ArrayList<String>();
+        for (var e : new TreeMap<>(stepHooksByDelegateName).entrySet()) {
+            methods.add(InstrumentedMethodNames.originalNameOf(e.getKey()) + "=" + e.getValue());
+        }
+        recordDegraded(sourcePath, className, "class " + className + ", step hooks: " + String.join(", ", methods));
+    }
+
+    public static void recordNotInstrumented(String sourcePath, String className, String delegateName) {
+        recordDegraded(
+            sourcePath,
+            className,
+            "class " + className + ", not instrumented: method '" + InstrumentedMethodNames.originalNameOf(delegateName) + "' is too large even with "
+                + CfmOrCfc.StepHooks.OUTLINED + " step hooks"
+        );
+    }
+
+    private static void recordDegraded(String sourcePath, String className, String description) {
+        degradedBySourcePath
+            .computeIfAbsent(sourcePath, ignored -> new ConcurrentHashMap<>())
+            .put(className, description);
+    }
+
+    /**
+     * @return true if any of the file's classes is degraded
+     */
+    public static boolean isDegraded(String sourcePath) {
+        final var maybeNull_byClassName = degradedBySourcePath.get(sourcePath);
+        return maybeNull_byClassName != null && !maybeNull_byClassName.isEmpty();
+    }
+
+    public static boolean isDegraded(String sourcePath, String className) {
+        final var maybeNull_byClassName = degradedBySourcePath.get(sourcePath);
+        return maybeNull_byClassName != null && maybeNull_byClassName.containsKey(className);
+    }
+
+    /**
+     * @return [sourcePath, description][], one per degraded class, sorted by source path then class name
+     */
+    public static String[][] snapshot() {
+        final var result = new ArrayList<String[]>();
+        for (var e : new TreeMap<>(degradedBySourcePath).entrySet()) {
+            for (var description : new TreeMap<>(e.getValue()).values()) {
+                result.add(new String[]{e.getKey(), description});
+            }
+        }
+        return result.toArray(new String[0][]);
+    }
+}
@@ -0,0 +1,206 @@
+package luceedebug;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Content addressed on-disk cache of instrumented page classfiles, so that we don't re-run ASM over every page on every JVM start
+ * (or every time the engine reloads a mapping but compiles the same bytes).
+ *
+ * The key is a sha-256 of the original classfile bytes plus a string describing everything else that affects the instrumented output
+ * (agent version, instrumentation options). The value is the instrumented classfile, in a file named by the key.
+ * Writes go to a temp file in the cache dir which is then atomically moved into place, so concurrent writers
+ * (including other JVMs sharing the same dir) never observe a partially written entry.
+ *
+ * Size is bounded; least recently used entries are evicted first. Recency is the file's mtime, which is bumped on every hit,
+ * so it survives restarts.
+ */
+public class InstrumentedClassCache {
+    private static final String SUFFIX = ".class";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long STALE_TMP_FILE_AGE_MILLIS = 60 * 60 * 1000;
+
+    private final Path dir_;
+    private final long maxBytes_;
+    private final byte[] keyContext_;
+
+    /**
+     * key -> size in bytes; access ordered, so iteration order is least recently used first
+     */
+    private final LinkedHashMap<String, Long> index_ = new LinkedHashMap<>(16, 0.75f, /*accessOrder*/ true);
+    private long totalBytes_ = 0;
+
+    /**
+     * @param keyContext everything other than the original classfile bytes that affects instrumentation output
+     */
+    public InstrumentedClassCache(Path dir, long maxBytes, String keyContext) throws IOException {
+        this.dir_ = dir;
+        this.maxBytes_ = maxBytes;
+        this.keyContext_ = keyContext.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+        Files.createDirectories(dir);
+
+        final var existing = new ArrayList<Path>();
+        try (var stream = Files.list(dir)) {
+            existing.addAll(stream.collect(Collectors.toList()));
+        }
+
+        // leftovers from a writer that died mid-write (but not ones some other JVM sharing the dir might be writing right now)
+        for (var path : existing) {
+            if (path.getFileName().toString().endsWith(TMP_SUFFIX)
+                && System.currentTimeMillis() - lastModifiedOrZero(path).toMillis() > STALE_TMP_FILE_AGE_MILLIS
+            ) {
+                Files.deleteIfExists(path);
+            }
+        }
+
+        existing.removeIf(path -> !path.getFileName().toString().endsWith(SUFFIX));
+        existing.sort(Comparator.comparing(path -> lastModifiedOrZero(path)));
+
+        for (var path : existing) {
+            final var name = path.getFileName().toString();
+            final long size = Files.size(path);
+            index_.put(name.substring(0, name.length() - SUFFIX.length()), size);
+            totalBytes_ += size;
+        }
+
+        evictIfNecessary();
+    }
+
+    private static FileTime lastModifiedOrZero(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        }
+        catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    public String keyOf(byte[] originalClassfile) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(keyContext_);
+            digest.update(originalClassfile);
+            final var hash = digest.digest();
+            final var result = new StringBuilder(hash.length * 2);
+            for (var b : hash) {
+                result.append(Character.forDigit((b >> 4) & 0xF, 16));
+                result.append(Character.forDigit(b & 0xF, 16));
+            }
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every jvm is required to support sha-256
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Path pathOf(String key) {
+        return dir_.resolve(key + SUFFIX);
+    }
+
+    /**
+     * @return the instrumented classfile, or null on a cache miss
+     */
+    public byte[] maybeNull_get(String key) {
+        synchronized (this) {
+            if (index_.get(key) == null) { // n.b. `get` also marks it as most recently used
+                return null;
+            }
+        }
+
+        final var path = pathOf(key);
+        try {
+            final var bytes = Files.readAllBytes(path);
+            if (!hasClassfileMagic(bytes)) {
+                throw new IOException("not a classfile");
+            }
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytes;
+        }
+        catch (IOException e) {
+            // evicted by some other JVM sharing this dir, or otherwise unreadable; treat as a miss
+            synchronized (this) {
+                forget(key);
+            }
+            return null;
+        }
+    }
+
+    public void put(String key, byte[] instrumentedClassfile) {
+        final var target = pathOf(key);
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(dir_, key, TMP_SUFFIX);
+            Files.write(tmp, instrumentedClassfile);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        }
+        catch (IOException e) {
+            System.out.println("[luceedebug] couldn't write instrumented class cache entry '" + target + "': " + e.getMessage());
+            return;
+        }
+        finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                }
+                catch (IOException e) {
+                    // discard
+                }
+            }
+        }
+
+        synchronized (this) {
+            forget(key);
+            index_.put(key, (long)instrumentedClassfile.length);
+            totalBytes_ += instrumentedClassfile.length;
+            evictIfNecessary();
+        }
+    }
+
+    private void forget(String key) {
+        final Long size = index_.remove(key);
+        if (size != null) {
+            totalBytes_ -= size;
+        }
+    }
+
+    private void evictIfNecessary() {
+        final var iter = index_.entrySet().iterator();
+        while (totalBytes_ > maxBytes_ && iter.hasNext()) {
+            final var lru = iter.next();
+            try {
+                Files.deleteIfExists(pathOf(lru.getKey()));
+            }
+            catch (IOException e) {
+                // discard, we'll stop tracking it regardless
+            }
+            totalBytes_ -= lru.getValue();
+            iter.remove();
+        }
+    }
+
+    private static boolean hasClassfileMagic(byte[] bytes) {
+        return bytes.length >= 4
+            && (bytes[0] & 0xFF) == 0xCA
+            && (bytes[1] & 0xFF) == 0xFE
+            && (bytes[2] & 0xFF) == 0xBA
+            && (bytes[3] & 0xFF) == 0xBE;
+    }
+}
@@ -0,0 +1,62 @@
+package luceedebug;
+
+/**
+ * Names of the methods the instrumenter adds to cf page classes.
+ * The coreinject side finds these methods on suspended threads' stacks (over jdwp), so the naming lives here, in package luceedebug
+ * (which is boot-delegated), where both the instrumenter and coreinject can see it.
+ */
+public class InstrumentedMethodNames {
+    private static final String DELEGATE_PREFIX = "__luceedebug__";
+    private static final String UDF_DELEGATE_PREFIX = "udfCall__luceedebug__";
+    private static final String OUTLINED_STEP_HOOK_PREFIX = "luceedebug_outlinedStepHook_";
+
+    /**
+     * The name an instrumented method's original body is moved to. Exactly one cf frame is pushed per invocation of a delegate.
+     *
+     * Lucee scans stack traces for frames starting with "udfCall" in order to reflect back the function names (see `callStackGet`),
+     * so udfCall delegates keep that prefix.
+     */
+    public static String delegateNameOf(String name) {
+        return name.startsWith("udfCall")
+            ? UDF_DELEGATE_PREFIX + name
+            : DELEGATE_PREFIX + name;
+    }
+
+    public static boolean isDelegate(String methodName) {
+        return methodName.startsWith(DELEGATE_PREFIX) || methodName.startsWith(UDF_DELEGATE_PREFIX);
+    }
+
+    public static String originalNameOf(String delegateName) {
+        if (delegateName.startsWith(UDF_DELEGATE_PREFIX)) {
+            return delegateName.substring(UDF_DELEGATE_PREFIX.length());
+        }
+        else if (delegateName.startsWith(DELEGATE_PREFIX)) {
+            return delegateName.substring(DELEGATE_PREFIX.length());
+        }
+        else {
+            return delegateName;
+        }
+    }
+
+    /**
+     * Name of the per-line helper an OUTLINED step hook calls, see `CfmOrCfc.StepHooks`.
+     */
+    public static String outlinedStepHookName(int line) {
+        return OUTLINED_STEP_HOOK_PREFIX + line;
+    }
+
+    /**
+     * @return the line the outlined step hook is for, or -1 if the method isn't an outlined step hook
+     */
+    public static int outlinedStepHookLineOrNegativeOne(String methodName) {
+        if (!methodName.startsWith(OUTLINED_STEP_HOOK_PREFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(methodName.substring(OUTLINED_STEP_HOOK_PREFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package luceedebug;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import luceedebug.strong.DapBreakpointID;
+
+/**
+ * The line breakpoints of a single cf source file, checked by that file's line step hooks (see `DebugHookCallSites`).
+ *
+ * The debugger publishes a new immutable table whenever the file's breakpoints change; a step hook does a single volatile read
+ * and a bit test, so a line without a breakpoint costs about as much as the hook call itself, and methods with breakpoints
+ * somewhere in them stay jit-compiled (unlike with jdwp breakpoints, which deoptimize the method they are set in).
+ * Only when the bit is set does the hook go on to look up the breakpoint, evaluate its condition, and suspend the thread (or, for a logpoint, log).
+ *
+ * This lives in package luceedebug (which is boot-delegated), so call site linkage and coreinject share the same tables.
+ */
+public final class LineBreakpoints {
+    public static final class Breakpoint {
+        public final int line;
+        public final DapBreakpointID id;
+        /**
+         * condition, null for "not a conditional breakpoint"
+         */
+        public final String maybeNull_expr;
+        /**
+         * checked after the condition passes, null for "stop on every hit"
+         */
+        public final HitCondition maybeNull_hitCondition;
+        /**
+         * non-null for a logpoint, which logs this (with `{expr}` interpolated) instead of suspending the thread
+         */
+        public final String maybeNull_logMessage;
+
+        public Breakpoint(int line, DapBreakpointID id, String maybeNull_expr, HitCondition maybeNull_hitCondition, String maybeNull_logMessage) {
+            this.line = line;
+            this.id = id;
+            this.maybeNull_expr = maybeNull_expr;
+            this.maybeNull_hitCondition = maybeNull_hitCondition;
+            this.maybeNull_logMessage = maybeNull_logMessage;
+        }
+    }
+
+    private static final class Table {
+        /**
+         * bit N set means "there's a breakpoint on line N"
+         */
+        final long[] lineBits;
+        /**
+         * sorted, parallel to `breakpoints`
+         */
+        final int[] lines;
+        final Breakpoint[] breakpoints;
+
+        Table(Breakpoint[] breakpoints) {
+            this.breakpoints = breakpoints.clone();
+            Arrays.sort(this.breakpoints, (l, r) -> Integer.compare(l.line, r.line));
+
+            this.lines = new int[this.breakpoints.length];
+            int maxLine = -1;
+            for (int i = 0; i < this.breakpoints.length; i++) {
+                this.lines[i] = this.breakpoints[i].line;
+                maxLine = Math.max(maxLine, this.lines[i]);
+            }
+
+            this.lineBits = new long[maxLine < 0 ? 0 : (maxLine >>> 6) + 1];
+            for (int line : this.lines) {
+                if (line >= 0) {
+                    this.lineBits[line >>> 6] |= 1L << line;
+                }
+            }
+        }
+    }
+
+    private static final Table EMPTY = new Table(new Breakpoint[0]);
+
+    private volatile Table table_ = EMPTY;
+
+    /**
+     * Hot path; called by a file's line step hook for every line step.
+     * @return the breakpoint on `line`, or null if there isn't one
+     */
+    public Breakpoint maybeNull_breakpointAt(int line) {
+        final Table table = table_;
+        final int word = line >>> 6;
+        if (word >= table.lineBits.length || (table.lineBits[word] & (1L << line)) == 0) {
+            return null;
+        }
+        final int i = Arrays.binarySearch(table.lines, line);
+        return i < 0 ? null : table.breakpoints[i];
+    }
+
+    /**
+     * canonical source path -> breakpoints
+     */
+    private static final ConcurrentHashMap<String, LineBreakpoints> byCanonicalPath = new ConcurrentHashMap<>();
+
+    public static LineBreakpoints forFile(String sourcePath) {
+        return byCanonicalPath.computeIfAbsent(Config.canonicalizeFileName(sourcePath), ignored -> new LineBreakpoints());
+    }
+
+    /**
+     * Replaces all of a file's breakpoints. Threads that are mid-step-hook may still act on the previous table.
+     */
+    public static void set(String sourcePath, Breakpoint[] breakpoints) {
+        forFile(sourcePath).table_ = breakpoints.length == 0 ? EMPTY : new Table(breakpoints);
+    }
+
+    public static void clear(String sourcePath) {
+        final var maybeNull_breakpoints = byCanonicalPath.get(Config.canonicalizeFileName(sourcePath));
+        if (maybeNull_breakpoints != null) {
+            maybeNull_breakpoints.table_ = EMPTY;
+        }
+    }
+
+    public static void clearAll() {
+        for (var breakpoints : byCanonicalPath.values()) {
+            breakpoints.table_ = EMPTY;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package luceedebug;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Logpoint messages on their way from the threads that hit logpoints to the debugger client.
+ *
+ * `offer` is called on the hitting thread and never blocks: the buffer is a lock-free queue with a fixed capacity,
+ * and a message that doesn't fit is dropped and counted. A single sender thread drains the buffer every `batchIntervalNanos`,
+ * and hands whatever accumulated to the client as one batch (one DAP output event), so a busy logpoint costs the client
+ * an event per interval rather than one per hit. If messages were dropped since the last batch, the batch says how many.
+ */
+public final class LogpointOutput {
+    static final int capacity = 10_000;
+    static final int maxLinesPerBatch = 1_000;
+    static final long batchIntervalNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final Metrics.Counter sent = Metrics.counter("logpoints.sent");
+    private static final Metrics.Counter batches = Metrics.counter("logpoints.batches");
+    private static final Metrics.Counter droppedBufferFull = Metrics.counter("logpoints.droppedBufferFull");
+
+    private final ConcurrentLinkedQueue<String> buffer = new ConcurrentLinkedQueue<>();
+    /**
+     * Reserved before a message is queued, released after it's dequeued, so the buffer never holds more than `capacity` messages.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong droppedSinceLastBatch = new AtomicLong();
+
+    private final Consumer<String> sink;
+    private final Thread sender;
+    private volatile boolean closed = false;
+
+    /**
+     * @param sink called on the sender thread, with one or more newline terminated lines
+     */
+    public LogpointOutput(Consumer<String> sink) {
+        this.sink = sink;
+        this.sender = new Thread(this::sendUntilClosed, "luceedebug-logpoint-output");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * @return false if the message was dropped because the buffer is full
+     */
+    public boolean offer(String message) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            droppedSinceLastBatch.incrementAndGet();
+            droppedBufferFull.increment();
+            return false;
+        }
+        buffer.offer(message);
+        return true;
+    }
+
+    /**
+     * Sends whatever is buffered, and stops the sender thread.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(sender);
+    }
+
+    private void sendUntilClosed() {
+        while (!closed) {
+            LockSupport.parkNanos(batchIntervalNanos);
+            while (sendOneBatch()) {
+                // the buffer held more than one batch's worth; keep going, without waiting out another interval
+            }
+        }
+        while (sendOneBatch()) {
+            // flush what's left
+        }
+    }
+
+    /**
+     * @return true if there may be more to send
+     */
+    private boolean sendOneBatch() {
+        final var batch = new StringBuilder();
+        int lines = 0;
+        String line;
+        while (lines < maxLinesPerBatch && (line = buffer.poll()) != null) {
+            size.decrementAndGet();
+            batch.append(line).append('\n');
+            lines++;
+        }
+
+        final long dropped = droppedSinceLastBatch.getAndSet(0);
+        if (dropped > 0) {
+            batch.append("[luceedebug] " + dropped + " logpoint messages were dropped because the debugger client wasn't keeping up\n");
+        }
+
+        if (batch.length() == 0) {
+            return false;
+        }
+
+        try {
+            sink.accept(batch.toString());
+            sent.add(lines);
+            batches.increment();
+        }
+        catch (Throwable e) {
+            // client went away; there's nobody to tell
+        }
+
+        return lines == maxLinesPerBatch;
+    }
+}
@@ -5,8 +5,14 @@ import java.lang.reflect.Method;
 
 import org.objectweb.asm.*;
 
+import luceedebug.instrumenter.CfmOrCfc;
+
+import java.nio.charset.StandardCharsets;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class LuceeTransformer implements ClassFileTransformer {
     private final String jdwpHost;
@@ -14,6 +20,7 @@ public class LuceeTransformer implements ClassFileTransformer {
     private final String debugHost;
     private final int debugPort;
     private final Config config;
+    private final InstrumentedClassCache maybeNull_classCache;
 
     static public class ClassInjection {
         final String name;
@@ -31,13 +38,53 @@ public class LuceeTransformer implements ClassFileTransformer {
      */
     private ClassInjection[] pendingCoreLoaderClassInjections;
 
+    private static final ClassLoader systemLoader = ClassLoader.getSystemClassLoader();
+    private static final ClassLoader platformLoader = ClassLoader.getPlatformClassLoader();
+
+    /**
+     * Packages that never contain cf pages. Every class the jvm loads goes through `transform`, and the vast majority
+     * (jdk, servlet container, lucee core, jdbc drivers, ...) are rejected here without looking at the classfile at all.
+     */
+    private static final String[] nonPagePackagePrefixes = {
+        "java/",
+        "javax/",
+        "jakarta/",
+        "jdk/",
+        "sun/",
+        "com/sun/",
+        "org/apache/catalina/",
+        "org/apache/coyote/",
+        "org/apache/tomcat/",
+        "org/apache/felix/",
+        "org/eclipse/jetty/",
+        "org/osgi/",
+        "org/objectweb/asm/",
+        "lucee/commons/",
+        "lucee/loader/",
+        "lucee/runtime/",
+        "lucee/transformer/",
+        "luceedebug/",
+    };
+
+    private static final byte[] PAGE_IMPL = "lucee/runtime/PageImpl".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] COMPONENT_PAGE_IMPL = "lucee/runtime/ComponentPageImpl".getBytes(StandardCharsets.UTF_8);
+
+    private static final Metrics.Counter rejectedByLoader = Metrics.counter("transformer.rejected.byLoader");
+    private static final Metrics.Counter rejectedByName = Metrics.counter("transformer.rejected.byClassName");
+    private static final Metrics.Counter rejectedBySuperclass = Metrics.counter("transformer.rejected.bySuperclass");
+    private static final Metrics.Timer nonPageClassTime = Metrics.timer("transformer.nonPageClasses");
+    private static final Metrics.Timer pageClassTime = Metrics.timer("transformer.pageClasses");
+    private static final Metrics.Counter stepHookCandidates = Metrics.counter("instrumenter.stepHooks.candidates");
+    private static final Metrics.Counter stepHooksEmitted = Metrics.counter("instrumenter.stepHooks.emitted");
+
     public LuceeTransformer(
         ClassInjection[] injections,
         String jdwpHost,
         int jdwpPort,
         String debugHost,
         int debugPort,
-        Config config
+        Config config,
+        InstrumentedClassCache maybeNull_classCache
     ) {
         this.pendingCoreLoaderClassInjections = injections;
 
@@ -46,6 +93,7 @@ public class LuceeTransformer implements ClassFileTransformer {
         this.debugHost = debugHost;
         this.debugPort = debugPort;
         this.config = config;
+        this.maybeNull_classCache = maybeNull_classCache;
     }
 
     public byte[] transform(ClassLoader loader,
@@ -54,10 +102,14 @@ public class LuceeTransformer implements ClassFileTransformer {
         ProtectionDomain protectionDomain,
         byte[] classfileBuffer
     ) throws IllegalClassFormatException {
-        try {
-            var classReader = new ClassReader(classfileBuffer);
-            String superClass = classReader.getSuperName();
+        if (className == null) {
+            // hidden classes (lambdas and the like)
+            return classfileBuffer;
+        }
+
+        final long startNanos = System.nanoTime();
 
+        try {
             if (className.equals("lucee/runtime/type/scope/ClosureScope")) {
                 return instrumentClosureScope(classfileBuffer);
             }
@@ -101,17 +153,30 @@ public class LuceeTransformer implements ClassFileTransformer {
                     return null;
                 }
             }
-            else if (superClass.equals("lucee/runtime/ComponentPageImpl") || superClass.equals("lucee/runtime/PageImpl")) {
+            else if (!isPageClass(loader, className, classfileBuffer)) {
+                nonPageClassTime.stop(startNanos);
+                return classfileBuffer;
+            }
+            else {
                 // System.out.println("[luceedebug] Instrumenting " + className);
                 if (GlobalIDebugManagerHolder.luceeCoreLoader == null) {
                     System.out.println("Got class " + className + " before receiving PageContextImpl, debugging will fail.");
                     System.exit(1);
                 }
 
-                return instrumentCfmOrCfc(classfileBuffer, classReader, className);
-            }
-            else {
-                return classfileBuffer;
+                final var classReader = new ClassReader(classfileBuffer);
+
+                if (!config.getSourcePathFilter().isEverything()) {
+                    final var maybeNull_sourcePath = maybeNull_getSourceFile(classReader);
+                    if (maybeNull_sourcePath != null && !config.getSourcePathFilter().shouldInstrument(maybeNull_sourcePath)) {
+                        pageClassTime.stop(startNanos);
+                        return classfileBuffer;
+                    }
+                }
+
+                final var result = instrumentCfmOrCfc(classfileBuffer, classReader, className);
+                pageClassTime.stop(startNanos);
+                return result;
             }
         }
         catch (Throwable e) {
@@ -121,6 +186,130 @@ public class LuceeTransformer implements ClassFileTransformer {
         }
     }
 
+    /**
+     * Cheapest checks first; only classes that pass all of them are parsed with a ClassReader.
+     */
+    private static boolean isPageClass(ClassLoader loader, String className, byte[] classfileBuffer) {
+        // Pages are loaded by lucee's per-mapping page loaders. Never by the bootstrap/platform/system loaders,
+        // nor by the lucee core loader itself.
+        if (loader == null
+            || loader == platformLoader
+            || loader == systemLoader
+            || loader == GlobalIDebugManagerHolder.luceeCoreLoader
+        ) {
+            rejectedByLoader.increment();
+            return false;
+        }
+
+        for (var prefix : nonPagePackagePrefixes) {
+            if (className.startsWith(prefix)) {
+                rejectedByName.increment();
+                return false;
+            }
+        }
+
+        if (!superclassIsOneOf(classfileBuffer, PAGE_IMPL, COMPONENT_PAGE_IMPL)) {
+            rejectedBySuperclass.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    private static int u2(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Walks the constant pool just far enough to find the superclass name, and compares its (modified utf8) bytes directly.
+     * Unlike ClassReader, this doesn't allocate per constant pool entry or decode any strings.
+     * Anything malformed is reported as "not a match"; if it really is a broken classfile, the jvm will say so when it tries to define it.
+     */
+    static boolean superclassIsOneOf(byte[] b, byte[]... names) {
+        try {
+            final int constantPoolCount = u2(b, 8);
+            final int[] entryOffsets = new int[constantPoolCount];
+            int offset = 10;
+            for (int i = 1; i < constantPoolCount; i++) {
+                entryOffsets[i] = offset;
+                switch (b[offset]) {
+                    case 1: // Utf8
+                        offset += 3 + u2(b, offset + 1);
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        offset += 3;
+                        break;
+                    case 15: // MethodHandle
+                        offset += 4;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        offset += 5;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        offset += 9;
+                        i++; // takes two constant pool slots
+                        break;
+                    default:
+                        return false;
+                }
+            }
+
+            // access_flags, this_class, super_class
+            final int superClassIndex = u2(b, offset + 4);
+            if (superClassIndex == 0) {
+                return false; // java/lang/Object
+            }
+
+            final int classEntry = entryOffsets[superClassIndex];
+            if (b[classEntry] != 7) {
+                return false;
+            }
+
+            final int utf8Entry = entryOffsets[u2(b, classEntry + 1)];
+            if (b[utf8Entry] != 1) {
+                return false;
+            }
+
+            final int nameStart = utf8Entry + 3;
+            final int nameEnd = nameStart + u2(b, utf8Entry + 1);
+            for (var name : names) {
+                if (Arrays.equals(b, nameStart, nameEnd, name, 0, name.length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * For cf pages, the SourceFile attribute is the absolute path of the cf source file.
+     */
+    private static String maybeNull_getSourceFile(ClassReader classReader) {
+        final var result = new Object(){ String value = null; };
+        classReader.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visitSource(String source, String debug) {
+                result.value = source;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+        return result.value;
+    }
+
     private byte[] instrumentPageContextImpl(final byte[] classfileBuffer) {
         // Weird problems if we try to compute frames ... tries to lookup PageContextImpl but then it's not yet available in the classloader?
         // Mostly meaning, don't do things in PageContextImpl that change frame sizes
@@ -189,40 +378,132 @@ public class LuceeTransformer implements ClassFileTransformer {
     }
     
     private byte[] instrumentCfmOrCfc(final byte[] classfileBuffer, ClassReader reader, String className) {
-        byte[] stepInstrumentedBuffer = classfileBuffer;
-        var classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+        final var maybeNull_sourcePath = maybeNull_getSourceFile(reader);
+        final var sourcePath = maybeNull_sourcePath == null ? className : maybeNull_sourcePath;
+
+        if (maybeNull_classCache == null) {
+            return instrumentCfmOrCfcUncached(classfileBuffer, reader, className, sourcePath);
+        }
+
+        final var key = maybeNull_classCache.keyOf(classfileBuffer);
+        final var cached = maybeNull_classCache.maybeNull_get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final var result = instrumentCfmOrCfcUncached(classfileBuffer, reader, className, sourcePath);
+        if (result != classfileBuffer && !InstrumentationReport.isDegraded(sourcePath, className)) {
+            // n.b. we don't cache "instrumentation failed, use the original bytes";
+            // nor degraded instrumentation, so that the instrumentation report is complete without having to persist it
+            maybeNull_classCache.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Classfiles of version 51+ are required to carry a StackMapTable. The code the instrumenter adds never changes the types of locals or
+     * of the stack at any existing frame, so those frames can be copied through as-is, and the wrapper methods supply their own (trivial) frames.
+     * That skips ClassWriter.COMPUTE_FRAMES, which re-runs dataflow analysis over every method in the class and loads classes via the
+     * lucee core loader to find common supertypes.
+     *
+     * Older classfiles (lucee 5 emits version 50) have no frames to copy, but are bumped to version 51 to allow invokedynamic,
+     * so they still need their frames computed.
+     *
+     * The fallback to computing frames only covers ASM failing to write the class. A copied frame that's wrong for the instrumented code would
+     * only show up when the page is loaded (as a VerifyError or ClassFormatError), which happens out of sight of the transformer;
+     * the instrumenter's output is checked against the jvm's verifier by `CopiedStackMapFramesPassVerification` instead.
+     */
+    private static boolean canCopyFramesThrough(ClassReader reader) {
+        final int majorVersion = reader.readUnsignedShort(6);
+        return majorVersion >= Opcodes.V1_7;
+    }
+
+    private static byte[] runCfmOrCfcInstrumenter(
+        final byte[] classfileBuffer,
+        String className,
+        String sourcePath,
+        Map<String, CfmOrCfc.StepHooks> stepHooksByDelegateName,
+        int classWriterFlags
+    ) {
+        var classWriter = new ClassWriter(classWriterFlags) {
             @Override
             protected ClassLoader getClassLoader() {
                 return GlobalIDebugManagerHolder.luceeCoreLoader;
             }
         };
 
-        try {
-            var instrumenter = new luceedebug.instrumenter.CfmOrCfc(Opcodes.ASM9, classWriter, className);
-            var classReader = new ClassReader(stepInstrumentedBuffer);
+        var instrumenter = new CfmOrCfc(Opcodes.ASM9, classWriter, className, stepHooksByDelegateName);
+        var classReader = new ClassReader(classfileBuffer);
 
-            classReader.accept(instrumenter, ClassReader.EXPAND_FRAMES);
+        classReader.accept(instrumenter, ClassReader.EXPAND_FRAMES);
 
-            return classWriter.toByteArray();
-        }
-        catch (MethodTooLargeException e) {
-            String baseName = e.getMethodName();
-            boolean targetMethodWasBeingInstrumented = false;
+        final var result = classWriter.toByteArray();
 
-            if (baseName.startsWith("__luceedebug__")) {
-                baseName = baseName.replaceFirst("__luceedebug__", "");
-                targetMethodWasBeingInstrumented = true;
-            }
+        stepHookCandidates.add(instrumenter.getStepHookCandidateCount());
+        stepHooksEmitted.add(instrumenter.getStepHookCount());
+        InstrumentationReport.recordStepHookCounts(sourcePath, className, instrumenter.getStepHookCandidateCount(), instrumenter.getStepHookCount());
+
+        return result;
+    }
 
-            if (targetMethodWasBeingInstrumented) {
-                System.err.println("[luceedebug] Method '" + baseName + "' in class '" + className + "' became too large after instrumentation (size="  + e.getCodeSize() + "). luceedebug won't be able to hit breakpoints in, or expose frame information for, this file.");
+    private static byte[] runCfmOrCfcInstrumenter(
+        final byte[] classfileBuffer,
+        ClassReader reader,
+        String className,
+        String sourcePath,
+        Map<String, CfmOrCfc.StepHooks> stepHooksByDelegateName
+    ) {
+        if (canCopyFramesThrough(reader)) {
+            try {
+                return runCfmOrCfcInstrumenter(classfileBuffer, className, sourcePath, stepHooksByDelegateName, ClassWriter.COMPUTE_MAXS);
             }
-            else {
-                // this shouldn't happen, we really should only get MethodTooLargeExceptions for code we were instrumenting
-                System.err.println("[luceedebug] Method " + baseName + " in class " + className + " was too large to for org.objectweb.asm to reemit.");
+            catch (MethodTooLargeException e) {
+                // computing frames won't make the method any smaller
+                throw e;
             }
+            catch (Throwable e) {
+                System.err.println("[luceedebug] couldn't reuse stack map frames for class '" + className + "', recomputing them (" + e.getMessage() + ")");
+            }
+        }
 
-            return classfileBuffer;
+        return runCfmOrCfcInstrumenter(classfileBuffer, className, sourcePath, stepHooksByDelegateName, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    }
+
+    /**
+     * A method that doesn't fit in 64kb once instrumented is retried with successively sparser step hooks (see `CfmOrCfc.StepHooks`),
+     * rather than giving up on the whole file. Only if the sparsest level still doesn't fit is the file left uninstrumented.
+     */
+    private byte[] instrumentCfmOrCfcUncached(final byte[] classfileBuffer, ClassReader reader, String className, String sourcePath) {
+        final var stepHooksByDelegateName = new HashMap<String, CfmOrCfc.StepHooks>();
+        try {
+            while (true) {
+                try {
+                    final var result = runCfmOrCfcInstrumenter(classfileBuffer, reader, className, sourcePath, stepHooksByDelegateName);
+                    InstrumentationReport.recordInstrumented(sourcePath, className, stepHooksByDelegateName);
+                    return result;
+                }
+                catch (MethodTooLargeException e) {
+                    final String methodName = e.getMethodName();
+
+                    if (!InstrumentedMethodNames.isDelegate(methodName)) {
+                        // this shouldn't happen, we really should only get MethodTooLargeExceptions for code we were instrumenting
+                        System.err.println("[luceedebug] Method " + methodName + " in class " + className + " was too large to for org.objectweb.asm to reemit.");
+                        return classfileBuffer;
+                    }
+
+                    final var current = stepHooksByDelegateName.getOrDefault(methodName, CfmOrCfc.StepHooks.FULL);
+                    final var maybeNull_next = current.maybeNull_next();
+
+                    if (maybeNull_next == null) {
+                        System.err.println("[luceedebug] Method '" + methodName + "' in class '" + className + "' became too large after instrumentation, even with " + current + " step hooks (size="  + e.getCodeSize() + "). luceedebug won't be able to hit breakpoints in, or expose frame information for, this file.");
+                        InstrumentationReport.recordNotInstrumented(sourcePath, className, methodName);
+                        return classfileBuffer;
+                    }
+
+                    System.err.println("[luceedebug] Method '" + methodName + "' in class '" + className + "' became too large after instrumentation with " + current + " step hooks (size="  + e.getCodeSize() + "), retrying with " + maybeNull_next + " step hooks.");
+                    stepHooksByDelegateName.put(methodName, maybeNull_next);
+                }
+            }
         }
         catch (Throwable e) {
             System.err.println("[luceedebug] exception during attempted classfile rewrite");
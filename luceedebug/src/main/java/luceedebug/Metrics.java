@@ -0,0 +1,152 @@
+package luceedebug;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide counters describing what the agent is doing, e.g. how much time the class transformer spends on classes it doesn't instrument.
+ * Cheap enough to update from hot paths (LongAdder based, no locking). Readable from the debugger via the `metrics` DAP request.
+ *
+ * This lives in package luceedebug (which is boot-delegated), so the agent and coreinject classes share the same counters.
+ */
+public class Metrics {
+    public static class Counter {
+        private final LongAdder value_ = new LongAdder();
+
+        public void increment() {
+            value_.increment();
+        }
+
+        public void add(long n) {
+            value_.add(n);
+        }
+
+        public long get() {
+            return value_.sum();
+        }
+    }
+
+    /**
+     * count / total / max of some duration
+     */
+    public static class Timer {
+        private final LongAdder count_ = new LongAdder();
+        private final LongAdder totalNanos_ = new LongAdder();
+        private final LongAccumulator maxNanos_ = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            count_.increment();
+            totalNanos_.add(nanos);
+            maxNanos_.accumulate(nanos);
+        }
+
+        /**
+         * @param startNanos from `System.nanoTime()`
+         */
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Distribution of some duration, in power-of-two microsecond buckets (bucket N counts durations of at most 2^N microseconds).
+     * Percentiles are reported as the upper bound of the bucket they fall in.
+     */
+    public static class Histogram {
+        private static final int BUCKETS = 32;
+        private final AtomicLongArray buckets_ = new AtomicLongArray(BUCKETS);
+        private final LongAccumulator maxNanos_ = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            final long micros = Math.max(1, nanos / 1000);
+            final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+            buckets_.incrementAndGet(bucket);
+            maxNanos_.accumulate(nanos);
+        }
+
+        public void stop(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        private static long bucketUpperBoundMicros(int bucket) {
+            return 1L << bucket;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, ignored -> new Counter());
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, ignored -> new Timer());
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, ignored -> new Histogram());
+    }
+
+    /**
+     * @return [name, value][], sorted by name
+     */
+    public static String[][] snapshot() {
+        final var result = new ArrayList<String[]>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            result.add(new String[]{e.getKey(), Long.toString(e.getValue().get())});
+        }
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            final var timer = e.getValue();
+            final long count = timer.count_.sum();
+            final long totalMicros = timer.totalNanos_.sum() / 1000;
+            result.add(new String[]{e.getKey() + ".count", Long.toString(count)});
+            result.add(new String[]{e.getKey() + ".totalMicros", Long.toString(totalMicros)});
+            result.add(new String[]{e.getKey() + ".meanMicros", Long.toString(count == 0 ? 0 : totalMicros / count)});
+            result.add(new String[]{e.getKey() + ".maxMicros", Long.toString(timer.maxNanos_.get() / 1000)});
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            final var histogram = e.getValue();
+            final long[] buckets = new long[Histogram.BUCKETS];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = histogram.buckets_.get(i);
+                count += buckets[i];
+            }
+            final var nonEmptyBuckets = new ArrayList<String>();
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    nonEmptyBuckets.add("<=" + Histogram.bucketUpperBoundMicros(i) + "us:" + buckets[i]);
+                }
+            }
+            result.add(new String[]{e.getKey() + ".count", Long.toString(count)});
+            result.add(new String[]{e.getKey() + ".p50Micros", Long.toString(percentileMicros(buckets, count, 0.50))});
+            result.add(new String[]{e.getKey() + ".p90Micros", Long.toString(percentileMicros(buckets, count, 0.90))});
+            result.add(new String[]{e.getKey() + ".p99Micros", Long.toString(percentileMicros(buckets, count, 0.99))});
+            result.add(new String[]{e.getKey() + ".maxMicros", Long.toString(histogram.maxNanos_.get() / 1000)});
+            result.add(new String[]{e.getKey() + ".buckets", String.join(" ", nonEmptyBuckets)});
+        }
+        result.sort((l, r) -> l[0].compareTo(r[0]));
+        return result.toArray(new String[0][]);
+    }
+
+    private static long percentileMicros(long[] buckets, long count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Histogram.bucketUpperBoundMicros(i);
+            }
+        }
+        return Histogram.bucketUpperBoundMicros(buckets.length - 1);
+    }
+}
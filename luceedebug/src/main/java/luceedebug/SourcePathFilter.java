@@ -0,0 +1,127 @@
+package luceedebug;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which cf source files get instrumented, from the `include` and `exclude` agent args.
+ * Each is a `;`-delimited list of globs, matched against a file's absolute path on the server, e.g.
+ *
+ *   include=/var/www/app/**;/var/www/lib/mylib/**
+ *   exclude=/var/www/app/coldbox/**;/var/www/app/testbox/**
+ *
+ * Globs support `**` (any characters, including path separators), `*` (any characters except a path separator)
+ * and `?` (any single character except a path separator). Matching is done on canonicalized paths
+ * (forward slashes, case insensitive), see `Config.canonicalizeFileName`.
+ *
+ * A file is instrumented if it matches some include glob (or there are no include globs), and matches no exclude glob.
+ * Files that are not instrumented run at full speed, but can't be stepped through or have breakpoints bound in them.
+ */
+public class SourcePathFilter {
+    private final ArrayList<Glob> includes_;
+    private final ArrayList<Glob> excludes_;
+
+    private static class Glob {
+        final String text;
+        final Pattern pattern;
+        Glob(String text) {
+            this.text = text;
+            this.pattern = Pattern.compile(globToRegex(Config.canonicalizeFileName(text)));
+        }
+        boolean matches(String canonicalPath) {
+            return pattern.matcher(canonicalPath).matches();
+        }
+    }
+
+    public SourcePathFilter(String maybeNull_includes, String maybeNull_excludes) {
+        this.includes_ = parse(maybeNull_includes);
+        this.excludes_ = parse(maybeNull_excludes);
+    }
+
+    private static ArrayList<Glob> parse(String maybeNull_globs) {
+        final var result = new ArrayList<Glob>();
+        if (maybeNull_globs == null) {
+            return result;
+        }
+        for (var glob : maybeNull_globs.split(";")) {
+            if (!glob.isBlank()) {
+                result.add(new Glob(glob.trim()));
+            }
+        }
+        return result;
+    }
+
+    static String globToRegex(String glob) {
+        final var result = new StringBuilder();
+        final int len = glob.length();
+        for (int i = 0; i < len; i++) {
+            final char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < len && glob.charAt(i + 1) == '*') {
+                    i++;
+                    // `**/` also matches "no directories at all", so that `/app/**/foo.cfm` matches `/app/foo.cfm`
+                    if (i + 1 < len && glob.charAt(i + 1) == '/') {
+                        i++;
+                        result.append("(?:.*/)?");
+                    }
+                    else {
+                        result.append(".*");
+                    }
+                }
+                else {
+                    result.append("[^/]*");
+                }
+            }
+            else if (c == '?') {
+                result.append("[^/]");
+            }
+            else {
+                result.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * true if this filter lets everything through, so callers can skip computing source paths
+     */
+    public boolean isEverything() {
+        return includes_.isEmpty() && excludes_.isEmpty();
+    }
+
+    public boolean shouldInstrument(String sourcePath) {
+        return maybeNull_exclusionReason(sourcePath) == null;
+    }
+
+    /**
+     * @return null if the file should be instrumented, otherwise a human readable reason why it is not
+     */
+    public String maybeNull_exclusionReason(String sourcePath) {
+        if (isEverything()) {
+            return null;
+        }
+
+        final var canonicalPath = Config.canonicalizeFileName(sourcePath);
+
+        if (!includes_.isEmpty()) {
+            boolean included = false;
+            for (var glob : includes_) {
+                if (glob.matches(canonicalPath)) {
+                    included = true;
+                    break;
+                }
+            }
+            if (!included) {
+                return "File is not instrumented for debugging: it matches none of the luceedebug 'include' patterns.";
+            }
+        }
+
+        for (var glob : excludes_) {
+            if (glob.matches(canonicalPath)) {
+                return "File is not instrumented for debugging: it matches the luceedebug 'exclude' pattern '" + glob.text + "'.";
+            }
+        }
+
+        return null;
+    }
+}
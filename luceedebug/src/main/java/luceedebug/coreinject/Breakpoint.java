@@ -7,22 +7,29 @@ class Breakpoint implements IBreakpoint {
     final int line;
     final DapBreakpointID ID;
     final boolean isBound;
+    final String maybeNull_message;
 
-    private Breakpoint(int line, DapBreakpointID ID, boolean isBound) {
+    private Breakpoint(int line, DapBreakpointID ID, boolean isBound, String maybeNull_message) {
         this.line = line;
         this.ID = ID;
         this.isBound = isBound;
+        this.maybeNull_message = maybeNull_message;
     }
 
     public static Breakpoint Bound(int line, DapBreakpointID ID) {
-        return new Breakpoint(line, ID, true);
+        return new Breakpoint(line, ID, true, null);
     }
 
     public static Breakpoint Unbound(int line, DapBreakpointID ID) {
-        return new Breakpoint(line, ID, false);
+        return new Breakpoint(line, ID, false, null);
+    }
+
+    public static Breakpoint Unbound(int line, DapBreakpointID ID, String reason) {
+        return new Breakpoint(line, ID, false, reason);
     }
 
     public int getLine() { return line; }
     public int getID() { return ID.get(); }
     public boolean getIsBound() { return isBound; }
+    public String getMessage() { return maybeNull_message; }
 }
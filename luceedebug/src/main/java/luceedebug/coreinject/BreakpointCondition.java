@@ -0,0 +1,76 @@
+package luceedebug.coreinject;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import lucee.runtime.PageContext;
+
+/**
+ * A conditional breakpoint's condition, built once per (breakpoint, condition text) and reused for every hit.
+ *
+ * The condition is run as a small cfscript page, which the engine compiles the first time it sees the source text and caches after that,
+ * so a hit costs a page call rather than a parse of the expression (as `Evaluate` would do).
+ * It's meant to be run on the thread that hit the breakpoint, which is already executing in the breakpoint's frame,
+ * so no scopes need to be swapped in, and no other thread or lock is involved.
+ *
+ * The result is passed back through the request scope, which (unlike the variables scope of a shared component) only the current request can see.
+ */
+class BreakpointCondition {
+    private static final String resultName = "__luceedebug__conditionResult";
+
+    final String expr;
+    private final String sourceText;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder trues = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    BreakpointCondition(String expr) {
+        this.expr = expr;
+        this.sourceText = "<cfscript>request['" + resultName + "'] = (" + expr + ");</cfscript>";
+    }
+
+    /**
+     * A condition that throws, or that isn't convertible to boolean, is false.
+     */
+    boolean evaluate(PageContext pageContext) {
+        final long start = System.nanoTime();
+        boolean result = false;
+        try {
+            ExprEvaluator.render(pageContext, sourceText);
+            final var request = pageContext.requestScope();
+            final Object value = UnsafeUtils.deprecatedScopeGet(request, resultName);
+            request.remove(resultName);
+            result = lucee.runtime.op.Caster.toBoolean(value);
+        }
+        catch (Throwable e) {
+            failures.increment();
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        evaluations.increment();
+        totalNanos.add(elapsed);
+        maxNanos.accumulate(elapsed);
+        if (result) {
+            trues.increment();
+        }
+        return result;
+    }
+
+    /**
+     * @return [expr, evaluations, trues, failures, meanMicros, maxMicros]
+     */
+    String[] stats() {
+        final long n = evaluations.sum();
+        return new String[]{
+            expr,
+            Long.toString(n),
+            Long.toString(trues.sum()),
+            Long.toString(failures.sum()),
+            Long.toString(n == 0 ? 0 : totalNanos.sum() / n / 1000),
+            Long.toString(maxNanos.get() / 1000)
+        };
+    }
+}
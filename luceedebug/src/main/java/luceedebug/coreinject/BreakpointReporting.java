@@ -0,0 +1,50 @@
+package luceedebug.coreinject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+import luceedebug.IBreakpoint;
+import luceedebug.ILuceeVm.BreakpointsChangedEvent;
+import luceedebug.strong.CanonicalServerAbsPath;
+import luceedebug.strong.DapBreakpointID;
+import luceedebug.strong.RawIdePath;
+
+/**
+ * How an engine's breakpoints are described to the debugger, in the metrics listing and in breakpoint events;
+ * the engines differ only in how they keep track of them.
+ */
+class BreakpointReporting {
+    private BreakpointReporting() {}
+
+    /**
+     * One line breakpoint's entry in `ILuceeVm.getBreakpointDetail`, as [ide path detail, server path detail].
+     * @param binding how the engine bound it, e.g. " (bound, jdwp)"
+     */
+    static String[] detail(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String binding, String maybeNull_logMessage, HitConditions hitConditions) {
+        final var maybeNull_hitCondition = hitConditions.maybeNull_get(id);
+        final var commonSuffix = ":" + line + binding
+            + (maybeNull_logMessage == null ? "" : SnapshotPoint.isSnapshotMessage(maybeNull_logMessage) ? " (snapshot)" : " (logpoint)")
+            + (maybeNull_hitCondition == null ? "" : " (hit condition " + maybeNull_hitCondition.text + ", " + maybeNull_hitCondition.getCountedHits() + " hits counted)");
+        return new String[]{ideAbsPath + commonSuffix, serverAbsPath + commonSuffix};
+    }
+
+    /**
+     * A breakpoint tripped or was disabled by the suspension budget (or recovered); the client shows it as unverified, with the reason, until it recovers.
+     * Called on the hitting thread or the budget's recovery timer, so the event is sent from elsewhere.
+     * @param line the breakpoint's line, looked up when the event is sent; 0 for function breakpoints, which have no line
+     */
+    static void suspensionBudgetStateChanged(Consumer<BreakpointsChangedEvent> maybeNull_callback, DapBreakpointID breakpointID, String maybeNull_reason, IntSupplier line) {
+        if (maybeNull_callback == null) {
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> {
+            final IBreakpoint breakpoint = maybeNull_reason == null
+                ? Breakpoint.Bound(line.getAsInt(), breakpointID)
+                : Breakpoint.Unbound(line.getAsInt(), breakpointID, maybeNull_reason);
+
+            maybeNull_callback.accept(BreakpointsChangedEvent.justChanges(new IBreakpoint[]{breakpoint}));
+        });
+    }
+}
@@ -0,0 +1,199 @@
+package luceedebug.coreinject;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import lucee.runtime.PageContext;
+import luceedebug.coreinject.frame.DebugFrame;
+
+/**
+ * The cf frame stack of a single thread.
+ *
+ * The owning thread reaches its stack through a ThreadLocal, so pushing and popping frames, and line steps, don't touch any shared map.
+ * A stack is published to the DebugManager's registry (so the debugger can enumerate and inspect it) when its first frame is pushed,
+ * and withdrawn when its last frame is popped; those are the only points where the owning thread touches shared state.
+ *
+ * An instance lives as long as its thread does, and is reused across requests on pooled threads.
+ */
+class CfStack {
+    final Thread thread;
+
+    /**
+     * Mutated only by the owning thread. The debugger reads this only while the owning thread is suspended.
+     */
+    final ArrayList<DebugFrame> frames = new ArrayList<>();
+
+    /**
+     * non-null while there are frames on the stack. Written by the owning thread when the stack becomes non-empty or empty.
+     */
+    volatile WeakReference<PageContext> pageContext = null;
+
+    /**
+     * Whether the engine has been told about this thread, see `IDebugManager.registerCfThreadStartedHandler`. Owning thread only.
+     */
+    boolean announced = false;
+
+    private static class DisplayName {
+        final WeakReference<PageContext> forPageContext;
+        final String name;
+        DisplayName(WeakReference<PageContext> forPageContext, String name) {
+            this.forPageContext = forPageContext;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Cached by `displayName`, along with the pageContext it describes, so it's worked out again only once this thread is on another request.
+     * Debugger only; the owning thread never touches it.
+     */
+    private volatile DisplayName maybeNull_displayName = null;
+
+    /**
+     * The request this thread is running (its uri, or failing that its base template), and the thread's name, e.g. "/app/index.cfm (http-nio-8888-exec-3)".
+     * Called by the debugger, while the owning thread may be running.
+     */
+    String displayName() {
+        final WeakReference<PageContext> maybeNull_pageContextRef = pageContext;
+        final DisplayName maybeNull_cached = maybeNull_displayName;
+        if (maybeNull_cached != null && maybeNull_cached.forPageContext == maybeNull_pageContextRef) {
+            return maybeNull_cached.name;
+        }
+
+        final String maybeNull_requestName = maybeNull_requestName(maybeNull_pageContextRef == null ? null : maybeNull_pageContextRef.get());
+        final String name = maybeNull_requestName == null ? thread.getName() : maybeNull_requestName + " (" + thread.getName() + ")";
+        maybeNull_displayName = new DisplayName(maybeNull_pageContextRef, name);
+        return name;
+    }
+
+    private static String maybeNull_requestName(PageContext maybeNull_pageContext) {
+        if (maybeNull_pageContext == null) {
+            return null;
+        }
+        try {
+            final var maybeNull_request = maybeNull_pageContext.getHttpServletRequest();
+            final String maybeNull_uri = maybeNull_request == null ? null : maybeNull_request.getRequestURI();
+            if (maybeNull_uri != null) {
+                return maybeNull_uri;
+            }
+            final var maybeNull_basePageSource = maybeNull_pageContext.getBasePageSource();
+            return maybeNull_basePageSource == null ? null : maybeNull_basePageSource.getDisplayPath();
+        }
+        catch (Throwable e) {
+            // the owning thread is running, and may be done with (or releasing) this pageContext; it just goes unnamed
+            return null;
+        }
+    }
+
+    /**
+     * Written by the debugger (while the owning thread is suspended), read by the owning thread on every step.
+     * Survives the stack going empty, so that e.g. a step over the last line of a request lands on the next request serviced by this thread.
+     */
+    volatile DebugManager.CfStepRequest stepRequest = null;
+
+    static final int NO_STEP = -1;
+
+    /**
+     * The armed step target: a line step can only complete in a frame at this depth or shallower. Derived from `stepRequest`
+     * (step-into is "any depth", step-over is the starting depth, step-out is one above the starting depth).
+     * Step hooks compare the current depth against this and return immediately if it's deeper, so stepping over (or out of)
+     * a udf that runs a lot of lines costs one field read per line rather than a call into the step machinery.
+     * NO_STEP (-1) while there's no step request, which every frame is deeper than.
+     */
+    volatile int stepCompletionMaxDepth = NO_STEP;
+
+    /**
+     * Called by the debugger, while the owning thread is suspended.
+     */
+    void setStepRequest(DebugManager.CfStepRequest request) {
+        stepRequest = request;
+        switch (request.type) {
+            case DebugManager.CfStepRequest.STEP_INTO:
+                stepCompletionMaxDepth = Integer.MAX_VALUE;
+                break;
+            case DebugManager.CfStepRequest.STEP_OVER:
+                stepCompletionMaxDepth = request.startDepth;
+                break;
+            default: // STEP_OUT
+                stepCompletionMaxDepth = request.startDepth - 1;
+                break;
+        }
+    }
+
+    void clearStepRequest() {
+        stepCompletionMaxDepth = NO_STEP;
+        stepRequest = null;
+    }
+
+    /**
+     * Called by the owning thread, to run some cf code that shouldn't complete a step (e.g. a breakpoint condition).
+     * @return the value to pass to `resumeStepCompletion`
+     */
+    int suspendStepCompletion() {
+        final int saved = stepCompletionMaxDepth;
+        stepCompletionMaxDepth = NO_STEP;
+        return saved;
+    }
+
+    void resumeStepCompletion(int savedStepCompletionMaxDepth) {
+        stepCompletionMaxDepth = savedStepCompletionMaxDepth;
+    }
+
+    /**
+     * Hot path; the owning thread calls this on every line step.
+     */
+    boolean isTopmostFrameTooDeepToCompleteStep() {
+        return frames.size() - 1 > stepCompletionMaxDepth;
+    }
+
+    /**
+     * The exception this thread last stopped on, so that it stops only where an exception first propagates out of a frame,
+     * and not again as it propagates out of each of the frames below that one. Weak, since it's kept past the request that threw it.
+     * Owning thread only.
+     */
+    private WeakReference<Throwable> lastStoppedOnException = new WeakReference<>(null);
+
+    /**
+     * @return true if `exception`, or some exception it wraps, is the one this thread last stopped on
+     */
+    boolean hasAlreadyStoppedOn(Throwable exception) {
+        final Throwable maybeNull_last = lastStoppedOnException.get();
+        for (Throwable e = exception; e != null && maybeNull_last != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e == maybeNull_last) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void noteStoppedOn(Throwable exception) {
+        lastStoppedOnException = new WeakReference<>(exception);
+    }
+
+    /**
+     * Nonzero while this thread runs cf code on luceedebug's behalf (a breakpoint condition, a logpoint's message, a snapshot,
+     * or the debugger's `evaluate`). Exceptions thrown by that code are luceedebug's to handle, so they never stop the thread.
+     * A count rather than a flag, since e.g. a condition can call a udf with a conditional breakpoint of its own. Owning thread only.
+     */
+    private int evaluationDepth = 0;
+
+    void beginEvaluation() {
+        evaluationDepth++;
+    }
+
+    void endEvaluation() {
+        evaluationDepth--;
+    }
+
+    boolean isEvaluating() {
+        return evaluationDepth > 0;
+    }
+
+    CfStack(Thread thread) {
+        this.thread = thread;
+    }
+
+    DebugFrame maybeNull_topmostFrame() {
+        final int size = frames.size();
+        return size == 0 ? null : frames.get(size - 1);
+    }
+}
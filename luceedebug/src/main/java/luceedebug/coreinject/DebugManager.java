@@ -7,10 +7,12 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import javax.servlet.ServletException;
@@ -26,15 +28,21 @@ import lucee.runtime.PageContext;
 import lucee.runtime.exp.PageException;
 import luceedebug.Config;
 import luceedebug.DapServer;
+import luceedebug.DebugHookCallSites;
 import luceedebug.Either;
+import luceedebug.FunctionBreakpoints;
 import luceedebug.GlobalIDebugManagerHolder;
 import luceedebug.ICfValueDebuggerBridge;
 import luceedebug.IDebugEntity;
 import luceedebug.IDebugFrame;
 import luceedebug.IDebugManager;
+import luceedebug.ILuceeVm;
+import luceedebug.InstrumentedMethodNames;
+import luceedebug.LineBreakpoints;
+import luceedebug.Metrics;
+import luceedebug.strong.DapBreakpointID;
 import luceedebug.coreinject.frame.DebugFrame;
 import luceedebug.coreinject.frame.Frame;
-import luceedebug.coreinject.frame.Frame.FrameContext;
 
 public class DebugManager implements IDebugManager {
 
@@ -42,6 +50,8 @@ public class DebugManager implements IDebugManager {
      * see DebugManager.dot for class loader graph
      */
     public DebugManager() {
+        DebugHookCallSites.setIsAnyStepActive(this::isAnyStepActive);
+
         // Sanity check that we're being loaded as expected.
         // DebugManager must be loaded with the "lucee core loader", which means we need to have already seen PageContextImpl.
         // Using the "core loader" (which is used to load, amongst other things, PageContextImpl) gives us
@@ -68,17 +78,56 @@ public class DebugManager implements IDebugManager {
         config_ = config;
         final String threadName = "luceedebug-worker";
 
-        System.out.println("[luceedebug] attempting jdwp self connect to jdwp on " + jdwpHost + ":" + jdwpPort + "...");
+        if (config.getUseInProcessEngine()) {
+            System.out.println("[luceedebug] using the in-process engine, without jdwp");
+            InProcessVm inProcessVm = new InProcessVm(config);
+            new Thread(() -> {
+                DapServer.createForSocket(() -> inProcessVm, config, debugHost, debugPort);
+            }, threadName).start();
+            return;
+        }
 
-        VirtualMachine vm = jdwpSelfConnect(jdwpHost, jdwpPort);
-        LuceeVm luceeVm = new LuceeVm(config, vm);
+        System.out.println("[luceedebug] jdwp self connect to " + jdwpHost + ":" + jdwpPort + " deferred until a debugger connects");
 
         new Thread(() -> {
-            System.out.println("[luceedebug] jdwp self connect OK");
-            DapServer.createForSocket(luceeVm, config, debugHost, debugPort);
+            DapServer.createForSocket(() -> maybeNull_getOrBootLuceeVm(config, jdwpHost, jdwpPort), config, debugHost, debugPort);
         }, threadName).start();
     }
 
+    private static final Metrics.Histogram jdwpBootTime = Metrics.histogram("jdwp.boot");
+
+    /**
+     * Only touched by the worker thread, see `maybeNull_getOrBootLuceeVm`.
+     */
+    private LuceeVm maybeNull_luceeVm_ = null;
+
+    /**
+     * The jdwp connection and the LuceeVm (with its class tracking and jdwp worker thread) are set up when a debugger first connects,
+     * rather than at startup, so a server that's never debugged never attaches to jdwp, and never sees a jdwp event.
+     * Called on the worker thread, once per debugger connection.
+     * @return null if the jdwp self connect failed; that debugger connection is dropped, and the next one tries again
+     */
+    private ILuceeVm maybeNull_getOrBootLuceeVm(Config config, String jdwpHost, int jdwpPort) {
+        if (maybeNull_luceeVm_ != null) {
+            return maybeNull_luceeVm_;
+        }
+
+        System.out.println("[luceedebug] attempting jdwp self connect to jdwp on " + jdwpHost + ":" + jdwpPort + "...");
+
+        final long start = System.nanoTime();
+        final VirtualMachine maybeNull_vm = maybeNull_jdwpSelfConnect(jdwpHost, jdwpPort);
+        if (maybeNull_vm == null) {
+            System.out.println("[luceedebug] jdwp self connect failed, dropping the debugger connection");
+            return null;
+        }
+
+        maybeNull_luceeVm_ = new LuceeVm(config, maybeNull_vm);
+        jdwpBootTime.stop(start);
+
+        System.out.println("[luceedebug] jdwp self connect OK");
+        return maybeNull_luceeVm_;
+    }
+
     static private AttachingConnector getConnector() {
         VirtualMachineManager vmm;
         try {
@@ -107,17 +156,16 @@ public class DebugManager implements IDebugManager {
         return null;
     }
 
-    static private VirtualMachine jdwpSelfConnect(String host, int port) {
-        var connector = getConnector();
-        var args = connector.defaultArguments();
-        args.get("hostname").setValue(host);
-        args.get("port").setValue(Integer.toString(port));
+    static private VirtualMachine maybeNull_jdwpSelfConnect(String host, int port) {
         try {
+            var connector = getConnector();
+            var args = connector.defaultArguments();
+            args.get("hostname").setValue(host);
+            args.get("port").setValue(Integer.toString(port));
             return connector.attach(args);
         }
         catch (Throwable e) {
             e.printStackTrace();
-            System.exit(1);
             return null;
         }
     }
@@ -177,7 +225,8 @@ public class DebugManager implements IDebugManager {
     synchronized private lucee.runtime.PageContext maybeNull_findPageContext(ArrayList<Thread> suspendedThreads) {
         final var pageContextRef = ((Supplier<WeakReference<PageContext>>) () -> {
             for (var thread : suspendedThreads) {
-                var pageContextRef_ = pageContextByThread.get(thread);
+                var stack = cfStackByThread.get(thread);
+                var pageContextRef_ = stack == null ? null : stack.pageContext;
                 if (pageContextRef_ != null) {
                     return pageContextRef_;
                 }
@@ -368,6 +417,8 @@ public class DebugManager implements IDebugManager {
                         return frame
                             .getFrameContext()
                             .doWorkInThisFrame((Supplier<Either<String,Object>>)() -> {
+                                final CfStack evaluatingStack = cfStackOfCurrentThread.get();
+                                evaluatingStack.beginEvaluation();
                                 try {
                                     lucee.runtime.engine.ThreadLocalPageContext.register(frame.getFrameContext().pageContext);
                                     return ExprEvaluator.eval(frame, expr);
@@ -377,6 +428,7 @@ public class DebugManager implements IDebugManager {
                                 }
                                 finally {
                                     lucee.runtime.engine.ThreadLocalPageContext.release();
+                                    evaluatingStack.endEvaluation();
                                 }
                             });
                     })
@@ -387,68 +439,304 @@ public class DebugManager implements IDebugManager {
         }
     }
 
-    public boolean evaluateAsBooleanForConditionalBreakpoint(Thread thread, String expr) {
+    /**
+     * Conditions are kept per breakpoint, so each keeps its own stats; a breakpoint whose condition text changed gets a fresh one.
+     */
+    private final ConcurrentHashMap<DapBreakpointID, BreakpointCondition> conditionsByBreakpointID = new ConcurrentHashMap<>();
+
+    private BreakpointCondition conditionFor(DapBreakpointID breakpointID, String expr) {
+        final var existing = conditionsByBreakpointID.get(breakpointID);
+        if (existing != null && existing.expr.equals(expr)) {
+            return existing;
+        }
+        return conditionsByBreakpointID.compute(
+            breakpointID,
+            (ignored, current) -> current != null && current.expr.equals(expr) ? current : new BreakpointCondition(expr)
+        );
+    }
+
+    /**
+     * For a thread that is suspended (by jdwp) at a breakpoint; the condition is evaluated on another thread, in the suspended thread's topmost frame.
+     */
+    public boolean evaluateAsBooleanForConditionalBreakpoint(Thread thread, DapBreakpointID breakpointID, String expr) {
         var stack = cfStackByThread.get(thread);
         if (stack == null) {
             return false;
         }
-        if (stack.isEmpty()) {
-            return false;
-        }
-        
-        DebugFrame frame = stack.get(stack.size() - 1);
+
+        DebugFrame frame = stack.maybeNull_topmostFrame();
         
         if (frame instanceof Frame) {
-            return doEvaluateAsBoolean((Frame)frame, expr);
+            final var condition = conditionFor(breakpointID, expr);
+            return doInSuspendedFrame((Frame)frame, condition::evaluate, false);
         }
         else {
             return false;
         }
     }
 
-    private boolean doEvaluateAsBoolean(Frame frame, String expr) {
+    /**
+     * Runs `f` on another thread, against the page context of a frame whose thread is suspended.
+     * The cf code `f` runs is luceedebug's own (see `CfStack.isEvaluating`), so exceptions it throws don't stop that other thread.
+     * @return `f`'s result, or `fallback` if it threw or took more than 5 seconds
+     */
+    private <T> T doInSuspendedFrame(Frame frame, Function<PageContext, T> f, T fallback) {
         try {
             return CompletableFuture
                 .supplyAsync(
-                    (Supplier<Boolean>)(() -> {
+                    (Supplier<T>)(() -> {
                         return frame
                             .getFrameContext()
-                            .doWorkInThisFrame((Supplier<Boolean>)() -> {
+                            .doWorkInThisFrame((Supplier<T>)() -> {
+                                final CfStack evaluatingStack = cfStackOfCurrentThread.get();
+                                evaluatingStack.beginEvaluation();
                                 try {
                                     lucee.runtime.engine.ThreadLocalPageContext.register(frame.getFrameContext().pageContext);
-                                    Object obj = lucee.runtime.functions.dynamicEvaluation.Evaluate.call(
-                                        frame.getFrameContext().pageContext,
-                                        new String[]{expr}
-                                    );
-                                    return lucee.runtime.op.Caster.toBoolean(obj);
-                                }
-                                catch (PageException e) {
-                                    return false;
+                                    return f.apply(frame.getFrameContext().pageContext);
                                 }
                                 finally {
                                     lucee.runtime.engine.ThreadLocalPageContext.release();
+                                    evaluatingStack.endEvaluation();
                                 }
                             });
                     })
                 ).get(5, TimeUnit.SECONDS);
         }
         catch (Throwable e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Logpoints are kept per breakpoint, like conditions, so that a logpoint's rate limit survives rebinding it.
+     */
+    private final ConcurrentHashMap<DapBreakpointID, Logpoint> logpointsByBreakpointID = new ConcurrentHashMap<>();
+
+    private Logpoint logpointFor(DapBreakpointID breakpointID, String logMessage) {
+        final var existing = logpointsByBreakpointID.get(breakpointID);
+        if (existing != null && existing.logMessage.equals(logMessage)) {
+            return existing;
+        }
+        return logpointsByBreakpointID.compute(
+            breakpointID,
+            (ignored, current) -> current != null && current.logMessage.equals(logMessage) ? current : new Logpoint(logMessage)
+        );
+    }
+
+    public void forgetLogpoint(DapBreakpointID breakpointID) {
+        logpointsByBreakpointID.remove(breakpointID);
+        snapshotPointsByBreakpointID.remove(breakpointID);
+    }
+
+    public String[][] getLogpointStats() {
+        final var result = new ArrayList<String[]>();
+        for (var e : new TreeMap<>(logpointsByBreakpointID).entrySet()) {
+            final var logpoint = e.getValue();
+            result.add(new String[] {
+                e.getKey().get().toString(),
+                logpoint.logMessage,
+                Long.toString(logpoint.getLogged()),
+                Long.toString(logpoint.getDropped())
+            });
+        }
+        return result.toArray(new String[0][]);
+    }
+
+    public void logForSuspendedThread(Thread thread, DapBreakpointID breakpointID, String logMessage, int line) {
+        if (SnapshotPoint.isSnapshotMessage(logMessage)) {
+            snapshotForSuspendedThread(thread, breakpointID, logMessage, line);
+            return;
+        }
+
+        final var logpoint = logpointFor(breakpointID, logMessage);
+        if (didHitLogpointCallback == null || !logpoint.tryAcquire()) {
+            return;
+        }
+
+        var stack = cfStackByThread.get(thread);
+        DebugFrame frame = stack == null ? null : stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame)) {
+            return;
+        }
+
+        final String maybeNull_message = doInSuspendedFrame((Frame)frame, logpoint::format, null);
+        if (maybeNull_message != null) {
+            didHitLogpointCallback.call(breakpointID, maybeNull_message);
+        }
+    }
+
+    /**
+     * Snapshot breakpoints are kept per breakpoint, like logpoints, so that a breakpoint's snapshot budget survives rebinding it.
+     * The budget is reset only by a new message text (see `snapshotPointFor`), or by the breakpoint going away (see `forgetLogpoint`).
+     */
+    private final ConcurrentHashMap<DapBreakpointID, SnapshotPoint> snapshotPointsByBreakpointID = new ConcurrentHashMap<>();
+
+    private final Snapshots snapshots_ = new Snapshots();
+
+    private SnapshotPoint snapshotPointFor(DapBreakpointID breakpointID, String logMessage) {
+        final var existing = snapshotPointsByBreakpointID.get(breakpointID);
+        if (existing != null && existing.logMessage.equals(logMessage)) {
+            return existing;
+        }
+        return snapshotPointsByBreakpointID.compute(
+            breakpointID,
+            (ignored, current) -> current != null && current.logMessage.equals(logMessage) ? current : new SnapshotPoint(logMessage)
+        );
+    }
+
+    private void snapshotForSuspendedThread(Thread thread, DapBreakpointID breakpointID, String logMessage, int line) {
+        final var snapshotPoint = snapshotPointFor(breakpointID, logMessage);
+        if (!snapshotPoint.tryAcquire()) {
+            return;
+        }
+
+        var stack = cfStackByThread.get(thread);
+        DebugFrame frame = stack == null ? null : stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame)) {
+            return;
+        }
+
+        final String maybeNull_json = doInSuspendedFrame((Frame)frame, ignored -> snapshotPoint.capture((Frame)frame), null);
+        if (maybeNull_json != null) {
+            noteSnapshotTaken(breakpointID, frame.getSourceFilePath(), line, maybeNull_json);
+        }
+    }
+
+    /**
+     * For the current thread, in a step hook; like a logpoint's message, the snapshot is taken right here, and steps can't complete while it is.
+     */
+    private void snapshotOnCurrentThread(CfStack stack, DapBreakpointID breakpointID, String logMessage, int line) {
+        final var snapshotPoint = snapshotPointFor(breakpointID, logMessage);
+        if (!snapshotPoint.tryAcquire()) {
+            return;
+        }
+
+        DebugFrame frame = stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame)) {
+            return;
+        }
+
+        final int savedStepCompletionMaxDepth = stack.suspendStepCompletion();
+        stack.beginEvaluation();
+        final String json;
+        try {
+            json = snapshotPoint.capture((Frame)frame);
+        }
+        finally {
+            stack.endEvaluation();
+            stack.resumeStepCompletion(savedStepCompletionMaxDepth);
+        }
+        noteSnapshotTaken(breakpointID, frame.getSourceFilePath(), line, json);
+    }
+
+    /**
+     * Buffers the snapshot, and says so in the debug console, if there is a debugger connected to listen.
+     */
+    private void noteSnapshotTaken(DapBreakpointID breakpointID, String sourceFilePath, int line, String json) {
+        final long id = snapshots_.offer(breakpointID, sourceFilePath, line, json);
+        final var cb = didHitLogpointCallback;
+        if (cb != null) {
+            cb.call(
+                breakpointID,
+                id == -1
+                    ? "[luceedebug] snapshot at " + sourceFilePath + ":" + line + " dropped, the snapshot buffer is full"
+                    : "[luceedebug] snapshot " + id + " taken at " + sourceFilePath + ":" + line
+            );
+        }
+    }
+
+    public String[][] getSnapshots(boolean remove) {
+        return snapshots_.get(remove);
+    }
+
+    /**
+     * For the current thread, in a step hook; like a condition, the message is formatted right here, and steps can't complete while it is.
+     */
+    private void logOnCurrentThread(CfStack stack, DapBreakpointID breakpointID, String logMessage) {
+        final var logpoint = logpointFor(breakpointID, logMessage);
+        if (didHitLogpointCallback == null || !logpoint.tryAcquire()) {
+            return;
+        }
+
+        DebugFrame frame = stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame)) {
+            return;
+        }
+
+        final int savedStepCompletionMaxDepth = stack.suspendStepCompletion();
+        stack.beginEvaluation();
+        final String message;
+        try {
+            message = logpoint.format(((Frame)frame).getFrameContext().pageContext);
+        }
+        finally {
+            stack.endEvaluation();
+            stack.resumeStepCompletion(savedStepCompletionMaxDepth);
+        }
+        didHitLogpointCallback.call(breakpointID, message);
+    }
+
+    /**
+     * For the current thread, in a step hook; it's executing in its topmost frame, so the condition runs right here, in the current scopes.
+     * Steps can't complete while the condition runs (its page has step hooks too, and its lines aren't the user's), and exceptions it throws
+     * don't stop the thread.
+     */
+    private boolean evaluateConditionOnCurrentThread(CfStack stack, DapBreakpointID breakpointID, String expr) {
+        DebugFrame frame = stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame)) {
             return false;
         }
+
+        final int savedStepCompletionMaxDepth = stack.suspendStepCompletion();
+        stack.beginEvaluation();
+        try {
+            return conditionFor(breakpointID, expr).evaluate(((Frame)frame).getFrameContext().pageContext);
+        }
+        finally {
+            stack.endEvaluation();
+            stack.resumeStepCompletion(savedStepCompletionMaxDepth);
+        }
+    }
+
+    public void forgetBreakpointCondition(DapBreakpointID breakpointID) {
+        conditionsByBreakpointID.remove(breakpointID);
+    }
+
+    public String[][] getBreakpointConditionStats() {
+        final var result = new ArrayList<String[]>();
+        for (var e : new TreeMap<>(conditionsByBreakpointID).entrySet()) {
+            final var stats = e.getValue().stats();
+            final var row = new String[stats.length + 1];
+            row[0] = e.getKey().get().toString();
+            System.arraycopy(stats, 0, row, 1, stats.length);
+            result.add(row);
+        }
+        return result.toArray(new String[0][]);
     }
 
     private final Cleaner cleaner = Cleaner.create();
 
+    // A shared map keyed by thread, consulted on every push/pop/step, was measured at:
     // MapMaker().concurrencyLevel(4).weakKeys().makeMap() ---> ~20% overhead on pushFrame/popFrame
     // MapMaker().concurrencyLevel(4).makeMap()            ---> ~10% overhead on pushFrame/popFrame
     // Collections.synchronizedMap(new HashMap<>());       ---> ~12% overhead on pushFrame/popFrame
-    private final ConcurrentMap<Thread, ArrayList<DebugFrame>> cfStackByThread = new MapMaker()
-        .concurrencyLevel(/* default as per docs */ 4)
-        .makeMap();
-    private final ConcurrentMap<Thread, WeakReference<PageContext>> pageContextByThread = new MapMaker()
+    // So the owning thread finds its stack via a ThreadLocal, and the shared registry is only touched when a stack
+    // becomes non-empty (registered) or empty (unregistered). The registry is for the debugger's benefit.
+    private final ThreadLocal<CfStack> cfStackOfCurrentThread = ThreadLocal.withInitial(() -> new CfStack(Thread.currentThread()));
+    private final ConcurrentMap<Thread, CfStack> cfStackByThread = new ConcurrentHashMap<>();
+    /**
+     * Stacks that went empty with a step request still armed (e.g. after a step over the last line of a request), so that the step can be found,
+     * and cleared, while the thread is between requests. The owning thread touches this only as its stack becomes empty or non-empty.
+     */
+    private final ConcurrentMap<Thread, CfStack> emptyCfStacksWithStepRequest = new MapMaker()
         .concurrencyLevel(/* default as per docs */ 4)
+        .weakKeys()
         .makeMap();
 
+    /**
+     * Frames are registered here only once they have been handed to the debugger (see `getCfStack`),
+     * so pushing and popping an uninspected frame doesn't touch this map.
+     */
     private final ConcurrentHashMap<Long, DebugFrame> frameByFrameID = new ConcurrentHashMap<>();
     
     /**
@@ -463,6 +751,22 @@ public class DebugManager implements IDebugManager {
     public void registerCfStepHandler(CfStepCallback cb) {
         didStepCallback = cb;
     }
+    private CfBreakpointCallback didHitBreakpointCallback = null;
+    public void registerCfBreakpointHandler(CfBreakpointCallback cb) {
+        didHitBreakpointCallback = cb;
+    }
+    private CfLogpointCallback didHitLogpointCallback = null;
+    public void registerCfLogpointHandler(CfLogpointCallback cb) {
+        didHitLogpointCallback = cb;
+    }
+    private CfExceptionCallback didHitExceptionCallback = null;
+    public void registerCfExceptionHandler(CfExceptionCallback cb) {
+        didHitExceptionCallback = cb;
+    }
+    private volatile CfThreadStartedCallback maybeNull_cfThreadStartedCallback = null;
+    public void registerCfThreadStartedHandler(CfThreadStartedCallback cb) {
+        maybeNull_cfThreadStartedCallback = cb;
+    }
     private void notifyStep(Thread thread, int minDistanceToLuceedebugStepNotificationEntryFrame) {
         if (didStepCallback != null) {
             didStepCallback.call(thread, minDistanceToLuceedebugStepNotificationEntryFrame + 1);
@@ -489,7 +793,8 @@ public class DebugManager implements IDebugManager {
     }
 
     synchronized public IDebugFrame[] getCfStack(Thread thread) {
-        ArrayList<DebugFrame> stack = cfStackByThread.get(thread);
+        CfStack cfStack = cfStackByThread.get(thread);
+        ArrayList<DebugFrame> stack = cfStack == null ? null : cfStack.frames;
         if (stack == null) {
             System.out.println("getCfStack called, frames was null, frames is " + cfStackByThread + ", passed thread was " + thread);
             System.out.println("                   thread=" + thread + " this=" + this);
@@ -508,6 +813,10 @@ public class DebugManager implements IDebugManager {
                 continue;
             }
             else {
+                if (frame instanceof Frame) {
+                    frameByFrameID.put(frame.getId(), frame);
+                    ((Frame)frame).isRegisteredByFrameID = true;
+                }
                 result.add(frame);
             }
         }
@@ -515,6 +824,17 @@ public class DebugManager implements IDebugManager {
         return result.toArray(new Frame[result.size()]);
     }
 
+    /**
+     * Not synchronized; this only reads the registry, which is concurrent, and shouldn't wait on whatever the debugger is doing with a suspended thread.
+     */
+    public Map<Thread, String> getCfThreadNames() {
+        final var result = new HashMap<Thread, String>();
+        for (var stack : cfStackByThread.values()) {
+            result.put(stack.thread, stack.displayName());
+        }
+        return result;
+    }
+
     static class CfStepRequest {
         // same enum values as jdwp / jvmti
         static final int STEP_INTO = 0;
@@ -527,10 +847,26 @@ public class DebugManager implements IDebugManager {
 
         final int startDepth;
         final int type;
+        /**
+         * Non-null for the step-into armed by a function breakpoint, which completes as a hit of that breakpoint rather than as a step,
+         * and only on a line of the function's own frame (at `startDepth`).
+         */
+        final DapBreakpointID maybeNull_functionBreakpointID;
+        /**
+         * For a function breakpoint's step-into, the debugger's step that was active when it was armed; it's put back if the function's frame
+         * is popped without reaching a line (see `popCfFrame`).
+         */
+        final CfStepRequest maybeNull_interruptedStep;
 
         CfStepRequest(int startDepth, int type) {
+            this(startDepth, type, null, null);
+        }
+
+        CfStepRequest(int startDepth, int type, DapBreakpointID maybeNull_functionBreakpointID, CfStepRequest maybeNull_interruptedStep) {
             this.startDepth = startDepth;
             this.type = type;
+            this.maybeNull_functionBreakpointID = maybeNull_functionBreakpointID;
+            this.maybeNull_interruptedStep = maybeNull_interruptedStep;
         }
 
         public String toString() {
@@ -553,7 +889,8 @@ public class DebugManager implements IDebugManager {
             case CfStepRequest.STEP_OVER:
                 // fallthrough
             case CfStepRequest.STEP_OUT: {
-                stepRequestByThread.put(thread, new CfStepRequest(frame.getDepth(), type));
+                cfStackByThread.get(thread).setStepRequest(new CfStepRequest(frame.getDepth(), type));
+                DebugHookCallSites.noteStepRequested();
                 return;
             }
             default: {
@@ -564,32 +901,242 @@ public class DebugManager implements IDebugManager {
         }
     }
 
-    // This holds strongrefs to Thread objects, but requests should be cleared out after their completion
-    // It doesn't make sense to have a step request for thread that would otherwise be reclaimable but for our reference to it here
-    private ConcurrentHashMap<Thread, CfStepRequest> stepRequestByThread = new ConcurrentHashMap<>();
+    public void setCfFrameLines(Thread thread, int[] linesTopmostFirst) {
+        CfStack stack = cfStackByThread.get(thread);
+        if (stack == null) {
+            return;
+        }
+        // Align from the top; if the debugger attached while this thread was already inside some cf frames,
+        // the jvm stack has instrumented frames at the bottom that were never pushed.
+        // A thread stopped on an exception is in the wrapper of its topmost frame, whose delegate method has already been unwound;
+        // that frame's line was taken from the exception (see `maybeStopOnException`), and the jvm stack's lines start at the frame below it.
+        final var topmost = stack.maybeNull_topmostFrame();
+        final int skip = topmost instanceof Frame && ((Frame)topmost).maybeNull_getException() != null ? 1 : 0;
+        final int n = Math.min(stack.frames.size() - skip, linesTopmostFirst.length);
+        for (int i = 0; i < n; i++) {
+            final var frame = stack.frames.get(stack.frames.size() - 1 - skip - i);
+            if (frame instanceof Frame && linesTopmostFirst[i] > 0) {
+                frame.setLine(linesTopmostFirst[i]);
+            }
+        }
+    }
+
+    private boolean isAnyStepActive() {
+        for (var stack : cfStackByThread.values()) {
+            if (stack.stepRequest != null) {
+                return true;
+            }
+        }
+        for (var stack : emptyCfStacksWithStepRequest.values()) {
+            if (stack.stepRequest != null) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     public void clearStepRequest(Thread thread) {
-        stepRequestByThread.remove(thread);
+        var stack = cfStackByThread.get(thread);
+        if (stack == null) {
+            stack = emptyCfStacksWithStepRequest.remove(thread);
+        }
+        if (stack != null) {
+            stack.clearStepRequest();
+        }
+    }
+
+    public void clearAllStepRequests() {
+        for (var stack : cfStackByThread.values()) {
+            stack.clearStepRequest();
+        }
+        for (var stack : emptyCfStacksWithStepRequest.values()) {
+            stack.clearStepRequest();
+        }
+        emptyCfStacksWithStepRequest.clear();
     }
 
-    public void luceedebug_stepNotificationEntry_step(int lineNumber) {
+    /**
+     * `lineNumber` isn't recorded on every step; frame lines are derived from the jvm stack when a thread is suspended (see `setCfFrameLines`),
+     * so when there's no breakpoint on this line and no step could complete here, there is nothing to do at all.
+     * It is recorded on the topmost frame when the thread is about to stop here, since a thread that is suspended inside this hook
+     * (rather than just after it, see `InProcessVm`) has its delegate method positioned at the previous line.
+     */
+    public void luceedebug_stepNotificationEntry_step(LineBreakpoints breakpoints, int lineNumber) {
         final int minDistanceToLuceedebugStepNotificationEntryFrame = 0;
-        Thread currentThread = Thread.currentThread();
-        DebugFrame frame = maybeUpdateTopmostFrame(currentThread, lineNumber); // should be "definite update topmost frame", we 100% expect there to be a frame
 
-        CfStepRequest request = stepRequestByThread.get(currentThread);
+        final LineBreakpoints.Breakpoint maybeNull_breakpoint = breakpoints.maybeNull_breakpointAt(lineNumber);
+        if (maybeNull_breakpoint != null && maybeHitBreakpoint(maybeNull_breakpoint, minDistanceToLuceedebugStepNotificationEntryFrame + 1)) {
+            return;
+        }
+
+        CfStack stack = cfStackOfCurrentThread.get();
+        if (stack.isTopmostFrameTooDeepToCompleteStep()) {
+            // not stepping, or stepping over/out of this frame
+            return;
+        }
+
+        DebugFrame frame = stack.maybeNull_topmostFrame();
+        if (frame == null) {
+            return;
+        }
+
+        CfStepRequest request = stack.stepRequest;
         if (request == null) {
             return;
         }
         else if (frame instanceof Frame) {
             request.__debug__steps++;
-            maybeNotifyOfStepCompletion(currentThread, (Frame) frame, request, minDistanceToLuceedebugStepNotificationEntryFrame + 1, System.nanoTime());
+            maybeNotifyOfStepCompletion(stack, (Frame) frame, request, lineNumber, minDistanceToLuceedebugStepNotificationEntryFrame + 1, System.nanoTime());
         }
         else {
             // no-op
         }
     }
 
+    /**
+     * A hit breakpoint supersedes any step this thread is doing; a hit logpoint logs (or takes a snapshot), and doesn't affect stepping.
+     * @return true if the thread was suspended for the breakpoint
+     */
+    private boolean maybeHitBreakpoint(LineBreakpoints.Breakpoint breakpoint, int minDistanceToLuceedebugStepNotificationEntryFrame) {
+        final Thread currentThread = Thread.currentThread();
+
+        if (breakpoint.maybeNull_expr != null && !evaluateConditionOnCurrentThread(cfStackOfCurrentThread.get(), breakpoint.id, breakpoint.maybeNull_expr)) {
+            return false;
+        }
+
+        if (breakpoint.maybeNull_hitCondition != null && !breakpoint.maybeNull_hitCondition.countHitAndTest()) {
+            return false;
+        }
+
+        if (breakpoint.maybeNull_logMessage != null) {
+            if (SnapshotPoint.isSnapshotMessage(breakpoint.maybeNull_logMessage)) {
+                snapshotOnCurrentThread(cfStackOfCurrentThread.get(), breakpoint.id, breakpoint.maybeNull_logMessage, breakpoint.line);
+            }
+            else {
+                logOnCurrentThread(cfStackOfCurrentThread.get(), breakpoint.id, breakpoint.maybeNull_logMessage);
+            }
+            return false;
+        }
+
+        if (didHitBreakpointCallback == null) {
+            return false;
+        }
+
+        final CfStack stack = cfStackOfCurrentThread.get();
+        final DebugFrame maybeNull_frame = stack.maybeNull_topmostFrame();
+        if (maybeNull_frame instanceof Frame) {
+            maybeNull_frame.setLine(breakpoint.line);
+        }
+
+        // The step is cancelled before the callback, which (for the in-process engine) doesn't return until the debugger resumes the thread,
+        // maybe with a new step request.
+        final CfStepRequest maybeNull_stepRequest = stack.stepRequest;
+        stack.clearStepRequest();
+
+        if (!didHitBreakpointCallback.call(currentThread, minDistanceToLuceedebugStepNotificationEntryFrame + 1, breakpoint.id)) {
+            // over the suspension budget; the thread carries on, still stepping if it was
+            if (maybeNull_stepRequest != null) {
+                stack.setStepRequest(maybeNull_stepRequest);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * null while no exception filter is on, so that propagating an exception costs one volatile read
+     */
+    private volatile ExceptionBreakpoints maybeNull_exceptionBreakpoints_ = null;
+
+    public void setExceptionBreakpoints(String maybeNull_allTypes, String maybeNull_uncaughtTypes) {
+        maybeNull_exceptionBreakpoints_ = ExceptionBreakpoints.maybeNull_of(maybeNull_allTypes, maybeNull_uncaughtTypes);
+    }
+
+    public void luceedebug_stepNotificationEntry_exception(Throwable exception) {
+        final ExceptionBreakpoints exceptionBreakpoints = maybeNull_exceptionBreakpoints_;
+        if (exceptionBreakpoints == null) {
+            return;
+        }
+
+        final int minDistanceToLuceedebugStepNotificationEntryFrame = 0;
+        maybeStopOnException(exceptionBreakpoints, exception, minDistanceToLuceedebugStepNotificationEntryFrame + 1);
+    }
+
+    /**
+     * Called as `exception` propagates out of the topmost frame, which hasn't been popped yet.
+     * A stop on an exception supersedes any step this thread is doing. Exceptions thrown while the thread runs luceedebug's own cf code
+     * (see `CfStack.isEvaluating`) never stop it.
+     */
+    private void maybeStopOnException(ExceptionBreakpoints exceptionBreakpoints, Throwable exception, int minDistanceToLuceedebugStepNotificationEntryFrame) {
+        final CfStack stack = cfStackOfCurrentThread.get();
+        final DebugFrame frame = stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame) || didHitExceptionCallback == null || stack.isEvaluating() || stack.hasAlreadyStoppedOn(exception)) {
+            return;
+        }
+
+        final String maybeNull_filter = exceptionBreakpoints.maybeNull_filterToStopFor(exception, stack.frames.size() == 1);
+        if (maybeNull_filter == null) {
+            return;
+        }
+
+        stack.noteStoppedOn(exception);
+
+        final int maybeLine = lineOfFrameFromStackTrace((Frame)frame, exception);
+        if (maybeLine > 0) {
+            frame.setLine(maybeLine);
+        }
+        ((Frame)frame).setException(exception, maybeNull_filter);
+
+        // cancelled before the callback, as for breakpoints (see `maybeHitBreakpoint`)
+        final CfStepRequest maybeNull_stepRequest = stack.stepRequest;
+        stack.clearStepRequest();
+
+        final boolean willSuspend = didHitExceptionCallback.call(
+            stack.thread,
+            minDistanceToLuceedebugStepNotificationEntryFrame + 1,
+            ExceptionBreakpoints.typeOf(exception) + ": " + exception.getMessage()
+        );
+        if (!willSuspend && maybeNull_stepRequest != null) {
+            stack.setStepRequest(maybeNull_stepRequest);
+        }
+    }
+
+    /**
+     * By the time the exception reaches the wrapper, the frame's delegate method is gone from the jvm stack,
+     * but the line it threw from is recorded in the exception's (or some wrapped exception's) stack trace.
+     * @return the line, or -1 if it isn't recorded
+     */
+    private static int lineOfFrameFromStackTrace(Frame frame, Throwable exception) {
+        for (Throwable e = exception; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            for (var element : e.getStackTrace()) {
+                if (frame.getSourceFilePath().equals(element.getFileName()) && InstrumentedMethodNames.isDelegate(element.getMethodName())) {
+                    return element.getLineNumber();
+                }
+            }
+        }
+        return -1;
+    }
+
+    public String[] getExceptionInfo(Thread thread) {
+        final var stack = cfStackByThread.get(thread);
+        final var frame = stack == null ? null : stack.maybeNull_topmostFrame();
+        if (!(frame instanceof Frame) || ((Frame)frame).maybeNull_getException() == null) {
+            return null;
+        }
+
+        final Throwable exception = ((Frame)frame).maybeNull_getException();
+        final String detail = exception instanceof lucee.runtime.exp.PageException
+            ? ((lucee.runtime.exp.PageException)exception).getDetail()
+            : null;
+        return new String[]{
+            ExceptionBreakpoints.typeOf(exception),
+            exception.getMessage(),
+            detail,
+            ((Frame)frame).maybeNull_getExceptionFilter()
+        };
+    }
+
     /**
      * we need to know when stepped out of a udf call, back to the callsite.
      * This is different that "did the frame get popped", because if an exception was thrown, we won't return to the callsite even though the frame does get popped.
@@ -598,36 +1145,64 @@ public class DebugManager implements IDebugManager {
     public void luceedebug_stepNotificationEntry_stepAfterCompletedUdfCall() {
         final int minDistanceToLuceedebugStepNotificationEntryFrame = 0;
 
-        Thread currentThread = Thread.currentThread();
-        DebugFrame frame = getTopmostFrame(Thread.currentThread());
+        CfStack stack = cfStackOfCurrentThread.get();
+        if (stack.isTopmostFrameTooDeepToCompleteStep()) {
+            return;
+        }
+
+        DebugFrame frame = stack.maybeNull_topmostFrame();
 
         if (frame == null) {
             // just popped last frame?
             return;
         }
 
-        CfStepRequest request = stepRequestByThread.get(currentThread);
+        CfStepRequest request = stack.stepRequest;
         if (request == null) {
             return;
         }
         else if (frame instanceof Frame) {
             request.__debug__steps++;
-            maybeNotifyOfStepCompletion(currentThread, (Frame)frame, request, minDistanceToLuceedebugStepNotificationEntryFrame + 1, System.nanoTime());
+            // the frame is mid-line, just after the udf call, which is where its delegate method is positioned
+            maybeNotifyOfStepCompletion(stack, (Frame)frame, request, -1, minDistanceToLuceedebugStepNotificationEntryFrame + 1, System.nanoTime());
         }
         else {
             // no-op
         }
     }
 
-    private void maybeNotifyOfStepCompletion(Thread currentThread, Frame frame, CfStepRequest request, int minDistanceToLuceedebugStepNotificationEntryFrame, long start) {
+    /**
+     * @param line the line the step hook is for, or -1 if the frame's delegate method is positioned on the line the step would complete on
+     */
+    private void maybeNotifyOfStepCompletion(CfStack stack, Frame frame, CfStepRequest request, int line, int minDistanceToLuceedebugStepNotificationEntryFrame, long start) {
+        final Thread currentThread = stack.thread;
+
         if (frame.isUdfDefaultValueInitFrame && !config_.getStepIntoUdfDefaultValueInitFrames()) {
             return;
         }
 
+        if (line > 0) {
+            frame.setLine(line);
+        }
+
         if (request.type == CfStepRequest.STEP_INTO) {
+            if (request.maybeNull_functionBreakpointID != null && frame.getDepth() != request.startDepth) {
+                // a function breakpoint stops on its function's first line, not in a frame pushed before that (e.g. an argument's default value)
+                return;
+            }
+
             // step in, every step is a valid step
-            clearStepRequest(currentThread);
-            notifyStep(currentThread, minDistanceToLuceedebugStepNotificationEntryFrame + 1);
+            stack.clearStepRequest();
+            if (request.maybeNull_functionBreakpointID != null && didHitBreakpointCallback != null) {
+                final boolean willSuspend = didHitBreakpointCallback.call(currentThread, minDistanceToLuceedebugStepNotificationEntryFrame + 1, request.maybeNull_functionBreakpointID);
+                if (!willSuspend && request.maybeNull_interruptedStep != null) {
+                    // over the suspension budget; the debugger's step carries on, as for a line breakpoint (see `maybeHitBreakpoint`)
+                    stack.setStepRequest(request.maybeNull_interruptedStep);
+                }
+            }
+            else {
+                notifyStep(currentThread, minDistanceToLuceedebugStepNotificationEntryFrame + 1);
+            }
         }
         else if (request.type == CfStepRequest.STEP_OVER) {
             if (frame.getDepth() > request.startDepth) {
@@ -643,7 +1218,7 @@ public class DebugManager implements IDebugManager {
                 // System.out.println("  currentframedepth=" + frame.getDepth() + ", startframedepth=" + request.startDepth + ", notifying native of step occurence...");
                 // System.out.println("    " + request.__debug__steps + " cf steps in " + elapsed_ms + "ms for " + stepsPerMs + " steps/ms, overhead was " + (request.__debug__stepOverhead / 1e6) + "ms");
 
-                clearStepRequest(currentThread);
+                stack.clearStepRequest();
                 notifyStep(currentThread, minDistanceToLuceedebugStepNotificationEntryFrame + 1);
             }
         }
@@ -653,7 +1228,7 @@ public class DebugManager implements IDebugManager {
                 return;
             }
             else {
-                clearStepRequest(currentThread);
+                stack.clearStepRequest();
                 notifyStep(currentThread, minDistanceToLuceedebugStepNotificationEntryFrame + 1);
             }
         }
@@ -662,65 +1237,96 @@ public class DebugManager implements IDebugManager {
         }
     }
 
-    private DebugFrame maybeUpdateTopmostFrame(Thread thread, int lineNumber) {
-        DebugFrame frame = getTopmostFrame(thread);
-        if (frame == null) {
-            return null;
-        }
-        frame.setLine(lineNumber);
-        return frame;
+    private DebugFrame getTopmostFrame(Thread thread) {
+        CfStack stack = cfStackByThread.get(thread);
+        return stack == null ? null : stack.maybeNull_topmostFrame();
     }
 
-    private DebugFrame getTopmostFrame(Thread thread) {
-        ArrayList<DebugFrame> stack = cfStackByThread.get(thread);
-        if (stack == null || stack.size() == 0) {
-            return null;
+    public void pushCfFrame(PageContext pageContext, String sourceFilePath) {
+        final DebugFrame frame = maybe_pushCfFrame_worker(pageContext, sourceFilePath);
+
+        final FunctionBreakpoints functionBreakpoints = maybeNull_functionBreakpoints_;
+        if (functionBreakpoints != null && frame instanceof Frame) {
+            maybeArmFunctionBreakpoint(functionBreakpoints, (Frame)frame);
         }
-        return stack.get(stack.size() - 1);
     }
 
-    public void pushCfFrame(PageContext pageContext, String sourceFilePath) {
-        maybe_pushCfFrame_worker(pageContext, sourceFilePath);
+    /**
+     * null while there are no function breakpoints, so that pushing a frame costs one volatile read
+     */
+    private volatile FunctionBreakpoints maybeNull_functionBreakpoints_ = null;
+
+    public void setFunctionBreakpoints(FunctionBreakpoints maybeNull_functionBreakpoints) {
+        maybeNull_functionBreakpoints_ = maybeNull_functionBreakpoints;
     }
-    
-    private DebugFrame maybe_pushCfFrame_worker(PageContext pageContext, String sourceFilePath) {
-        Thread currentThread = Thread.currentThread();
 
-        ArrayList<DebugFrame> stack = cfStackByThread.get(currentThread);
+    /**
+     * Called on the current thread, having just pushed `frame`. The function's arguments and local scope are already in place,
+     * so a condition is checked right here; but the thread can't stop until it reaches the function's first line,
+     * so a hit arms a step-into, which completes (as a hit of the breakpoint) on the function's first line step.
+     * A step the debugger had going is kept, and carries on if the function returns without reaching a line.
+     */
+    private void maybeArmFunctionBreakpoint(FunctionBreakpoints functionBreakpoints, Frame frame) {
+        final String maybeNull_name = frame.maybeNull_getLowerCaseName();
+        if (maybeNull_name == null) {
+            return;
+        }
 
-        // The null case means "fresh stack", this is the first frame
-        // Frame length shouldn't ever be zero, we should tear it down when it hits zero
-        if (stack == null || stack.size() == 0) {
-            ArrayList<DebugFrame> list = new ArrayList<>();
-            cfStackByThread.put(currentThread, list);
-            stack = list;
+        final FunctionBreakpoints.Breakpoint maybeNull_breakpoint = functionBreakpoints.maybeNull_breakpointFor(maybeNull_name, frame.getSourceFilePath());
+        if (maybeNull_breakpoint == null) {
+            return;
+        }
 
-            pageContextByThread.put(currentThread, new WeakReference<>(pageContext));
+        final CfStack stack = cfStackOfCurrentThread.get();
+
+        if (maybeNull_breakpoint.maybeNull_expr != null && !evaluateConditionOnCurrentThread(stack, maybeNull_breakpoint.id, maybeNull_breakpoint.maybeNull_expr)) {
+            return;
+        }
+
+        if (maybeNull_breakpoint.maybeNull_hitCondition != null && !maybeNull_breakpoint.maybeNull_hitCondition.countHitAndTest()) {
+            return;
+        }
+
+        stack.setStepRequest(new CfStepRequest(frame.getDepth(), CfStepRequest.STEP_INTO, maybeNull_breakpoint.id, stack.stepRequest));
+        DebugHookCallSites.noteStepRequested();
+    }
+    
+    private DebugFrame maybe_pushCfFrame_worker(PageContext pageContext, String sourceFilePath) {
+        final CfStack cfStack = cfStackOfCurrentThread.get();
+        final ArrayList<DebugFrame> stack = cfStack.frames;
+
+        // The empty case means "fresh stack", this is the first frame, and the stack becomes visible to the debugger
+        if (stack.size() == 0) {
+            cfStack.pageContext = new WeakReference<>(pageContext);
+            cfStackByThread.put(cfStack.thread, cfStack);
+            if (!emptyCfStacksWithStepRequest.isEmpty()) {
+                emptyCfStacksWithStepRequest.remove(cfStack.thread);
+            }
+            if (!cfStack.announced) {
+                final var cb = maybeNull_cfThreadStartedCallback;
+                if (cb != null) {
+                    cfStack.announced = true;
+                    cb.call(cfStack.thread);
+                }
+            }
         }
 
         final int depth = stack.size(); // first frame is frame 0, and prior to pushing the first frame the stack is length 0; next frame is frame 1, and prior to pushing it the stack is of length 1, ...
-        
-        FrameContext maybeBaseFrame = stack.size() == 0
-            ? null
-            : stack.get(0) instanceof Frame ? ((Frame)stack.get(0)).getFrameContext() : null;
 
         final DebugFrame frame = DebugFrame.makeFrame(
             sourceFilePath,
             depth,
             valTracker,
-            pageContext,
-            maybeBaseFrame
+            pageContext
         );
 
         stack.add(frame);
 
-        // if (stepRequestByThread.containsKey(currentThread)) {
+        // if (cfStack.stepRequest != null) {
         //     System.out.println("pushed frame during active step request:");
         //     System.out.println("  " + frame.getName() + " @ " + frame.getSourceFilePath() + ":" + frame.getLine());
         // }
 
-        frameByFrameID.put(frame.getId(), frame);
-
         return frame;
     }
 
@@ -732,32 +1338,53 @@ public class DebugManager implements IDebugManager {
     }
 
     public void popCfFrame() {
-        Thread currentThread = Thread.currentThread();
-        ArrayList<DebugFrame> maybeNull_frameListing = cfStackByThread.get(currentThread);
+        final CfStack cfStack = cfStackOfCurrentThread.get();
+        final ArrayList<DebugFrame> frameListing = cfStack.frames;
 
-        if (maybeNull_frameListing == null) {
+        if (frameListing.isEmpty()) {
             // error case, maybe throw
             // we should not be popping from a non-existent thing
+            // (this can happen legitimately if the debugger attached while this thread was already inside some cf frames,
+            // in which case the pushes for those frames were no-ops)
             return;
         }
 
-        DebugFrame poppedFrame = null;
+        DebugFrame poppedFrame = frameListing.remove(frameListing.size() - 1);
+        if (poppedFrame instanceof Frame && ((Frame)poppedFrame).isRegisteredByFrameID) {
+            frameByFrameID.remove(poppedFrame.getId());
+        }
 
-        if (maybeNull_frameListing.isEmpty()) {
-            System.out.println("Popping from an empty stack?");
-            System.exit(1);
+        // A function breakpoint armed for the popped frame (or one above it) that never reached a line; it can't complete anymore,
+        // and the debugger's step, if it had one going, carries on.
+        final CfStepRequest maybeNull_stepRequest = cfStack.stepRequest;
+        if (maybeNull_stepRequest != null && maybeNull_stepRequest.maybeNull_functionBreakpointID != null && maybeNull_stepRequest.startDepth >= frameListing.size()) {
+            dropFunctionBreakpointSteps(cfStack, maybeNull_stepRequest, frameListing.size());
         }
-        else {
-            poppedFrame = maybeNull_frameListing.remove(maybeNull_frameListing.size() - 1);
-            frameByFrameID.remove(poppedFrame.getId());
+
+        if (frameListing.size() == 0) {
+            // we popped the last frame, so the stack is no longer visible to the debugger
+            cfStackByThread.remove(cfStack.thread);
+            cfStack.pageContext = null;
+
+            // A step that didn't complete in this request (e.g. a "step over" on the last line of its last frame) completes in the thread's next one;
+            // until then, keep it where `clearStepRequest` and `clearAllStepRequests` can find it.
+            if (cfStack.stepRequest != null) {
+                emptyCfStacksWithStepRequest.put(cfStack.thread, cfStack);
+            }
         }
+    }
 
-        if (maybeNull_frameListing.size() == 0) {
-            // we popped the last frame, so we destroy the whole stack
-            cfStackByThread.remove(currentThread);
-            pageContextByThread.remove(currentThread);
-            
-            // TODO: cancel any current thread step requests here (e.g. a "step over" on last line of last frame in current request)
+    private static void dropFunctionBreakpointSteps(CfStack stack, CfStepRequest request, int poppedDepth) {
+        CfStepRequest maybeNull_step = request;
+        while (maybeNull_step != null && maybeNull_step.maybeNull_functionBreakpointID != null && maybeNull_step.startDepth >= poppedDepth) {
+            maybeNull_step = maybeNull_step.maybeNull_interruptedStep;
+        }
+
+        if (maybeNull_step == null) {
+            stack.clearStepRequest();
+        }
+        else {
+            stack.setStepRequest(maybeNull_step);
         }
     }
 
@@ -0,0 +1,114 @@
+package luceedebug.coreinject;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import lucee.runtime.exp.PageException;
+
+/**
+ * The debugger's exception filters. Immutable; the DebugManager swaps in a new instance (or null, for "no filters")
+ * whenever the debugger sets them, so the exception hook does a single volatile read when no filter is on.
+ *
+ * "all" stops where a matching exception first propagates out of a cf frame.
+ * "uncaught" stops where a matching exception propagates out of the outermost cf frame of a request; we can't tell, at the point
+ * an exception is thrown, whether some cf code further down the stack will catch it, so this is the frame that it escaped from
+ * last rather than first.
+ *
+ * An exception's types are its cf type (e.g. "expression", "database"), its custom type if it has one, and its java class name.
+ * A filter matches if any of its patterns matches any of those, ignoring case.
+ */
+class ExceptionBreakpoints {
+    static final String ALL = "all";
+    static final String UNCAUGHT = "uncaught";
+
+    private final Pattern maybeNull_all;
+    private final Pattern maybeNull_uncaught;
+
+    private ExceptionBreakpoints(Pattern maybeNull_all, Pattern maybeNull_uncaught) {
+        this.maybeNull_all = maybeNull_all;
+        this.maybeNull_uncaught = maybeNull_uncaught;
+    }
+
+    /**
+     * @return null if neither filter is on
+     */
+    static ExceptionBreakpoints maybeNull_of(String maybeNull_allTypes, String maybeNull_uncaughtTypes) {
+        if (maybeNull_allTypes == null && maybeNull_uncaughtTypes == null) {
+            return null;
+        }
+        return new ExceptionBreakpoints(
+            maybeNull_allTypes == null ? null : compile(maybeNull_allTypes),
+            maybeNull_uncaughtTypes == null ? null : compile(maybeNull_uncaughtTypes)
+        );
+    }
+
+    /**
+     * "expression, custom.*" -> (?i)expression|custom\..*
+     */
+    private static Pattern compile(String types) {
+        final var alternatives = new ArrayList<String>();
+        for (var type : types.split("[,\\s]+")) {
+            if (type.isEmpty()) {
+                continue;
+            }
+            final var parts = type.split("\\*", -1);
+            final var alternative = new StringBuilder(Pattern.quote(parts[0]));
+            for (int i = 1; i < parts.length; i++) {
+                alternative.append(".*").append(Pattern.quote(parts[i]));
+            }
+            alternatives.add(alternative.toString());
+        }
+        return Pattern.compile(alternatives.isEmpty() ? ".*" : String.join("|", alternatives), Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * @return the filter to stop for (ALL or UNCAUGHT), or null if the thread shouldn't stop
+     */
+    String maybeNull_filterToStopFor(Throwable exception, boolean isPropagatingOutOfOutermostFrame) {
+        if (lucee.runtime.exp.Abort.isAbort(exception)) {
+            // cfabort, cflocation and etc. are implemented as exceptions, but they aren't errors
+            return null;
+        }
+
+        final var types = typesOf(exception);
+        if (maybeNull_all != null && matchesAny(maybeNull_all, types)) {
+            return ALL;
+        }
+        if (isPropagatingOutOfOutermostFrame && maybeNull_uncaught != null && matchesAny(maybeNull_uncaught, types)) {
+            return UNCAUGHT;
+        }
+        return null;
+    }
+
+    private static boolean matchesAny(Pattern pattern, ArrayList<String> types) {
+        for (var type : types) {
+            if (pattern.matcher(type).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ArrayList<String> typesOf(Throwable exception) {
+        final var result = new ArrayList<String>();
+        if (exception instanceof PageException) {
+            final var pageException = (PageException)exception;
+            result.add(pageException.getTypeAsString());
+            final String maybeNull_customType = pageException.getCustomTypeAsString();
+            if (maybeNull_customType != null) {
+                result.add(maybeNull_customType);
+            }
+        }
+        result.add(exception.getClass().getName());
+        return result;
+    }
+
+    /**
+     * The cf type (or, for non-cf exceptions, the java class name), which is what the debugger shows as the exception's id.
+     */
+    static String typeOf(Throwable exception) {
+        return exception instanceof PageException
+            ? ((PageException)exception).getTypeAsString()
+            : exception.getClass().getName();
+    }
+}
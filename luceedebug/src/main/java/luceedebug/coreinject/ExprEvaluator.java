@@ -35,6 +35,17 @@ class ExprEvaluator {
             .get();
     }
 
+    /**
+     * Runs `cfml` (tags, or a cfscript island) in whatever scopes `pageContext` currently has, on the current thread.
+     * The engine caches the compiled page by the source text, so running the same text again doesn't recompile it.
+     */
+    public static void render(PageContext pageContext, String cfml) throws Throwable {
+        final Evaluator evaluator = lucee5
+            .or(() -> lucee6)
+            .orElseThrow(() -> new IllegalStateException("Couldn't find a Lucee engine method to perform evaluation."));
+        evaluator.render(pageContext, cfml);
+    }
+
     static abstract class Evaluator {
         // assignment to result var of a name of our choosing is expected safe because:
         //  - prefix shouldn't clash with user variables
@@ -53,7 +64,11 @@ class ExprEvaluator {
                 + "</cfscript>";
         }
 
-        protected abstract void evalIntoVariablesScope(Frame frame, String expr) throws Throwable;
+        protected abstract void render(PageContext pageContext, String cfml) throws Throwable;
+
+        private void evalIntoVariablesScope(Frame frame, String expr) throws Throwable {
+            render(frame.getFrameContext().pageContext, Evaluator.getEvaluatableSourceText(expr));
+        }
 
         public Either</*err*/String, /*ok*/Object> eval(Frame frame, String expr) {
             try {
@@ -109,10 +124,10 @@ class ExprEvaluator {
             this.methodHandle = methodHandle;
         }
 
-        protected void evalIntoVariablesScope(Frame frame, String expr) throws Throwable {
+        protected void render(PageContext pageContext, String cfml) throws Throwable {
             methodHandle.invoke(
-                /*PageContext pc*/ frame.getFrameContext().pageContext,
-                /*String cfml*/ Evaluator.getEvaluatableSourceText(expr),
+                /*PageContext pc*/ pageContext,
+                /*String cfml*/ cfml,
                 /*int dialect*/ DIALECT_CFML,
                 /*boolean catchOutput*/ false,
                 /*boolean ignoreScopes*/ false
@@ -149,10 +164,10 @@ class ExprEvaluator {
             this.methodHandle = methodHandle;
         }
 
-        protected void evalIntoVariablesScope(Frame frame, String expr) throws Throwable {
+        protected void render(PageContext pageContext, String cfml) throws Throwable {
             methodHandle.invoke(
-                /*PageContext pc*/ frame.getFrameContext().pageContext,
-                /*String cfml*/ Evaluator.getEvaluatableSourceText(expr),
+                /*PageContext pc*/ pageContext,
+                /*String cfml*/ cfml,
                 /*boolean catchOutput*/ false,
                 /*boolean ignoreScopes*/ false
             );
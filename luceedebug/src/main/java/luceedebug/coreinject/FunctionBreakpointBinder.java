@@ -0,0 +1,73 @@
+package luceedebug.coreinject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import luceedebug.Either;
+import luceedebug.FunctionBreakpoints;
+import luceedebug.GlobalIDebugManagerHolder;
+import luceedebug.HitCondition;
+import luceedebug.IBreakpoint;
+import luceedebug.strong.DapBreakpointID;
+
+/**
+ * Binds the debugger's function breakpoints; they're checked in-process as cf frames are pushed (see `FunctionBreakpoints`),
+ * so binding them is the same for every engine.
+ */
+class FunctionBreakpointBinder {
+    private final Supplier<DapBreakpointID> nextBreakpointID_;
+    private final HitConditions hitConditions_;
+    private final SuspensionBudget suspensionBudget_;
+
+    /**
+     * A function breakpoint keeps its id (and so its hit count) for as long as the debugger keeps setting a breakpoint on the same name.
+     */
+    private final ConcurrentHashMap<String, DapBreakpointID> idsByName = new ConcurrentHashMap<>();
+
+    FunctionBreakpointBinder(Supplier<DapBreakpointID> nextBreakpointID, HitConditions hitConditions, SuspensionBudget suspensionBudget) {
+        this.nextBreakpointID_ = nextBreakpointID;
+        this.hitConditions_ = hitConditions;
+        this.suspensionBudget_ = suspensionBudget;
+    }
+
+    IBreakpoint[] bind(String[] names, String[] exprs, String[] hitConditions) {
+        final var result = new IBreakpoint[names.length];
+        final var functionBreakpoints = new ArrayList<FunctionBreakpoints.Breakpoint>();
+        final var liveNames = new HashSet<String>();
+
+        for (int i = 0; i < names.length; i++) {
+            final var name = names[i].trim();
+            final var id = idsByName.computeIfAbsent(name.toLowerCase(Locale.ROOT), _z -> nextBreakpointID_.get());
+            liveNames.add(name.toLowerCase(Locale.ROOT));
+            suspensionBudget_.forget(id);
+
+            final Either<String, HitCondition> maybeNull_hitCondition = hitConditions_.forBreakpoint(id, hitConditions[i]);
+            if (maybeNull_hitCondition != null && maybeNull_hitCondition.isLeft()) {
+                result[i] = Breakpoint.Unbound(0, id, maybeNull_hitCondition.getLeft());
+                continue;
+            }
+
+            final var expr = exprs[i] == null || exprs[i].isBlank() ? null : exprs[i];
+            functionBreakpoints.add(new FunctionBreakpoints.Breakpoint(name, id, expr, maybeNull_hitCondition == null ? null : maybeNull_hitCondition.getRight()));
+            result[i] = Breakpoint.Bound(0, id);
+        }
+
+        // forget the ids of names that no longer have a breakpoint, so that setting one again later starts a fresh hit count
+        idsByName.entrySet().removeIf(entry -> {
+            if (liveNames.contains(entry.getKey())) {
+                return false;
+            }
+            hitConditions_.forget(entry.getValue());
+            return true;
+        });
+
+        GlobalIDebugManagerHolder.debugManager.setFunctionBreakpoints(
+            FunctionBreakpoints.maybeNull_of(functionBreakpoints.toArray(new FunctionBreakpoints.Breakpoint[0]))
+        );
+
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+package luceedebug.coreinject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import luceedebug.Either;
+import luceedebug.HitCondition;
+import luceedebug.strong.DapBreakpointID;
+
+/**
+ * The parsed hit conditions of an engine's breakpoints, by breakpoint id.
+ * Hit counts survive rebinding a breakpoint (which happens whenever any breakpoint in its file changes, or its file is recompiled),
+ * as long as its hit condition stays the same.
+ */
+class HitConditions {
+    private final ConcurrentHashMap<DapBreakpointID, HitCondition> byBreakpointID = new ConcurrentHashMap<>();
+
+    /**
+     * @return null if there's no hit condition, Left(error message) if it's not one we understand
+     */
+    Either<String, HitCondition> forBreakpoint(DapBreakpointID id, String maybeNull_text) {
+        if (maybeNull_text == null || maybeNull_text.isBlank()) {
+            byBreakpointID.remove(id);
+            return null;
+        }
+
+        final var existing = byBreakpointID.get(id);
+        if (existing != null && existing.text.equals(maybeNull_text)) {
+            return Either.Right(existing);
+        }
+
+        final var parsed = HitCondition.parse(maybeNull_text);
+        if (parsed.isRight()) {
+            byBreakpointID.put(id, parsed.getRight());
+        }
+        else {
+            byBreakpointID.remove(id);
+        }
+        return parsed;
+    }
+
+    HitCondition maybeNull_get(DapBreakpointID id) {
+        return byBreakpointID.get(id);
+    }
+
+    void forget(DapBreakpointID id) {
+        byBreakpointID.remove(id);
+    }
+}
@@ -0,0 +1,503 @@
+package luceedebug.coreinject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import luceedebug.*;
+import luceedebug.strong.DapBreakpointID;
+import luceedebug.strong.JdwpThreadID;
+import luceedebug.strong.CanonicalServerAbsPath;
+import luceedebug.strong.RawIdePath;
+
+/**
+ * An engine that doesn't use jdwp at all (agent arg `engine=inprocess`), so the vm doesn't need to be started with `-agentlib:jdwp`.
+ *
+ * Every cf line already calls into the debug manager (see `DebugHookCallSites`), so rather than having jdwp suspend a thread just after
+ * its step hook (see `LuceeVm.suspendAtNextCfLine`), a thread that completes a step, hits a breakpoint, or stops on an exception
+ * is parked right there, inside the hook, on a mailbox of its own. The debugger resumes it by sending a command to the mailbox:
+ * continue, or one of the step types, in which case the resumed thread registers the step request itself before it returns from the hook.
+ *
+ * Without jdwp there are no class prepare events and no line tables to check breakpoints against, so line breakpoints are published to
+ * their file's `LineBreakpoints` straight away, and are reported as bound whether or not the file has been compiled yet (a breakpoint on a line
+ * without any code is never hit). Breakpoints in files whose step hooks can't check them (see `KlassMap.stepHooksCoverEveryLine`)
+ * are never hit either; this engine is meant for servers whose pages are instrumented with a step hook on every line.
+ *
+ * Thread ids are `Thread.getId()`, rather than jdwp's ids.
+ */
+public class InProcessVm implements ILuceeVm {
+    /**
+     * mailbox command to resume without stepping; otherwise, commands are `DebugManager.CfStepRequest` step types
+     */
+    private static final int CONTINUE = -1;
+
+    /**
+     * time threads spend parked in a hook, from being reported as stopped to being sent a command
+     */
+    private static final Metrics.Histogram parkedTime = Metrics.histogram("suspension.inProcess.parked");
+
+    private static class SuspendedThread {
+        final Thread thread;
+        /**
+         * Holds at most one command; the debugger sends one, and forgets the thread (see `send`).
+         */
+        final ArrayBlockingQueue<Integer> mailbox = new ArrayBlockingQueue<>(1);
+
+        SuspendedThread(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private static class BoundBreakpoint {
+        final RawIdePath ideAbsPath;
+        final CanonicalServerAbsPath serverAbsPath;
+        final int line;
+        final DapBreakpointID id;
+        final boolean isBound;
+        /**
+         * non-null for logpoints
+         */
+        final String maybeNull_logMessage;
+
+        BoundBreakpoint(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, boolean isBound, String maybeNull_logMessage) {
+            this.ideAbsPath = ideAbsPath;
+            this.serverAbsPath = serverAbsPath;
+            this.line = line;
+            this.id = id;
+            this.isBound = isBound;
+            this.maybeNull_logMessage = maybeNull_logMessage;
+        }
+    }
+
+    private final Config config_;
+    private final SuspensionBudget suspensionBudget_;
+    private final HitConditions hitConditions_ = new HitConditions();
+    private final FunctionBreakpointBinder functionBreakpointBinder_;
+
+    /**
+     * Threads parked in a hook. A thread is removed when the debugger sends it a command, so a thread is sent at most one command per stop.
+     */
+    private final ConcurrentHashMap<JdwpThreadID, SuspendedThread> suspendedThreads_ = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CanonicalServerAbsPath, BoundBreakpoint[]> breakpointsByAbsPath_ = new ConcurrentHashMap<>();
+
+    // volatile, because these are called on the threads that stop, rather than on a single jdwp event thread
+    private volatile Consumer<JdwpThreadID> stepEventCallback = null;
+    private volatile BiConsumer<JdwpThreadID, DapBreakpointID> breakpointEventCallback = null;
+    private volatile Consumer<BreakpointsChangedEvent> breakpointsChangedCallback = null;
+    private volatile BiConsumer<DapBreakpointID, String> logpointCallback = null;
+    private volatile BiConsumer<JdwpThreadID, String> exceptionEventCallback = null;
+
+    public InProcessVm(Config config) {
+        this.config_ = config;
+        this.suspensionBudget_ = new SuspensionBudget(config, this::reportSuspensionBudgetStateChange);
+        this.functionBreakpointBinder_ = new FunctionBreakpointBinder(this::nextDapBreakpointID, hitConditions_, suspensionBudget_);
+
+        GlobalIDebugManagerHolder.debugManager.registerCfStepHandler((thread, minDistanceToLuceedebugBaseFrame) -> {
+            suspendInHook(thread, threadID -> {
+                final var cb = stepEventCallback;
+                if (cb != null) {
+                    cb.accept(threadID);
+                }
+            });
+        });
+
+        GlobalIDebugManagerHolder.debugManager.registerCfBreakpointHandler((thread, minDistanceToLuceedebugBaseFrame, breakpointID) -> {
+            if (!suspensionBudget_.tryAdmit(threadIDOf(thread), breakpointID)) {
+                return false;
+            }
+            suspendInHook(thread, threadID -> {
+                final var cb = breakpointEventCallback;
+                if (cb != null) {
+                    cb.accept(threadID, breakpointID);
+                }
+            });
+            return true;
+        });
+
+        GlobalIDebugManagerHolder.debugManager.registerCfExceptionHandler((thread, minDistanceToLuceedebugBaseFrame, text) -> {
+            if (!suspensionBudget_.tryAdmit(threadIDOf(thread), null)) {
+                return false;
+            }
+            suspendInHook(thread, threadID -> {
+                final var cb = exceptionEventCallback;
+                if (cb != null) {
+                    cb.accept(threadID, text);
+                }
+            });
+            return true;
+        });
+
+        GlobalIDebugManagerHolder.debugManager.registerCfLogpointHandler((breakpointID, message) -> {
+            final var cb = logpointCallback;
+            if (cb != null) {
+                cb.accept(breakpointID, message);
+            }
+        });
+    }
+
+    private static JdwpThreadID threadIDOf(Thread thread) {
+        return new JdwpThreadID(thread.getId());
+    }
+
+    /**
+     * Called on `thread` (always the current thread), from inside a step hook or the exception hook. Records the lines of its cf frames,
+     * reports it as stopped, and parks it until the debugger sends it a command. An interrupt doesn't end the wait, since the debugger
+     * is still looking at the thread; it's passed on once the thread resumes.
+     */
+    private void suspendInHook(Thread thread, Consumer<JdwpThreadID> reportStopped) {
+        final var threadID = threadIDOf(thread);
+        final var suspended = new SuspendedThread(thread);
+
+        GlobalIDebugManagerHolder.debugManager.setCfFrameLines(thread, cfFrameLinesTopmostFirst());
+        suspendedThreads_.put(threadID, suspended);
+
+        final long start = System.nanoTime();
+        boolean interrupted = false;
+        try {
+            reportStopped.accept(threadID);
+
+            int command;
+            while (true) {
+                try {
+                    command = suspended.mailbox.take();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+
+            if (command != CONTINUE) {
+                GlobalIDebugManagerHolder.debugManager.registerStepRequest(thread, command);
+            }
+        }
+        finally {
+            suspendedThreads_.remove(threadID, suspended);
+            suspensionBudget_.release(threadID);
+            parkedTime.stop(start);
+            if (interrupted) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Like `LuceeVm.cfFrameLinesTopmostFirst`, but for the current thread, from its own stack.
+     * The topmost delegate method is in its call to the line step hook, which is positioned at the previous line;
+     * its line is recorded by the hook itself, so it's reported here as unknown.
+     */
+    private static int[] cfFrameLinesTopmostFirst() {
+        return StackWalker.getInstance().walk(frames -> {
+            final var result = new ArrayList<Integer>();
+            final String[] maybeNull_calleeName = {null};
+            frames.forEachOrdered(frame -> {
+                final var name = frame.getMethodName();
+                if (InstrumentedMethodNames.isDelegate(name)) {
+                    final String calleeName = maybeNull_calleeName[0];
+                    if (calleeName != null && calleeName.equals(IDebugManager.LINE_STEP_HOOK_NAME)) {
+                        result.add(0);
+                    }
+                    else {
+                        final int outlinedStepHookLine = calleeName == null
+                            ? -1
+                            : InstrumentedMethodNames.outlinedStepHookLineOrNegativeOne(calleeName);
+                        result.add(outlinedStepHookLine != -1 ? outlinedStepHookLine : frame.getLineNumber());
+                    }
+                }
+                maybeNull_calleeName[0] = name;
+            });
+            return result.stream().mapToInt(Integer::intValue).toArray();
+        });
+    }
+
+    /**
+     * Resumes a parked thread; a no-op if the thread isn't parked (anymore).
+     * @param command `CONTINUE`, or a step type for the thread to register before it resumes
+     */
+    private void send(JdwpThreadID threadID, int command) {
+        final var maybeNull_suspended = suspendedThreads_.remove(threadID);
+        if (maybeNull_suspended != null) {
+            maybeNull_suspended.mailbox.offer(command);
+        }
+    }
+
+    private Thread maybeNull_suspendedThread(long jdwpThreadID) {
+        final var maybeNull_suspended = suspendedThreads_.get(new JdwpThreadID(jdwpThreadID));
+        return maybeNull_suspended == null ? null : maybeNull_suspended.thread;
+    }
+
+    public void registerStepEventCallback(Consumer<JdwpThreadID> cb) {
+        stepEventCallback = cb;
+    }
+
+    public void registerBreakpointEventCallback(BiConsumer<JdwpThreadID, DapBreakpointID> cb) {
+        breakpointEventCallback = cb;
+    }
+
+    public void registerBreakpointsChangedCallback(Consumer<BreakpointsChangedEvent> cb) {
+        breakpointsChangedCallback = cb;
+    }
+
+    public void registerLogpointCallback(BiConsumer<DapBreakpointID, String> cb) {
+        logpointCallback = cb;
+    }
+
+    public void registerExceptionEventCallback(BiConsumer<JdwpThreadID, String> cb) {
+        exceptionEventCallback = cb;
+    }
+
+    /**
+     * Thread ids here are `Thread.getId()`, so every thread running cf code can be listed, parked or not.
+     */
+    public String[][] getThreadListing(boolean suspendedOnly) {
+        final var result = new ArrayList<String[]>();
+        for (var entry : GlobalIDebugManagerHolder.debugManager.getCfThreadNames().entrySet()) {
+            final long threadID = entry.getKey().getId();
+            if (suspendedOnly && !suspendedThreads_.containsKey(new JdwpThreadID(threadID))) {
+                continue;
+            }
+            result.add(new String[]{Long.toString(threadID), entry.getValue()});
+        }
+        return result.toArray(size -> new String[size][]);
+    }
+
+    /**
+     * A parked thread's frame lines were recorded when it stopped, so there's nothing to read here.
+     */
+    public IDebugFrame[] getStackTrace(long jdwpThreadID) {
+        final var maybeNull_thread = maybeNull_suspendedThread(jdwpThreadID);
+        return maybeNull_thread == null
+            ? new IDebugFrame[0]
+            : GlobalIDebugManagerHolder.debugManager.getCfStack(maybeNull_thread);
+    }
+
+    public IDebugEntity[] getScopes(long frameID) {
+        return GlobalIDebugManagerHolder.debugManager.getScopesForFrame(frameID);
+    }
+
+    public IDebugEntity[] getVariables(long ID) {
+        return GlobalIDebugManagerHolder.debugManager.getVariables(ID, null);
+    }
+
+    public IDebugEntity[] getNamedVariables(long ID) {
+        return GlobalIDebugManagerHolder.debugManager.getVariables(ID, IDebugEntity.DebugEntityType.NAMED);
+    }
+
+    public IDebugEntity[] getIndexedVariables(long ID) {
+        return GlobalIDebugManagerHolder.debugManager.getVariables(ID, IDebugEntity.DebugEntityType.INDEXED);
+    }
+
+    private final AtomicInteger breakpointID = new AtomicInteger();
+    private DapBreakpointID nextDapBreakpointID() {
+        return new DapBreakpointID(breakpointID.incrementAndGet());
+    }
+
+    public IBreakpoint[] bindBreakpoints(RawIdePath idePath, CanonicalServerAbsPath serverAbsPath, int[] lines, String[] exprs, String[] hitConditions, String[] logMessages) {
+        if (lines.length != exprs.length || lines.length != hitConditions.length || lines.length != logMessages.length) {
+            throw new AssertionError("lines.length != exprs.length || lines.length != hitConditions.length || lines.length != logMessages.length");
+        }
+
+        DebugHookCallSites.noteBreakpointsInFile(serverAbsPath.get(), lines.length > 0);
+
+        final String maybeNull_exclusionReason = config_.getSourcePathFilter().maybeNull_exclusionReason(serverAbsPath.get());
+        final BoundBreakpoint[] maybeNull_previous = breakpointsByAbsPath_.get(serverAbsPath);
+
+        final var result = new IBreakpoint[lines.length];
+        final var bound = new BoundBreakpoint[lines.length];
+        final var lineBreakpoints = new ArrayList<LineBreakpoints.Breakpoint>();
+
+        for (int i = 0; i < lines.length; i++) {
+            final int line = lines[i];
+            final DapBreakpointID id = idForLine(maybeNull_previous, line);
+            final var logMessage = logMessages[i] == null || logMessages[i].isEmpty() ? null : logMessages[i];
+
+            // set again by the debugger, so it's no longer tripped or disabled
+            suspensionBudget_.forget(id);
+
+            if (maybeNull_exclusionReason != null) {
+                result[i] = Breakpoint.Unbound(line, id, maybeNull_exclusionReason);
+                bound[i] = new BoundBreakpoint(idePath, serverAbsPath, line, id, false, logMessage);
+                continue;
+            }
+
+            final Either<String, HitCondition> maybeNull_hitCondition = hitConditions_.forBreakpoint(id, hitConditions[i]);
+            if (maybeNull_hitCondition != null && maybeNull_hitCondition.isLeft()) {
+                result[i] = Breakpoint.Unbound(line, id, maybeNull_hitCondition.getLeft());
+                bound[i] = new BoundBreakpoint(idePath, serverAbsPath, line, id, false, logMessage);
+                continue;
+            }
+
+            lineBreakpoints.add(new LineBreakpoints.Breakpoint(line, id, exprs[i], maybeNull_hitCondition == null ? null : maybeNull_hitCondition.getRight(), logMessage));
+            result[i] = Breakpoint.Bound(line, id);
+            bound[i] = new BoundBreakpoint(idePath, serverAbsPath, line, id, true, logMessage);
+        }
+
+        forgetRemovedBreakpoints(maybeNull_previous, bound, exprs);
+
+        LineBreakpoints.set(serverAbsPath.get(), lineBreakpoints.toArray(new LineBreakpoints.Breakpoint[0]));
+        if (bound.length == 0) {
+            breakpointsByAbsPath_.remove(serverAbsPath);
+        }
+        else {
+            breakpointsByAbsPath_.put(serverAbsPath, bound);
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the per-breakpoint state kept elsewhere for breakpoints of the file that weren't set again, or that are no longer conditional (or logpoints).
+     */
+    private void forgetRemovedBreakpoints(BoundBreakpoint[] maybeNull_previous, BoundBreakpoint[] current, String[] exprs) {
+        if (maybeNull_previous != null) {
+            for (var previous : maybeNull_previous) {
+                if (!Arrays.stream(current).anyMatch(bp -> bp.id.equals(previous.id))) {
+                    GlobalIDebugManagerHolder.debugManager.forgetBreakpointCondition(previous.id);
+                    GlobalIDebugManagerHolder.debugManager.forgetLogpoint(previous.id);
+                    hitConditions_.forget(previous.id);
+                }
+            }
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (exprs[i] == null || exprs[i].isBlank()) {
+                GlobalIDebugManagerHolder.debugManager.forgetBreakpointCondition(current[i].id);
+            }
+            if (current[i].maybeNull_logMessage == null) {
+                GlobalIDebugManagerHolder.debugManager.forgetLogpoint(current[i].id);
+            }
+        }
+    }
+
+    /**
+     * A breakpoint keeps its id (and so its hit count) for as long as the debugger keeps setting a breakpoint on the same line.
+     */
+    private DapBreakpointID idForLine(BoundBreakpoint[] maybeNull_previous, int line) {
+        if (maybeNull_previous != null) {
+            for (var bp : maybeNull_previous) {
+                if (bp.line == line) {
+                    return bp.id;
+                }
+            }
+        }
+        return nextDapBreakpointID();
+    }
+
+    private void reportSuspensionBudgetStateChange(DapBreakpointID breakpointID, String maybeNull_reason) {
+        BreakpointReporting.suspensionBudgetStateChanged(breakpointsChangedCallback, breakpointID, maybeNull_reason, () -> {
+            for (var bps : breakpointsByAbsPath_.values()) {
+                for (var bp : bps) {
+                    if (bp.id.equals(breakpointID)) {
+                        return bp.line;
+                    }
+                }
+            }
+            return 0;
+        });
+    }
+
+    public void continue_(long jdwpThreadID) {
+        send(new JdwpThreadID(jdwpThreadID), CONTINUE);
+    }
+
+    public void continueAll() {
+        for (var threadID : suspendedThreads_.keySet()) {
+            send(threadID, CONTINUE);
+        }
+    }
+
+    public void stepIn(long jdwpThreadID) {
+        send(new JdwpThreadID(jdwpThreadID), DebugManager.CfStepRequest.STEP_INTO);
+    }
+
+    public void stepOver(long jdwpThreadID) {
+        send(new JdwpThreadID(jdwpThreadID), DebugManager.CfStepRequest.STEP_OVER);
+    }
+
+    public void stepOut(long jdwpThreadID) {
+        send(new JdwpThreadID(jdwpThreadID), DebugManager.CfStepRequest.STEP_OUT);
+    }
+
+    public void clearAllBreakpoints() {
+        DebugHookCallSites.noteAllBreakpointsCleared();
+        for (var bps : breakpointsByAbsPath_.values()) {
+            forgetRemovedBreakpoints(bps, new BoundBreakpoint[0], new String[0]);
+        }
+        breakpointsByAbsPath_.clear();
+        LineBreakpoints.clearAll();
+        suspensionBudget_.releaseAll();
+    }
+
+    public void setExceptionBreakpoints(String maybeNull_allTypes, String maybeNull_uncaughtTypes) {
+        GlobalIDebugManagerHolder.debugManager.setExceptionBreakpoints(maybeNull_allTypes, maybeNull_uncaughtTypes);
+    }
+
+    public String[] getExceptionInfo(long jdwpThreadID) {
+        final var maybeNull_thread = maybeNull_suspendedThread(jdwpThreadID);
+        return maybeNull_thread == null ? null : GlobalIDebugManagerHolder.debugManager.getExceptionInfo(maybeNull_thread);
+    }
+
+    public IBreakpoint[] bindFunctionBreakpoints(String[] names, String[] exprs, String[] hitConditions) {
+        return functionBreakpointBinder_.bind(names, exprs, hitConditions);
+    }
+
+    public String[][] getSnapshots(boolean remove) {
+        return GlobalIDebugManagerHolder.debugManager.getSnapshots(remove);
+    }
+
+    /**
+     * see `LuceeVm.getSuspendedThreadListForDumpWorker`
+     */
+    private ArrayList<Thread> getSuspendedThreadListForDumpWorker() {
+        final var result = new ArrayList<Thread>();
+        for (var suspended : suspendedThreads_.values()) {
+            result.add(suspended.thread);
+        }
+        return result;
+    }
+
+    public String dump(int dapVariablesReference) {
+        return GlobalIDebugManagerHolder.debugManager.doDump(getSuspendedThreadListForDumpWorker(), dapVariablesReference);
+    }
+
+    public String dumpAsJSON(int dapVariablesReference) {
+        return GlobalIDebugManagerHolder.debugManager.doDumpAsJSON(getSuspendedThreadListForDumpWorker(), dapVariablesReference);
+    }
+
+    /**
+     * Without class prepare events, these are the files that have run some cf code since the vm started.
+     */
+    public String[] getTrackedCanonicalFileNames() {
+        return DebugHookCallSites.getCanonicalSourcePathsWithStepHooks();
+    }
+
+    public String[][] getBreakpointDetail() {
+        final var result = new ArrayList<String[]>();
+        for (var bps : breakpointsByAbsPath_.values()) {
+            for (var bp : bps) {
+                final var binding = !bp.isBound ? " (unbound)" : " (bound, in-process)";
+                result.add(BreakpointReporting.detail(bp.ideAbsPath, bp.serverAbsPath, bp.line, bp.id, binding, bp.maybeNull_logMessage, hitConditions_));
+            }
+        }
+        return result.toArray(size -> new String[size][]);
+    }
+
+    public String[][] getBreakpointConditionStats() {
+        return GlobalIDebugManagerHolder.debugManager.getBreakpointConditionStats();
+    }
+
+    public String[][] getLogpointStats() {
+        return GlobalIDebugManagerHolder.debugManager.getLogpointStats();
+    }
+
+    public String getSourcePathForVariablesRef(int variablesRef) {
+        return GlobalIDebugManagerHolder.debugManager.getSourcePathForVariablesRef(variablesRef);
+    }
+
+    public Either<String, Either<ICfValueDebuggerBridge, String>> evaluate(int frameID, String expr) {
+        return GlobalIDebugManagerHolder.debugManager.evaluate((Long)(long)frameID, expr);
+    }
+}
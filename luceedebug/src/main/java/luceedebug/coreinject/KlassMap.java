@@ -3,6 +3,8 @@ package luceedebug.coreinject;
 import java.util.HashMap;
 
 import luceedebug.Config;
+import luceedebug.InstrumentationReport;
+import luceedebug.InstrumentedMethodNames;
 import luceedebug.strong.CanonicalServerAbsPath;
 
 import com.sun.jdi.*;
@@ -15,6 +17,12 @@ class KlassMap {
     
     final public ReferenceType refType;
 
+    /**
+     * True if the class was instrumented with a step hook on every line (see `CfmOrCfc.StepHooks`), so that its line breakpoints
+     * can be checked by the step hooks (see `LineBreakpoints`). Otherwise, its line breakpoints need jdwp breakpoints.
+     */
+    final public boolean stepHooksCoverEveryLine;
+
     private KlassMap(Config config, ReferenceType refType) throws AbsentInformationException {
         objRef = refType.classObject();
 
@@ -29,6 +37,8 @@ class KlassMap {
 
         this.lineMap = lineMap;
         this.refType = refType;
+        this.stepHooksCoverEveryLine = !InstrumentationReport.isDegraded(sourceName)
+            && refType.methods().stream().anyMatch(method -> InstrumentedMethodNames.isDelegate(method.name()));
     }
 
     boolean isCollected() {
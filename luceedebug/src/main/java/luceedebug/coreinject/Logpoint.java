@@ -0,0 +1,157 @@
+package luceedebug.coreinject;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import lucee.runtime.PageContext;
+
+/**
+ * A logpoint's DAP `logMessage`, built once per (breakpoint, message text) and reused for every hit.
+ *
+ * `{expr}` interpolations are run like breakpoint conditions (see `BreakpointCondition`): each is a small cfscript page the engine compiles once,
+ * run on the thread that hit the logpoint, in its current frame, without suspending it. An interpolation that throws formats as `{error: message}`;
+ * the rest of the message is still logged. Complex values are formatted as JSON.
+ *
+ * Each logpoint may log at most `maxPerSecond` messages per second; hits beyond that are dropped before anything is evaluated,
+ * and the next message that does get logged says how many were dropped.
+ */
+class Logpoint {
+    private static final String resultName = "__luceedebug__logpointResult";
+    static final int maxPerSecond = 100;
+
+    final String logMessage;
+    /**
+     * literals.length == interpolations.length + 1; the message is literals[0], interpolations[0], literals[1], ...
+     */
+    final String[] literals;
+    /**
+     * page source text, one per `{expr}`
+     */
+    final String[] interpolations;
+
+    /**
+     * The current one second window and the messages logged in it, as `second << 32 | logged`, so that starting a new window
+     * and counting a message in it is a single compare-and-set; hits racing across a window boundary can't be counted against the wrong window.
+     */
+    private final AtomicLong window = new AtomicLong();
+    private final AtomicLong droppedSinceLastLogged = new AtomicLong();
+    private final LongAdder logged = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    Logpoint(String logMessage) {
+        this.logMessage = logMessage;
+
+        final var literals = new ArrayList<String>();
+        final var interpolations = new ArrayList<String>();
+        final var literal = new StringBuilder();
+        int i = 0;
+        while (i < logMessage.length()) {
+            final char c = logMessage.charAt(i);
+            final int close = c == '{' ? matchingCloseBrace(logMessage, i) : -1;
+            if (close == -1) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            interpolations.add(pageSourceText(logMessage.substring(i + 1, close)));
+            i = close + 1;
+        }
+        literals.add(literal.toString());
+
+        this.literals = literals.toArray(new String[0]);
+        this.interpolations = interpolations.toArray(new String[0]);
+    }
+
+    /**
+     * Braces nest, so that e.g. `{ {a: 1}.a }` is one interpolation.
+     * @return index of the brace closing the one at `open`, or -1 if it isn't closed
+     */
+    static int matchingCloseBrace(String s, int open) {
+        int depth = 0;
+        for (int i = open; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '{') {
+                depth++;
+            }
+            else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String pageSourceText(String expr) {
+        final String result = "request['" + resultName + "']";
+        return "<cfscript>"
+            + result + " = (" + expr + ");"
+            + "if (!isNull(" + result + ") && !isSimpleValue(" + result + ")) { " + result + " = serializeJSON(" + result + "); }"
+            + "</cfscript>";
+    }
+
+    /**
+     * Called on every hit (that passed the breakpoint's condition and hit condition), before `format`.
+     * @return false if this logpoint has used up this second's messages, in which case the hit is counted as dropped
+     */
+    boolean tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    boolean tryAcquire(long nowNanos) {
+        final long second = (nowNanos / 1_000_000_000L) & 0xFFFF_FFFFL;
+        while (true) {
+            final long current = window.get();
+            final boolean isCurrentWindow = (current >>> 32) == second;
+            final long loggedInWindow = isCurrentWindow ? current & 0xFFFF_FFFFL : 0;
+
+            if (loggedInWindow >= maxPerSecond) {
+                droppedSinceLastLogged.incrementAndGet();
+                dropped.increment();
+                return false;
+            }
+
+            if (window.compareAndSet(current, (second << 32) | (loggedInWindow + 1))) {
+                return true;
+            }
+        }
+    }
+
+    String format(PageContext pageContext) {
+        final var result = new StringBuilder(literals[0]);
+        for (int i = 0; i < interpolations.length; i++) {
+            result.append(evaluate(pageContext, interpolations[i]));
+            result.append(literals[i + 1]);
+        }
+
+        final long droppedBeforeThis = droppedSinceLastLogged.getAndSet(0);
+        if (droppedBeforeThis > 0) {
+            result.append(" (" + droppedBeforeThis + " earlier messages from this logpoint were dropped)");
+        }
+
+        logged.increment();
+        return result.toString();
+    }
+
+    private static String evaluate(PageContext pageContext, String sourceText) {
+        try {
+            ExprEvaluator.render(pageContext, sourceText);
+            final var request = pageContext.requestScope();
+            final Object value = UnsafeUtils.deprecatedScopeGet(request, resultName);
+            request.remove(resultName);
+            return value == null ? "null" : lucee.runtime.op.Caster.toString(value);
+        }
+        catch (Throwable e) {
+            return "{error: " + e.getMessage() + "}";
+        }
+    }
+
+    long getLogged() {
+        return logged.sum();
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+}
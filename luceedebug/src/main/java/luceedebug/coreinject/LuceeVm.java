@@ -6,13 +6,16 @@ import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -38,6 +41,8 @@ public class LuceeVm implements ILuceeVm {
     // "step finalization" breakpoints will not have this, so lookup against it will yield null
     final static private String LUCEEDEBUG_BREAKPOINT_ID = "luceedebug-breakpoint-id";
     final static private String LUCEEDEBUG_BREAKPOINT_EXPR = "luceedebug-breakpoint-expr";
+    final static private String LUCEEDEBUG_BREAKPOINT_HIT_CONDITION = "luceedebug-breakpoint-hit-condition";
+    final static private String LUCEEDEBUG_BREAKPOINT_LOG_MESSAGE = "luceedebug-breakpoint-log-message";
 
     private final Config config_;
     private final VirtualMachine vm_;
@@ -48,6 +53,15 @@ public class LuceeVm implements ILuceeVm {
     private static class ThreadMap {
         private final Cleaner cleaner = Cleaner.create();
 
+        /**
+         * called on the cleaner's thread once a registered thread has been collected
+         */
+        private final Consumer<JdwpThreadID> onThreadCollected;
+
+        ThreadMap(Consumer<JdwpThreadID> onThreadCollected) {
+            this.onThreadCollected = onThreadCollected;
+        }
+
         private final ConcurrentHashMap<JdwpThreadID, WeakReference<Thread>> threadByJdwpId = new ConcurrentHashMap<>();
         private final ConcurrentMap<Thread, ThreadReference> threadRefByThread = new MapMaker()
             .concurrencyLevel(/* default as per docs */ 4)
@@ -100,15 +114,96 @@ public class LuceeVm implements ILuceeVm {
                 // Manually remove from (threadID -> WeakRef<Thread>) mapping
                 // The (WeakRef<Thread> -> ThreadRef) map should be autocleaning by virtue of "weakKeys"
                 threadByJdwpId.remove(threadID);
+                onThreadCollected.accept(threadID);
             });
         }
+    }
 
-        public void unregister(ThreadReference threadRef) {
-            var threadID = JdwpThreadID.of(threadRef);
-            var thread = getThreadByJdwpId(threadID);
-            threadByJdwpId.remove(threadID);
-            if (thread != null) {
-                threadRefByThread.remove(thread);
+    /**
+     * The one-off breakpoints that suspend a thread once it completes a step (see `suspendAtNextCfLine`), keyed by (location, thread).
+     * A breakpoint is disabled when it's hit, and re-enabled the next time the same thread completes a step at the same location,
+     * which, when stepping through a loop, is most of the time. Jdi can't remove a request's thread filter, so requests can't be
+     * shared between threads. Least recently used requests are deleted once there are more than `MAX_SIZE`.
+     */
+    private static class StepFinalizationBreakpoints {
+        private static final int MAX_SIZE = 256;
+        private static final String IS_STEP_FINALIZATION_BREAKPOINT = "luceedebug-step-finalization";
+
+        private static final Metrics.Counter created = Metrics.counter("stepFinalizationBreakpoints.created");
+        private static final Metrics.Counter reused = Metrics.counter("stepFinalizationBreakpoints.reused");
+        private static final Metrics.Counter evicted = Metrics.counter("stepFinalizationBreakpoints.evicted");
+
+        private final EventRequestManager eventRequestManager;
+
+        private final LinkedHashMap<List<Object>, BreakpointRequest> byLocationAndThread = new LinkedHashMap<>(16, 0.75f, /*accessOrder*/ true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, BreakpointRequest> eldest) {
+                if (size() > MAX_SIZE) {
+                    delete(eldest.getValue());
+                    evicted.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        StepFinalizationBreakpoints(EventRequestManager eventRequestManager) {
+            this.eventRequestManager = eventRequestManager;
+        }
+
+        synchronized void arm(Location location, ThreadReference threadRef) {
+            final var key = Arrays.<Object>asList(location, JdwpThreadID.of(threadRef));
+            var bp = byLocationAndThread.get(key);
+            if (bp == null) {
+                bp = eventRequestManager.createBreakpointRequest(location);
+                bp.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+                bp.addThreadFilter(threadRef);
+                bp.putProperty(IS_STEP_FINALIZATION_BREAKPOINT, Boolean.TRUE);
+                byLocationAndThread.put(key, bp);
+                created.increment();
+            }
+            else {
+                reused.increment();
+            }
+            bp.setEnabled(true);
+        }
+
+        /**
+         * Disarms the request if it's one of ours. Called from the event pump; the hitting thread is suspended.
+         */
+        static void disarmIfStepFinalizationBreakpoint(EventRequest request) {
+            if (request.getProperty(IS_STEP_FINALIZATION_BREAKPOINT) != null) {
+                request.setEnabled(false);
+            }
+        }
+
+        /**
+         * Deletes the thread's requests, for when it's no longer tracked; they could never be hit again.
+         */
+        synchronized void forgetThread(JdwpThreadID threadID) {
+            final var iter = byLocationAndThread.entrySet().iterator();
+            while (iter.hasNext()) {
+                final var entry = iter.next();
+                if (entry.getKey().get(1).equals(threadID)) {
+                    delete(entry.getValue());
+                    iter.remove();
+                }
+            }
+        }
+
+        /**
+         * For when all breakpoint requests have been deleted by other means.
+         */
+        synchronized void forgetAll() {
+            byLocationAndThread.clear();
+        }
+
+        private void delete(BreakpointRequest bp) {
+            try {
+                eventRequestManager.deleteEventRequest(bp);
+            }
+            catch (VMDisconnectedException e) {
+                // discard
             }
         }
     }
@@ -123,10 +218,24 @@ public class LuceeVm implements ILuceeVm {
          * can be null for "not a conditional breakpoint"
          **/
         final String expr;
+        /**
+         * can be null for "no hit condition"
+         */
+        final String hitCondition;
+        /**
+         * non-null for logpoints
+         */
+        final String logMessage;
+
+        /**
+         * A breakpoint is bound if we found a location for it, and either published it to the file's `LineBreakpoints`
+         * or issued a jdwp breakpoint request for it.
+         */
+        final boolean isBound;
 
         /**
-         * The implication is that a breakpoint is bound if we found a location for it an issued
-         * a jdwp breakpoint request; but can we further interrogate the jdwp breakpoint request
+         * Non-null only for breakpoints in classes whose step hooks can't check them (see `KlassMap.stepHooksCoverEveryLine`).
+         * Can we further interrogate the jdwp breakpoint request
          * and ask it if it itself is bound? Does `isEnabled` yield that, or is that just "we asked for it to be enabled"?
          */
         final BreakpointRequest maybeNull_jdwpBreakpointRequest;
@@ -142,25 +251,33 @@ public class LuceeVm implements ILuceeVm {
                 && serverAbsPath.equals(v.serverAbsPath)
                 && line == v.line
                 && id == v.id
-                && (expr == null ? v.expr == null : expr.equals(v.expr));
+                && (expr == null ? v.expr == null : expr.equals(v.expr))
+                && (hitCondition == null ? v.hitCondition == null : hitCondition.equals(v.hitCondition))
+                && (logMessage == null ? v.logMessage == null : logMessage.equals(v.logMessage));
         }
         
-        ReplayableCfBreakpointRequest(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String expr) {
+        ReplayableCfBreakpointRequest(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String expr, String hitCondition, String logMessage) {
             this.ideAbsPath = ideAbsPath;
             this.serverAbsPath = serverAbsPath;
             this.line = line;
             this.id = id;
             this.expr = expr;
+            this.hitCondition = hitCondition;
+            this.logMessage = logMessage;
+            this.isBound = false;
             this.maybeNull_jdwpBreakpointRequest = null;
         }
 
-        ReplayableCfBreakpointRequest(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String expr, BreakpointRequest jdwpBreakpointRequest) {
+        ReplayableCfBreakpointRequest(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String expr, String hitCondition, String logMessage, BreakpointRequest maybeNull_jdwpBreakpointRequest) {
             this.ideAbsPath = ideAbsPath;
             this.serverAbsPath = serverAbsPath;
             this.line = line;
             this.id = id;
             this.expr = expr;
-            this.maybeNull_jdwpBreakpointRequest = jdwpBreakpointRequest;
+            this.hitCondition = hitCondition;
+            this.logMessage = logMessage;
+            this.isBound = true;
+            this.maybeNull_jdwpBreakpointRequest = maybeNull_jdwpBreakpointRequest;
         }
 
         static List<BreakpointRequest> getJdwpRequests(Collection<ReplayableCfBreakpointRequest> vs) {
@@ -174,13 +291,32 @@ public class LuceeVm implements ILuceeVm {
         static BpLineAndId[] getLineInfo(Collection<ReplayableCfBreakpointRequest> vs) {
             return vs
                 .stream()
-                .map(v -> new BpLineAndId(v.ideAbsPath, v.serverAbsPath, v.line, v.id, v.expr))
+                .map(v -> new BpLineAndId(v.ideAbsPath, v.serverAbsPath, v.line, v.id, v.expr, v.hitCondition, v.logMessage))
                 .toArray(size -> new BpLineAndId[size]);
         }
     }
 
-    private final ThreadMap threadMap_ = new ThreadMap();
-    private final ExecutorService stepHandlerExecutor = Executors.newSingleThreadExecutor();
+    private final ThreadMap threadMap_;
+    private final StepFinalizationBreakpoints stepFinalizationBreakpoints_;
+    /**
+     * Runs the jdwp side of step completions and breakpoint hits (see `suspendAtNextCfLine`), for any number of threads at once.
+     */
+    private final ExecutorService stepCoordinatorExecutor = Executors.newCachedThreadPool(runnable -> {
+        final var thread = new java.lang.Thread(runnable, "luceedebug-step-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * time a thread spends in `suspendAtNextCfLine`, i.e. from its step hook until it's let go to run to the one-off breakpoint
+     */
+    private static final Metrics.Histogram handshakeTime = Metrics.histogram("suspension.handshake");
+    /**
+     * time from a step hook completing a step (or hitting a breakpoint) until the thread is suspended and reported to the debugger
+     */
+    private static final Metrics.Histogram stepCompletionTime = Metrics.histogram("suspension.stepCompleted");
+    private static final Metrics.Histogram breakpointHitTime = Metrics.histogram("suspension.breakpointHit");
+    private static final Metrics.Histogram exceptionHitTime = Metrics.histogram("suspension.exceptionHit");
     private final ConcurrentHashMap<CanonicalServerAbsPath, Set<ReplayableCfBreakpointRequest>> replayableBreakpointRequestsByAbsPath_ = new ConcurrentHashMap<>();
     
     /**
@@ -196,6 +332,30 @@ public class LuceeVm implements ILuceeVm {
 
     private final JdwpStaticCallable jdwp_getThread;
 
+    private static final String IS_THREAD_REGISTRATION_BREAKPOINT = "luceedebug-thread-registration";
+
+    private static final Metrics.Counter threadsMapped = Metrics.counter("threadMapping.mapped");
+    /**
+     * what it costs a thread to be mapped to its ThreadReference, as it pushes its first cf frame
+     */
+    private static final Metrics.Histogram threadMappingOnFirstCfFrameTime = Metrics.histogram("threadMapping.onFirstCfFrame");
+    /**
+     * what it costs a thread to be mapped to its ThreadReference, the first time it suspends (if it wasn't mapped on its first cf frame)
+     */
+    private static final Metrics.Histogram threadMappingOnSuspensionTime = Metrics.histogram("threadMapping.onSuspension");
+    /**
+     * what it costs the event pump to map a thread that hit a jdwp breakpoint before it was mapped
+     */
+    private static final Metrics.Histogram threadMappingOnJdwpEventTime = Metrics.histogram("threadMapping.onJdwpEvent");
+    /**
+     * time the event pump spends on each jdwp event; its count is the number of events handled
+     */
+    private static final Metrics.Histogram eventHandlingTime = Metrics.histogram("jdwp.eventHandling");
+    /**
+     * time spent tracking pages that were loaded before the debugger first connected
+     */
+    private static final Metrics.Histogram alreadyLoadedPagesScanTime = Metrics.histogram("classTracking.catchUp");
+
     private static class JdwpStaticCallable {
         public final ClassType classType;
         public final Method method;
@@ -220,6 +380,20 @@ public class LuceeVm implements ILuceeVm {
             new Thread(JdwpWorker::jdwp_stays_suspended_in_this_method_as_a_worker, "luceedebug-worker").start();
         }
 
+        static ConcurrentHashMap<Long, Thread> threadsAwaitingRegistration_ = new ConcurrentHashMap<>();
+        static AtomicLong registrationToken_ = new AtomicLong();
+
+        /**
+         * A thread calls this to have its ThreadReference looked up, with itself in `threadsAwaitingRegistration_` under `token`.
+         * There's a breakpoint on it, and the event pump maps the thread that hit the breakpoint to the thread that's waiting under the token
+         * (which is this method's argument), and then resumes it.
+         */
+        @SuppressWarnings("unused") // the argument is read via jdwp
+        static void jdwp_registerThread(long token) {
+            // bp will be set on the first bytecode
+            return;
+        }
+
         static ConcurrentHashMap<Long, Thread> threadBuffer_ = new ConcurrentHashMap<>();
         static AtomicLong threadBufferId_ = new AtomicLong();
 
@@ -259,22 +433,6 @@ public class LuceeVm implements ILuceeVm {
         }
     }
 
-    private void bootThreadTracking() {
-        final var threadStartRequest = vm_.eventRequestManager().createThreadStartRequest();
-        
-        // Should we suspend thread start event threads?
-        // Is there a perf hit to doing so?
-        // We can catch the ObjectCollectedExceptions that happen if they get collected prior to us doing
-        // work against it, and event with SUSPEND_EVENT_THREAD we were somehow hitting ObjectCollectedExceptions.
-        threadStartRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
-        threadStartRequest.enable();
-        initCurrentThreadListing();
-
-        final var threadDeathRequest = vm_.eventRequestManager().createThreadDeathRequest();
-        threadDeathRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
-        threadDeathRequest.enable();
-    }
-
     private void bootClassTracking() {
         final var pageRef = vm_.classesByName("lucee.runtime.Page");
 
@@ -285,7 +443,7 @@ public class LuceeVm implements ILuceeVm {
             request.setEnabled(true);
         }
         else if (pageRef.size() == 1) {
-            // we hoped it would be this easy, but when we initialize LuceeVm, lucee.runtime.Page is probably not loaded yet
+            // LuceeVm is booted when a debugger first connects (see `DebugManager.spawnWorker`), by which time lucee.runtime.Page is usually loaded
             bootClassTracking(pageRef.get(0));
         }
         else {
@@ -303,6 +461,33 @@ public class LuceeVm implements ILuceeVm {
 
         final var classUnloadRequest = vm_.eventRequestManager().createClassUnloadRequest();
         classUnloadRequest.setSuspendPolicy(EventRequest.SUSPEND_NONE);
+
+        trackAlreadyLoadedPages(lucee_runtime_Page);
+    }
+
+    /**
+     * Pages that were loaded before class tracking started (i.e. before the debugger first connected) never get a class prepare event,
+     * so they're picked up by a one-time scan. This runs after the class prepare request is enabled, so a page loaded meanwhile
+     * may be seen both here and by the event pump; `trackClassRef` tracks it once.
+     */
+    private void trackAlreadyLoadedPages(ReferenceType lucee_runtime_Page) {
+        if (!(lucee_runtime_Page instanceof ClassType)) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final var pending = new ArrayList<ClassType>(((ClassType)lucee_runtime_Page).subclasses());
+        int tracked = 0;
+        while (!pending.isEmpty()) {
+            final var classType = pending.remove(pending.size() - 1);
+            pending.addAll(classType.subclasses());
+            if (classType.isPrepared() && !classType.isAbstract()) {
+                trackClassRef(classType);
+                tracked++;
+            }
+        }
+        alreadyLoadedPagesScanTime.stop(start);
+        System.out.println("[luceedebug] class tracking caught up on " + tracked + " already loaded classes");
     }
 
     private JdwpStaticCallable bootThreadWorker() {
@@ -319,7 +504,11 @@ public class LuceeVm implements ILuceeVm {
 
         Method jdwp_stays_suspended_in_this_method_as_a_worker = null;
         Method jdwp_getThread = null;
+        Method jdwp_registerThread = null;
         for (var method : refType.methods()) {
+            if (method.name().equals("jdwp_registerThread")) {
+                jdwp_registerThread = method;
+            }
             if (method.name().equals("jdwp_stays_suspended_in_this_method_as_a_worker")) {
                 jdwp_stays_suspended_in_this_method_as_a_worker = method;
             }
@@ -338,6 +527,16 @@ public class LuceeVm implements ILuceeVm {
             System.exit(1);
             return null;
         }
+        if (jdwp_registerThread == null) {
+            System.out.println("Couldn't find helper method 'jdwp_registerThread'");
+            System.exit(1);
+            return null;
+        }
+
+        final var registrationRequest = vm_.eventRequestManager().createBreakpointRequest(jdwp_registerThread.locationOfCodeIndex(0));
+        registrationRequest.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
+        registrationRequest.putProperty(IS_THREAD_REGISTRATION_BREAKPOINT, true);
+        registrationRequest.enable();
 
         JDWP_WORKER_CLASS_ID = refType.classObject().uniqueID();
 
@@ -354,11 +553,18 @@ public class LuceeVm implements ILuceeVm {
         return new JdwpStaticCallable(((ClassType)refType.classObject().reflectedType()), jdwp_getThread);
     }
 
-    private static final int SIZEOF_INSTR_INVOKE_INTERFACE = 5;
+    /**
+     * Instrumented pages call step hooks via invokedynamic; invokeinterface has the same size.
+     */
+    private static final int SIZEOF_INSTR_INVOKE_DYNAMIC = 5;
     
     public LuceeVm(Config config, VirtualMachine vm) {
         this.config_ = config;
         this.vm_ = vm;
+        this.stepFinalizationBreakpoints_ = new StepFinalizationBreakpoints(vm.eventRequestManager());
+        this.threadMap_ = new ThreadMap(stepFinalizationBreakpoints_::forgetThread);
+        this.suspensionBudget_ = new SuspensionBudget(config, this::reportSuspensionBudgetStateChange);
+        this.functionBreakpointBinder_ = new FunctionBreakpointBinder(this::nextDapBreakpointID, hitConditions_, suspensionBudget_);
         
         initEventPump();
 
@@ -366,101 +572,156 @@ public class LuceeVm implements ILuceeVm {
 
         bootClassTracking();
 
-        bootThreadTracking();
-
         GlobalIDebugManagerHolder.debugManager.registerCfStepHandler((thread, minDistanceToLuceedebugBaseFrame) -> {
-            final var threadRef = threadMap_.getThreadRefByThreadOrFail(thread);
-            final var done = new AtomicBoolean(false);
-            
-            //
-            // Have to do this on a seperate thread in order to suspend the supplied thread,
-            // which by current design will always be the current thread.
-            //
-            // Weird, we take a `thread` argument, but we always have the caller passing in its current thread.
-            // And the caller's current thread is the same as our current thread.
-            //
-            // Maybe it is good that we support either / or
-            // (i.e. the passed in thread may or may not be the current thread, we should 'just work' in either case)
-            //
-            CompletableFuture.runAsync(() -> {
-                try {
-                    threadRef.suspend();
-                    
-                    /**
-                     * Start the search for the "step notification entry frame" from `minDistanceToLuceedebugBaseFrame`,
-                     * which is the count of "frames we've definitely passed through to get to that point on the thread".
-                     * We can't know exactly how many frames because of at least the non-determinism of whether the target
-                     * thread has entered into AtomicBoolean.get() prior to being suspended.
-                     * 
-                     * The stack on the target thread looks something like this:
-                     * 
-                     * 1) AtomicBoolean.get() // might be on stack, might not be yet; either way, the target thread is suspended
-                     * 2) IDebugManager.CfStepCallback.call() // the outer lambda here
-                     * 3) <...various DebugManager frames...>
-                     * 4) DebugManager step handler frame
-                     * 5) topmost lucee frame on an InvokeInterface instruction, getting us into DebugManager step handler
-                     * 6) <...various Lucee frames...>
-                     * 
-                     * We want to scan until we find (4). Once we've found (4), the frame below it is guaranteed to be the topmost lucee frame
-                     * that we want to return to. We can't "just" scan for the topmost lucee frame because we don't know its name or
-                     * really anything about it. Our contract with ourselves is that the method call from (5) into (4) is an InvokeInterface
-                     * instruction, and with that we can know which bytecode index to set our next breakpoint at.
-                     * 
-                     * We loop until `Integer.MAX_VALUE`, but, really that means "until all frames have been iterated over".
-                     * We should __always__ be able to find the target frame here.
-                     *  - We should find the target frame after only a few (1 or 2) iterations
-                     *  - If we don't find it in the first few, we'll iterate through the whole stack, and once we do `threadRef.frame(X)`
-                     *    where X is larger than the number of frames on the stack, we'll get an exception.
-                     */
-                    for (int i = minDistanceToLuceedebugBaseFrame; i < Integer.MAX_VALUE; i++) {
-                        if (IDebugManager.isStepNotificationEntryFunc(threadRef.frame(i).location().method().name())) {
-                            var stepInvokingCfFrame = threadRef.frame(i+1);
-                            var location = stepInvokingCfFrame
-                                .location()
-                                .method()
-                                .locationOfCodeIndex(
-                                    // frame is executing an invokeInterface instruction;
-                                    // set the next breakpoint exactly after this instruction.
-                                    stepInvokingCfFrame
-                                        .location()
-                                        .codeIndex() + SIZEOF_INSTR_INVOKE_INTERFACE
-                                );
-                            
-                            final var bp = vm_.eventRequestManager().createBreakpointRequest(location);
-                            bp.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
-                            bp.addThreadFilter(threadRef);
-                            bp.addCountFilter(1);
-                            bp.setEnabled(true);
-                            
+            suspendAtNextCfLine(thread, minDistanceToLuceedebugBaseFrame, null, null);
+        });
+
+        GlobalIDebugManagerHolder.debugManager.registerCfBreakpointHandler((thread, minDistanceToLuceedebugBaseFrame, breakpointID) -> {
+            if (!suspensionBudget_.tryAdmit(JdwpThreadID.of(threadRefOf(thread)), breakpointID)) {
+                return false;
+            }
+            suspendAtNextCfLine(thread, minDistanceToLuceedebugBaseFrame, breakpointID, null);
+            return true;
+        });
+
+        GlobalIDebugManagerHolder.debugManager.registerCfExceptionHandler((thread, minDistanceToLuceedebugBaseFrame, text) -> {
+            if (!suspensionBudget_.tryAdmit(JdwpThreadID.of(threadRefOf(thread)), null)) {
+                return false;
+            }
+            suspendAtNextCfLine(thread, minDistanceToLuceedebugBaseFrame, null, text);
+            return true;
+        });
+
+        // so that threads running cf code can be listed before they stop, see `getThreadListing`
+        GlobalIDebugManagerHolder.debugManager.registerCfThreadStartedHandler(thread -> {
+            if (threadMap_.getThreadRefByThread(thread) == null) {
+                mapCurrentThread(thread, threadMappingOnFirstCfFrameTime);
+            }
+        });
+
+        GlobalIDebugManagerHolder.debugManager.registerCfLogpointHandler((breakpointID, message) -> {
+            final var cb = logpointCallback;
+            if (cb != null) {
+                cb.accept(breakpointID, message);
+            }
+        });
+    }
+
+    /**
+     * Called on a thread that is in a step hook, and that should stop on the line the hook is for; either because it completed
+     * a step (both nullable args null), because it hit the breakpoint with the given ID, or because it's propagating an exception
+     * that matched the exception filters (in which case it's in the exception hook, and stops in the frame the exception is leaving).
+     * We don't suspend the thread right here, because then the line its topmost cf frame reports would be that of the instruction
+     * that called the hook, which is the prior line. Instead, we set a one-off jdwp breakpoint just after the hook's call site,
+     * and the thread is reported as stopped once it reaches it.
+     */
+    private void suspendAtNextCfLine(Thread thread, int minDistanceToLuceedebugBaseFrame, DapBreakpointID maybeNull_breakpointID, String maybeNull_exceptionText) {
+        final long start = System.nanoTime();
+        final var threadRef = threadRefOf(thread);
+        final var done = new AtomicBoolean(false);
+        
+        //
+        // Have to do this on a seperate thread in order to suspend the supplied thread,
+        // which by current design will always be the current thread.
+        //
+        // Weird, we take a `thread` argument, but we always have the caller passing in its current thread.
+        // And the caller's current thread is the same as our current thread.
+        //
+        // Maybe it is good that we support either / or
+        // (i.e. the passed in thread may or may not be the current thread, we should 'just work' in either case)
+        //
+        // Each thread has at most one of these in flight (it waits for it, below), and they don't share any state,
+        // so several threads can complete steps (or hit breakpoints) at once.
+        //
+        CompletableFuture.runAsync(() -> {
+            try {
+                threadRef.suspend();
+                
+                /**
+                 * Start the search for the "step notification entry frame" from `minDistanceToLuceedebugBaseFrame`,
+                 * which is the count of "frames we've definitely passed through to get to that point on the thread".
+                 * We can't know exactly how many frames because of at least the non-determinism of whether the target
+                 * thread has parked (below) prior to being suspended.
+                 * 
+                 * The stack on the target thread looks something like this:
+                 * 
+                 * 1) LockSupport.park() and etc. // might be on stack, might not be yet; either way, the target thread is suspended
+                 * 2) LuceeVm.suspendAtNextCfLine
+                 * 3) <...various DebugManager frames...>
+                 * 4) DebugManager step handler frame
+                 * 5) <...method handle frames...>
+                 * 6) topmost lucee frame on an InvokeDynamic instruction, getting us into DebugManager step handler
+                 * 7) <...various Lucee frames...>
+                 * 
+                 * We want to scan until we find (4). Once we've found (4), the first frame below it that isn't a method handle frame
+                 * is the topmost lucee frame that we want to return to. We can't "just" scan for the topmost lucee frame because
+                 * we don't know its name or really anything about it. Our contract with ourselves is that the method call from (6)
+                 * into (4) is an InvokeDynamic instruction, and with that we can know which bytecode index to set our next breakpoint at.
+                 *
+                 * The frames are fetched in one go; walking them one `threadRef.frame(i)` at a time is a jdwp round trip per frame.
+                 * We should __always__ be able to find the target frame here.
+                 */
+                final List<StackFrame> frames = threadRef.frames();
+                for (int i = minDistanceToLuceedebugBaseFrame; i < frames.size(); i++) {
+                    if (IDebugManager.isStepNotificationEntryFunc(frames.get(i).location().method().name())) {
+                        // The hook is reached through an invokedynamic call site, so there are some method handle
+                        // frames (LambdaForms and etc.) between the step notification entry frame and the cf frame.
+                        int cfFrameIndex = i + 1;
+                        while (frames.get(cfFrameIndex).location().declaringType().name().startsWith("java.lang.invoke.")) {
+                            cfFrameIndex++;
+                        }
+                        var stepInvokingCfFrame = frames.get(cfFrameIndex);
+                        var location = stepInvokingCfFrame
+                            .location()
+                            .method()
+                            .locationOfCodeIndex(
+                                // frame is executing an invokedynamic instruction;
+                                // set the next breakpoint exactly after this instruction.
+                                stepInvokingCfFrame
+                                    .location()
+                                    .codeIndex() + SIZEOF_INSTR_INVOKE_DYNAMIC
+                            );
+                        
+                        stepFinalizationBreakpoints_.arm(location, threadRef);
+                        
+                        final var threadID = JdwpThreadID.of(threadRef);
+                        suspensionStartNanosByThread.put(threadID, start);
+                        if (maybeNull_exceptionText != null) {
+                            exceptionHitsAwaitingSuspension.put(threadID, maybeNull_exceptionText);
+                        }
+                        else if (maybeNull_breakpointID == null) {
                             steppingStatesByThread.put(
-                                JdwpThreadID.of(threadRef),
+                                threadID,
                                 SteppingState.finalizingViaAwaitedBreakpoint
                             ); // races with step handlers ?
-    
-                            done.set(true);
-                            continue_(threadRef);
-                            return;
                         }
                         else {
-                            continue;
+                            breakpointHitsAwaitingSuspension.put(threadID, maybeNull_breakpointID);
                         }
-                    }
 
-                    // We'll either have found the target frame and did the work and returned,
-                    // or asked for one frame past the last frame which will have thrown an exception.
-                    throw new RuntimeException("unreachable");
-                }
-                catch (Throwable e) {
-                    e.printStackTrace();
-                    System.exit(1);
+                        done.set(true);
+                        // The thread may or may not have parked yet; either way, this makes sure it doesn't stay parked once resumed.
+                        LockSupport.unpark(thread);
+                        continue_(threadRef);
+                        return;
+                    }
                 }
-            }, stepHandlerExecutor);
 
-            // We might spin a little here, but the majority of the wait
-            // will be conducted while this thread is suspended.
-            // We'll have set done=true prior to resuming this thread.
-            while (!done.get()); // about ~8ms to queueWork + wait for work to complete
-        });
+                throw new RuntimeException("couldn't find the step notification entry frame");
+            }
+            catch (Throwable e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }, stepCoordinatorExecutor);
+
+        // Almost all of the wait is conducted while this thread is suspended.
+        // We'll have set done=true and unparked this thread prior to resuming it.
+        while (!done.get()) {
+            LockSupport.park(this);
+        }
+
+        handshakeTime.stop(start);
     }
 
     /**
@@ -471,9 +732,24 @@ public class LuceeVm implements ILuceeVm {
      */
     private static enum SteppingState { stepping, finalizingViaAwaitedBreakpoint }
     private ConcurrentMap<JdwpThreadID, SteppingState> steppingStatesByThread = new ConcurrentHashMap<>();
+    /**
+     * Threads that hit an in-process line breakpoint (see `LineBreakpoints`), and are on their way to the one-off jdwp breakpoint
+     * that suspends them (see `suspendAtNextCfLine`).
+     */
+    private ConcurrentMap<JdwpThreadID, DapBreakpointID> breakpointHitsAwaitingSuspension = new ConcurrentHashMap<>();
+    /**
+     * Like `breakpointHitsAwaitingSuspension`, for threads stopping on an exception; the value is the exception's description.
+     */
+    private ConcurrentMap<JdwpThreadID, String> exceptionHitsAwaitingSuspension = new ConcurrentHashMap<>();
+    private ConcurrentMap<JdwpThreadID, Long> suspensionStartNanosByThread = new ConcurrentHashMap<>();
     private Consumer<JdwpThreadID> stepEventCallback = null;
     private BiConsumer<JdwpThreadID, DapBreakpointID> breakpointEventCallback = null;
     private Consumer<BreakpointsChangedEvent> breakpointsChangedCallback = null;
+    /**
+     * volatile, because it's read on every thread that hits a logpoint
+     */
+    private volatile BiConsumer<DapBreakpointID, String> logpointCallback = null;
+    private BiConsumer<JdwpThreadID, String> exceptionEventCallback = null;
 
     public void registerStepEventCallback(Consumer<JdwpThreadID> cb) {
         stepEventCallback = cb;
@@ -487,19 +763,22 @@ public class LuceeVm implements ILuceeVm {
         this.breakpointsChangedCallback = cb;
     }
 
+    public void registerLogpointCallback(BiConsumer<DapBreakpointID, String> cb) {
+        this.logpointCallback = cb;
+    }
+
+    public void registerExceptionEventCallback(BiConsumer<JdwpThreadID, String> cb) {
+        this.exceptionEventCallback = cb;
+    }
+
     private void initEventPump() {
         new java.lang.Thread(() -> {
             try {
                 while (true) {
                     var eventSet = vm_.eventQueue().remove();
                     for (var event : eventSet) {
-                        if (event instanceof ThreadStartEvent) {
-                            handleThreadStartEvent((ThreadStartEvent) event);
-                        }
-                        else if (event instanceof ThreadDeathEvent) {
-                            handleThreadDeathEvent((ThreadDeathEvent) event);
-                        }
-                        else if (event instanceof ClassPrepareEvent) {
+                        final long start = System.nanoTime();
+                        if (event instanceof ClassPrepareEvent) {
                             handleClassPrepareEvent((ClassPrepareEvent) event);
                         }
                         else if (event instanceof BreakpointEvent) {
@@ -509,6 +788,7 @@ public class LuceeVm implements ILuceeVm {
                             System.out.println("Unexpected jdwp event " + event);
                             System.exit(1);
                         }
+                        eventHandlingTime.stop(start);
                     }
                 }
             }
@@ -524,10 +804,65 @@ public class LuceeVm implements ILuceeVm {
         }).start();
     }
 
-    private void initCurrentThreadListing() {
-        for (var threadRef : vm_.allThreads()) {
-            trackThreadReference(threadRef);
+    /**
+     * Threads are mapped to their ThreadReferences when they're first needed, i.e. when a thread pushes its first cf frame,
+     * or first suspends, or hits a jdwp breakpoint, rather than for every thread the jvm starts.
+     *
+     * On the current thread (which is where breakpoints and steps are hit): `thread`'s ThreadReference, mapping it first if need be.
+     */
+    private ThreadReference threadRefOf(Thread thread) {
+        final var maybeNull_threadRef = threadMap_.getThreadRefByThread(thread);
+        if (maybeNull_threadRef != null) {
+            return maybeNull_threadRef;
+        }
+
+        if (thread != Thread.currentThread()) {
+            return threadMap_.getThreadRefByThreadOrFail(thread);
         }
+
+        mapCurrentThread(thread, threadMappingOnSuspensionTime);
+
+        return threadMap_.getThreadRefByThreadOrFail(thread);
+    }
+
+    /**
+     * `thread` is the current thread.
+     */
+    private void mapCurrentThread(Thread thread, Metrics.Histogram histogram) {
+        final long start = System.nanoTime();
+        final long token = JdwpWorker.registrationToken_.incrementAndGet();
+        JdwpWorker.threadsAwaitingRegistration_.put(token, thread);
+        // suspends this thread until the event pump has mapped it, see `handleThreadRegistrationEvent`
+        JdwpWorker.jdwp_registerThread(token);
+        histogram.stop(start);
+    }
+
+    private void handleThreadRegistrationEvent(BreakpointEvent event) {
+        final var threadRef = event.thread();
+        try {
+            final long token = ((LongValue) threadRef.frame(0).getArgumentValues().get(0)).value();
+            final Thread thread = JdwpWorker.threadsAwaitingRegistration_.remove(token);
+            threadMap_.register(thread, threadRef);
+            threadsMapped.increment();
+        }
+        catch (Throwable e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        threadRef.resume();
+    }
+
+    /**
+     * A thread that hit a jdwp breakpoint (so, it's suspended) without having been mapped yet.
+     * This must be jdwp event handler safe (i.e. not deadlock the event handler)
+     */
+    private void ensureTracked(ThreadReference threadRef) {
+        if (threadMap_.getThreadByJdwpId(JdwpThreadID.of(threadRef)) != null) {
+            return;
+        }
+        final long start = System.nanoTime();
+        trackThreadReference(threadRef);
+        threadMappingOnJdwpEventTime.stop(start);
     }
 
     /**
@@ -546,6 +881,7 @@ public class LuceeVm implements ILuceeVm {
             final long key = v.value();
             final Thread thread = JdwpWorker.jdwp_getThreadResult(key);
             threadMap_.register(thread, threadRef);
+            threadsMapped.increment();
         }
         catch (ObjectCollectedException e) {
             if (JDWP_WORKER_THREADREF.isCollected()) {
@@ -566,14 +902,7 @@ public class LuceeVm implements ILuceeVm {
     /**
      * this must be jdwp event handler safe (i.e. not deadlock the event handler)
      */
-    private void untrackThreadReference(ThreadReference threadRef) {
-        threadMap_.unregister(threadRef);
-    }
-
-    /**
-     * this must be jdwp event handler safe (i.e. not deadlock the event handler)
-     */
-    private void trackClassRef(ReferenceType refType) {
+    synchronized private void trackClassRef(ReferenceType refType) {
         try {
             final var maybeNull_klassMap = KlassMap.maybeNull_tryBuildKlassMap(config_, refType);
             
@@ -605,9 +934,12 @@ public class LuceeVm implements ILuceeVm {
 
             Set<ReplayableCfBreakpointRequest> replayableBreakpointRequests = replayableBreakpointRequestsByAbsPath_.get(klassMap.sourceName);
 
-            klassMap_
-                .computeIfAbsent(klassMap.sourceName, _z -> new HashSet<>())
-                .add(klassMap);
+            final var klassMaps = klassMap_.computeIfAbsent(klassMap.sourceName, _z -> new HashSet<>());
+            if (klassMaps.stream().anyMatch(existing -> existing.refType.equals(refType))) {
+                // seen by both the catch-up scan and a class prepare event, see `trackAlreadyLoadedPages`
+                return;
+            }
+            klassMaps.add(klassMap);
 
             if (replayableBreakpointRequests != null) {
                 rebindBreakpoints(klassMap.sourceName, replayableBreakpointRequests);
@@ -619,14 +951,6 @@ public class LuceeVm implements ILuceeVm {
         }
     }
 
-    private void handleThreadStartEvent(ThreadStartEvent event) {
-        trackThreadReference(event.thread());
-    }
-
-    private void handleThreadDeathEvent(ThreadDeathEvent event) {
-        untrackThreadReference(event.thread());
-    }
-
     private void handleClassPrepareEvent(ClassPrepareEvent event) {
         if (event.referenceType().name().equals("lucee.runtime.Page")) {
             // This can happen exactly once
@@ -648,6 +972,11 @@ public class LuceeVm implements ILuceeVm {
     }
 
     private void handleBreakpointEvent(BreakpointEvent event) {
+        if (event.request().getProperty(IS_THREAD_REGISTRATION_BREAKPOINT) != null) {
+            handleThreadRegistrationEvent(event);
+            return;
+        }
+
         // worker initialization, should only happen once per jvm instance
         if (event.location().declaringType().classObject().uniqueID() == JDWP_WORKER_CLASS_ID) {
             JDWP_WORKER_THREADREF = event.thread();
@@ -655,26 +984,45 @@ public class LuceeVm implements ILuceeVm {
             return;
         }
 
+        ensureTracked(event.thread());
+
         final var threadID = JdwpThreadID.of(event.thread());
 
         suspendedThreads.add(threadID);
 
-        if (steppingStatesByThread.remove(threadID, SteppingState.finalizingViaAwaitedBreakpoint)) {
+        StepFinalizationBreakpoints.disarmIfStepFinalizationBreakpoint(event.request());
+
+        final DapBreakpointID maybeNull_hitBreakpointID = breakpointHitsAwaitingSuspension.remove(threadID);
+        final String maybeNull_exceptionText = exceptionHitsAwaitingSuspension.remove(threadID);
+        if (maybeNull_exceptionText != null) {
+            // The thread is propagating an exception that matched the exception filters, and has stopped in the wrapper
+            // of the frame the exception is leaving. If it was stepping, the step is cancelled.
+            steppingStatesByThread.remove(threadID);
+            recordSuspensionTime(threadID, exceptionHitTime);
+            if (exceptionEventCallback != null) {
+                exceptionEventCallback.accept(threadID, maybeNull_exceptionText);
+            }
+        }
+        else if (maybeNull_hitBreakpointID != null) {
+            // The thread hit a breakpoint in its step hook (which has already evaluated the breakpoint's condition, if any);
+            // now it has hit the breakpoint that suspends it. If it was stepping, the step is cancelled.
+            steppingStatesByThread.remove(threadID);
+            recordSuspensionTime(threadID, breakpointHitTime);
+            if (breakpointEventCallback != null) {
+                breakpointEventCallback.accept(threadID, maybeNull_hitBreakpointID);
+            }
+        }
+        else if (steppingStatesByThread.remove(threadID, SteppingState.finalizingViaAwaitedBreakpoint)) {
             // We're stepping, and we completed a step; now, we hit the breakpoint
             // that the step-completition handler installed. Stepping is complete.
+            recordSuspensionTime(threadID, stepCompletionTime);
             if (stepEventCallback != null) {
-                // We would delete the breakpoint request here,
-                // but it should have been registered with an eventcount filter of 1,
-                // meaning that it has auto-expired
                 stepEventCallback.accept(JdwpThreadID.of(event.thread()));
             }
         }
         else {
-            // if we are stepping, but we hit a breakpoint, cancel the stepping
-            if (steppingStatesByThread.remove(threadID, SteppingState.stepping)) {
-                GlobalIDebugManagerHolder.debugManager.clearStepRequest(threadMap_.getThreadByJdwpIdOrFail(threadID));
-            }
-
+            // A thread that's stepping keeps its step through every check below that resumes it (an unmet condition or hit condition,
+            // a logpoint, or a hit over budget), the same as in the step hook, see `DebugManager.maybeHitBreakpoint`.
             final EventRequest request = event.request();
             final Object maybe_expr = request.getProperty(LUCEEDEBUG_BREAKPOINT_EXPR);
             if (maybe_expr instanceof String) {
@@ -683,6 +1031,7 @@ public class LuceeVm implements ILuceeVm {
                 final var jdwp_threadID = JdwpThreadID.of(event.thread());
                 if (!GlobalIDebugManagerHolder.debugManager.evaluateAsBooleanForConditionalBreakpoint(
                     threadMap_.getThreadByJdwpIdOrFail(jdwp_threadID),
+                    (DapBreakpointID) request.getProperty(LUCEEDEBUG_BREAKPOINT_ID),
                     (String)maybe_expr)
                 ) {
                     continue_(jdwp_threadID);
@@ -690,27 +1039,124 @@ public class LuceeVm implements ILuceeVm {
                 }
             }
 
+            final Object maybe_hitCondition = request.getProperty(LUCEEDEBUG_BREAKPOINT_HIT_CONDITION);
+            if (maybe_hitCondition instanceof HitCondition && !((HitCondition)maybe_hitCondition).countHitAndTest()) {
+                continue_(JdwpThreadID.of(event.thread()));
+                return;
+            }
+
+            final Object maybe_logMessage = request.getProperty(LUCEEDEBUG_BREAKPOINT_LOG_MESSAGE);
+            if (maybe_logMessage instanceof String) {
+                // a logpoint in a class whose step hooks can't check it; the thread is briefly suspended while the message is formatted
+                GlobalIDebugManagerHolder.debugManager.logForSuspendedThread(
+                    threadMap_.getThreadByJdwpIdOrFail(threadID),
+                    (DapBreakpointID) request.getProperty(LUCEEDEBUG_BREAKPOINT_ID),
+                    (String)maybe_logMessage,
+                    event.location().lineNumber()
+                );
+                continue_(threadID);
+                return;
+            }
+
+            final var bpID = (DapBreakpointID) request.getProperty(LUCEEDEBUG_BREAKPOINT_ID);
+            if (!suspensionBudget_.tryAdmit(threadID, bpID)) {
+                continue_(threadID);
+                return;
+            }
+
+            // if we are stepping, but we stop on a breakpoint, cancel the stepping
+            if (steppingStatesByThread.remove(threadID, SteppingState.stepping)) {
+                GlobalIDebugManagerHolder.debugManager.clearStepRequest(threadMap_.getThreadByJdwpIdOrFail(threadID));
+            }
+
             if (breakpointEventCallback != null) {
-                final var bpID = (DapBreakpointID) request.getProperty(LUCEEDEBUG_BREAKPOINT_ID);
                 breakpointEventCallback.accept(threadID, bpID);
             }
         }
     }
 
-    public ThreadReference[] getThreadListing() {
-        var result = new ArrayList<ThreadReference>();
-        for (var threadRef : threadMap_.threadRefByThread.values()) {
-            result.add(threadRef);
+    private final SuspensionBudget suspensionBudget_;
+    private final FunctionBreakpointBinder functionBreakpointBinder_;
+
+    private void reportSuspensionBudgetStateChange(DapBreakpointID breakpointID, String maybeNull_reason) {
+        BreakpointReporting.suspensionBudgetStateChanged(breakpointsChangedCallback, breakpointID, maybeNull_reason, () -> {
+            for (var bps : replayableBreakpointRequestsByAbsPath_.values()) {
+                for (var bp : bps) {
+                    if (bp.id.equals(breakpointID)) {
+                        return bp.line;
+                    }
+                }
+            }
+            return 0;
+        });
+    }
+
+    private void recordSuspensionTime(JdwpThreadID threadID, Metrics.Histogram histogram) {
+        final Long maybeNull_start = suspensionStartNanosByThread.remove(threadID);
+        if (maybeNull_start != null) {
+            histogram.stop(maybeNull_start);
         }
+    }
 
-        return result.toArray(size -> new ThreadReference[size]);
+    /**
+     * Threads map themselves to a ThreadReference (and so get a jdwp id to list them by) as they push their first cf frame, see `mapCurrentThread`.
+     * The exception is a thread that was already running a request when the debugger first attached; it's listed from its next request on,
+     * or as soon as it stops.
+     */
+    public String[][] getThreadListing(boolean suspendedOnly) {
+        var result = new ArrayList<String[]>();
+        for (var entry : GlobalIDebugManagerHolder.debugManager.getCfThreadNames().entrySet()) {
+            final var maybeNull_threadRef = threadMap_.getThreadRefByThread(entry.getKey());
+            if (maybeNull_threadRef == null) {
+                continue;
+            }
+            // the id is cached by the ThreadReference, so this isn't a jdwp round trip
+            final var threadID = JdwpThreadID.of(maybeNull_threadRef);
+            if (suspendedOnly && !suspendedThreads.contains(threadID)) {
+                continue;
+            }
+            result.add(new String[]{Long.toString(threadID.get()), entry.getValue()});
+        }
+
+        return result.toArray(size -> new String[size][]);
     }
 
     public IDebugFrame[] getStackTrace(long jdwpThreadId) {
         var thread = threadMap_.getThreadByJdwpIdOrFail(new JdwpThreadID(jdwpThreadId));
+        try {
+            GlobalIDebugManagerHolder.debugManager.setCfFrameLines(
+                thread,
+                cfFrameLinesTopmostFirst(threadMap_.getThreadRefByThreadOrFail(thread))
+            );
+        }
+        catch (IncompatibleThreadStateException e) {
+            // not suspended (anymore); frames keep the lines they had when it last was
+        }
         return GlobalIDebugManagerHolder.debugManager.getCfStack(thread);
     }
 
+    /**
+     * Each cf frame is exactly one invocation of an instrumented page's delegate method (see `InstrumentedMethodNames`),
+     * so the lines of a suspended thread's cf frames are the current lines of its delegate method frames.
+     * A delegate that is in a call to an outlined step hook is positioned just before that line's line number entry,
+     * so in that case the line comes from the hook's name.
+     */
+    private static int[] cfFrameLinesTopmostFirst(ThreadReference threadRef) throws IncompatibleThreadStateException {
+        final var result = new ArrayList<Integer>();
+        String maybeNull_calleeName = null;
+        for (var frame : threadRef.frames()) {
+            final var name = frame.location().method().name();
+            if (InstrumentedMethodNames.isDelegate(name)) {
+                final int outlinedStepHookLine = maybeNull_calleeName == null
+                    ? -1
+                    : InstrumentedMethodNames.outlinedStepHookLineOrNegativeOne(maybeNull_calleeName);
+                result.add(outlinedStepHookLine != -1 ? outlinedStepHookLine : frame.location().lineNumber());
+            }
+            maybeNull_calleeName = name;
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
     public IDebugEntity[] getScopes(long frameID) {
         return GlobalIDebugManagerHolder.debugManager.getScopesForFrame(frameID);
     }
@@ -746,19 +1192,23 @@ public class LuceeVm implements ILuceeVm {
         final int line;
         final DapBreakpointID id;
         final String expr;
+        final String hitCondition;
+        final String logMessage;
 
-        public BpLineAndId(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String expr) {
+        public BpLineAndId(RawIdePath ideAbsPath, CanonicalServerAbsPath serverAbsPath, int line, DapBreakpointID id, String expr, String hitCondition, String logMessage) {
             this.ideAbsPath = ideAbsPath;
             this.serverAbsPath = serverAbsPath;
             this.line = line;
             this.id = id;
             this.expr = expr;
+            this.hitCondition = hitCondition;
+            this.logMessage = logMessage;
         }
     }
 
-    private BpLineAndId[] freshBpLineAndIdRecordsFromLines(RawIdePath idePath, CanonicalServerAbsPath serverPath, int[] lines, String[] exprs) {
-        if (lines.length != exprs.length) { // really this should be some kind of aggregate
-            throw new AssertionError("lines.length != exprs.length");
+    private BpLineAndId[] freshBpLineAndIdRecordsFromLines(RawIdePath idePath, CanonicalServerAbsPath serverPath, int[] lines, String[] exprs, String[] hitConditions, String[] logMessages) {
+        if (lines.length != exprs.length || lines.length != hitConditions.length || lines.length != logMessages.length) { // really this should be some kind of aggregate
+            throw new AssertionError("lines.length != exprs.length || lines.length != hitConditions.length || lines.length != logMessages.length");
         }
 
         var result = new BpLineAndId[lines.length];
@@ -780,13 +1230,43 @@ public class LuceeVm implements ILuceeVm {
                 return nextDapBreakpointID();
             });
 
-            result[i] = new BpLineAndId(idePath, serverPath, line, id, exprs[i]);
+            result[i] = new BpLineAndId(idePath, serverPath, line, id, exprs[i], hitConditions[i], logMessages[i]);
         }
         return result;
     }
 
-    public IBreakpoint[] bindBreakpoints(RawIdePath idePath, CanonicalServerAbsPath serverPath, int[] lines, String[] exprs) {
-        return __internal__bindBreakpoints(serverPath, freshBpLineAndIdRecordsFromLines(idePath, serverPath, lines, exprs));
+    public IBreakpoint[] bindBreakpoints(RawIdePath idePath, CanonicalServerAbsPath serverPath, int[] lines, String[] exprs, String[] hitConditions, String[] logMessages) {
+        DebugHookCallSites.noteBreakpointsInFile(serverPath.get(), lines.length > 0);
+        final var lineInfo = freshBpLineAndIdRecordsFromLines(idePath, serverPath, lines, exprs, hitConditions, logMessages);
+        for (var bp : lineInfo) {
+            // set again by the debugger, so it's no longer tripped or disabled
+            suspensionBudget_.forget(bp.id);
+        }
+        forgetRemovedBreakpoints(replayableBreakpointRequestsByAbsPath_.get(serverPath), lineInfo);
+        return __internal__bindBreakpoints(serverPath, lineInfo);
+    }
+
+    /**
+     * Drops the per-breakpoint state kept elsewhere for breakpoints of the file that weren't set again, or that are no longer conditional (or logpoints).
+     */
+    private void forgetRemovedBreakpoints(Set<ReplayableCfBreakpointRequest> maybeNull_previous, BpLineAndId[] current) {
+        if (maybeNull_previous != null) {
+            for (var previous : maybeNull_previous) {
+                if (!Arrays.stream(current).anyMatch(bp -> bp.id.equals(previous.id))) {
+                    GlobalIDebugManagerHolder.debugManager.forgetBreakpointCondition(previous.id);
+                    GlobalIDebugManagerHolder.debugManager.forgetLogpoint(previous.id);
+                    hitConditions_.forget(previous.id);
+                }
+            }
+        }
+        for (var bp : current) {
+            if (bp.expr == null || bp.expr.isBlank()) {
+                GlobalIDebugManagerHolder.debugManager.forgetBreakpointCondition(bp.id);
+            }
+            if (bp.logMessage == null || bp.logMessage.isEmpty()) {
+                GlobalIDebugManagerHolder.debugManager.forgetLogpoint(bp.id);
+            }
+        }
     }
 
     /**
@@ -794,6 +1274,17 @@ public class LuceeVm implements ILuceeVm {
      * i.e. the IDE might say "/foo/bar/baz.cfc" but we are only aware of "/app-host-container/foo/bar/baz.cfc" or etc. 
      */
     private IBreakpoint[] __internal__bindBreakpoints(CanonicalServerAbsPath serverAbsPath, BpLineAndId[] lineInfo) {
+        final String maybeNull_exclusionReason = config_.getSourcePathFilter().maybeNull_exclusionReason(serverAbsPath.get());
+        if (maybeNull_exclusionReason != null) {
+            // The file won't ever be instrumented, so there's no use in tracking these as replayable.
+            clearExistingBreakpoints(serverAbsPath);
+            IBreakpoint[] result = new Breakpoint[lineInfo.length];
+            for (int i = 0; i < lineInfo.length; i++) {
+                result[i] = Breakpoint.Unbound(lineInfo[i].line, lineInfo[i].id, maybeNull_exclusionReason);
+            }
+            return result;
+        }
+
         final Set<KlassMap> klassMapSet = klassMap_.get(serverAbsPath);
 
         if (klassMapSet == null) {
@@ -806,9 +1297,11 @@ public class LuceeVm implements ILuceeVm {
                 final var line = lineInfo[i].line;
                 final var id = lineInfo[i].id;
                 final var expr = lineInfo[i].expr;
+                final var hitCondition = lineInfo[i].hitCondition;
+                final var logMessage = lineInfo[i].logMessage;
 
                 result[i] = Breakpoint.Unbound(line, id);
-                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, shadow_serverAbsPath, line, id, expr));
+                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, shadow_serverAbsPath, line, id, expr, hitCondition, logMessage));
             }
 
             return result;
@@ -818,8 +1311,15 @@ public class LuceeVm implements ILuceeVm {
 
         clearExistingBreakpoints(serverAbsPath);
 
+        // If any class for this file can't check breakpoints in its step hooks, use jdwp breakpoints for all of them,
+        // so that no line stops twice.
+        final boolean checkBreakpointsInStepHooks = klassMapSet.stream().allMatch(klassMap -> klassMap.stepHooksCoverEveryLine);
+
         List<KlassMap> garbageCollectedKlassMaps = new ArrayList<>();
 
+        // A file can be compiled to more than one class, each knowing only its own lines; the file's table gets the breakpoints bound in any of them.
+        final var lineBreakpointsByLine = new LinkedHashMap<Integer, LineBreakpoints.Breakpoint>();
+
         for (KlassMap mapping : klassMapSet) {
             if (mapping.isCollected()) {
                 // This still leaves us with a little race where it gets collected after this,
@@ -829,7 +1329,14 @@ public class LuceeVm implements ILuceeVm {
             }
 
             try {
-                bpListPerMapping = __internal__idempotentBindBreakpoints(mapping, lineInfo);
+                final IBreakpoint[] bpList = __internal__idempotentBindBreakpoints(mapping, lineInfo, checkBreakpointsInStepHooks, lineBreakpointsByLine);
+                // one entry per lineInfo entry, in order; a breakpoint is bound if any class of the file bound it
+                for (int i = 0; i < bpList.length && i < bpListPerMapping.length; i++) {
+                    if (bpListPerMapping[i].getIsBound() && !bpList[i].getIsBound()) {
+                        bpList[i] = bpListPerMapping[i];
+                    }
+                }
+                bpListPerMapping = bpList;
             }
             catch (ObjectCollectedException e) {
                 garbageCollectedKlassMaps.add(mapping);
@@ -845,16 +1352,24 @@ public class LuceeVm implements ILuceeVm {
             klassMapSet.remove(klassMap);
         });
 
-        // return just the last one
+        if (checkBreakpointsInStepHooks) {
+            LineBreakpoints.set(serverAbsPath.get(), lineBreakpointsByLine.values().toArray(new LineBreakpoints.Breakpoint[0]));
+        }
+
         return bpListPerMapping;
     }
 
     
 
+    private final HitConditions hitConditions_ = new HitConditions();
+
     /**
      * Seems we're not allowed to inspect the jdwp-native id, but we can attach our own
+     *
+     * @param checkBreakpointsInStepHooks if true, bound breakpoints are collected into `lineBreakpointsByLine` rather than
+     * issued as jdwp breakpoint requests; the caller publishes them to the file's `LineBreakpoints` once every class of the file has been bound
      */
-    private IBreakpoint[] __internal__idempotentBindBreakpoints(KlassMap klassMap, BpLineAndId[] lineInfo) {
+    private IBreakpoint[] __internal__idempotentBindBreakpoints(KlassMap klassMap, BpLineAndId[] lineInfo, boolean checkBreakpointsInStepHooks, Map<Integer, LineBreakpoints.Breakpoint> lineBreakpointsByLine) {
         final var replayable = replayableBreakpointRequestsByAbsPath_.computeIfAbsent(klassMap.sourceName, _z -> new HashSet<>());
         final var result = new ArrayList<IBreakpoint>();
 
@@ -865,11 +1380,23 @@ public class LuceeVm implements ILuceeVm {
             final var id = lineInfo[i].id;
             final var maybeNull_location = klassMap.lineMap.get(line);
             final var expr = lineInfo[i].expr;
+            final var hitConditionText = lineInfo[i].hitCondition;
+            final Either<String, HitCondition> maybeNull_hitCondition = hitConditions_.forBreakpoint(id, hitConditionText);
+            final var logMessage = lineInfo[i].logMessage == null || lineInfo[i].logMessage.isEmpty() ? null : lineInfo[i].logMessage;
 
             if (maybeNull_location == null) {
-                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, serverAbsPath, line, id, expr));
+                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, serverAbsPath, line, id, expr, hitConditionText, logMessage));
                 result.add(Breakpoint.Unbound(line, id));
             }
+            else if (maybeNull_hitCondition != null && maybeNull_hitCondition.isLeft()) {
+                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, serverAbsPath, line, id, expr, hitConditionText, logMessage));
+                result.add(Breakpoint.Unbound(line, id, maybeNull_hitCondition.getLeft()));
+            }
+            else if (checkBreakpointsInStepHooks) {
+                lineBreakpointsByLine.put(line, new LineBreakpoints.Breakpoint(line, id, expr, maybeNull_hitCondition == null ? null : maybeNull_hitCondition.getRight(), logMessage));
+                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, serverAbsPath, line, id, expr, hitConditionText, logMessage, null));
+                result.add(Breakpoint.Bound(line, id));
+            }
             else {
                 final var bpRequest = vm_.eventRequestManager().createBreakpointRequest(maybeNull_location);
                 bpRequest.setSuspendPolicy(EventRequest.SUSPEND_EVENT_THREAD);
@@ -879,8 +1406,16 @@ public class LuceeVm implements ILuceeVm {
                     bpRequest.putProperty(LUCEEDEBUG_BREAKPOINT_EXPR, expr);
                 }
 
+                if (maybeNull_hitCondition != null) {
+                    bpRequest.putProperty(LUCEEDEBUG_BREAKPOINT_HIT_CONDITION, maybeNull_hitCondition.getRight());
+                }
+
+                if (logMessage != null) {
+                    bpRequest.putProperty(LUCEEDEBUG_BREAKPOINT_LOG_MESSAGE, logMessage);
+                }
+
                 bpRequest.setEnabled(true);
-                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, serverAbsPath, line, id, expr, bpRequest));
+                replayable.add(new ReplayableCfBreakpointRequest(ideAbsPath, serverAbsPath, line, id, expr, hitConditionText, logMessage, bpRequest));
                 result.add(Breakpoint.Bound(line, id));
             }
         }
@@ -898,6 +1433,7 @@ public class LuceeVm implements ILuceeVm {
 
         // "just do it" in all cases
         replayableBreakpointRequestsByAbsPath_.remove(absPath);
+        LineBreakpoints.clear(absPath.get());
 
         if (replayable == null) {
             // no existing bp requests for the class having this source path
@@ -915,15 +1451,22 @@ public class LuceeVm implements ILuceeVm {
     }
 
     public void clearAllBreakpoints() {
+        DebugHookCallSites.noteAllBreakpointsCleared();
+        for (var replayable : replayableBreakpointRequestsByAbsPath_.values()) {
+            forgetRemovedBreakpoints(replayable, new BpLineAndId[0]);
+        }
         replayableBreakpointRequestsByAbsPath_.clear();
+        LineBreakpoints.clearAll();
         vm_.eventRequestManager().deleteAllBreakpoints();
+        stepFinalizationBreakpoints_.forgetAll();
+        suspensionBudget_.releaseAll();
     }
 
     /**
-     * Non-concurrent map is OK here?
-     * reasoning: all requests come from the IDE, and there is only one connected IDE, communicating over a single socket.
+     * Added to on the jdwp event thread, removed from by DAP requests (continue, step), and by the step hooks' resume path
+     * on whatever thread runs it, so this has to be concurrent.
      */
-    private HashSet<JdwpThreadID> suspendedThreads = new HashSet<>();
+    private final Set<JdwpThreadID> suspendedThreads = ConcurrentHashMap.newKeySet();
 
     public void continue_(JdwpThreadID jdwpThreadID) {
         final var threadRef = threadMap_.getThreadRefByJdwpIdOrFail(jdwpThreadID);
@@ -935,7 +1478,11 @@ public class LuceeVm implements ILuceeVm {
         // Our tracking info is slightly out of sync with the realworld here,
         // if we remove the entry from suspended threads and then call resume.
         // But the same problem exists if we call resume, and then remove it from suspended threads ... ?
-        suspendedThreads.remove(JdwpThreadID.of(threadRef));
+        // Threads that the step hooks arranged to suspend are resumed here before they're in `suspendedThreads`,
+        // and they stay counted against the suspension budget until the debugger resumes them.
+        if (suspendedThreads.remove(JdwpThreadID.of(threadRef))) {
+            suspensionBudget_.release(JdwpThreadID.of(threadRef));
+        }
 
         /**
          * Make a copy of "current suspend count", rather than loop by testing `threadRef.suspendCount()`
@@ -1087,17 +1634,38 @@ public class LuceeVm implements ILuceeVm {
     }
 
     public String[][] getBreakpointDetail() {
-        final var result = new ArrayList<ArrayList<String>>();
-        for (var bps : replayableBreakpointRequestsByAbsPath_.entrySet()) {
-            for (var bp : bps.getValue()) {
-                final var commonSuffix = ":" + bp.line + (bp.maybeNull_jdwpBreakpointRequest == null ? " (unbound)" : " (bound)");
-                final var pair = new ArrayList<String>();
-                pair.add(bp.ideAbsPath + commonSuffix);
-                pair.add(bp.serverAbsPath + commonSuffix);
-                result.add(pair);
+        final var result = new ArrayList<String[]>();
+        for (var bps : replayableBreakpointRequestsByAbsPath_.values()) {
+            for (var bp : bps) {
+                final var binding = !bp.isBound ? " (unbound)" : bp.maybeNull_jdwpBreakpointRequest == null ? " (bound)" : " (bound, jdwp)";
+                result.add(BreakpointReporting.detail(bp.ideAbsPath, bp.serverAbsPath, bp.line, bp.id, binding, bp.logMessage, hitConditions_));
             }
         }
-        return result.stream().map(u -> u.toArray(new String[0])).toArray(String[][]::new);
+        return result.toArray(size -> new String[size][]);
+    }
+
+    public String[][] getBreakpointConditionStats() {
+        return GlobalIDebugManagerHolder.debugManager.getBreakpointConditionStats();
+    }
+
+    public String[][] getLogpointStats() {
+        return GlobalIDebugManagerHolder.debugManager.getLogpointStats();
+    }
+
+    public void setExceptionBreakpoints(String maybeNull_allTypes, String maybeNull_uncaughtTypes) {
+        GlobalIDebugManagerHolder.debugManager.setExceptionBreakpoints(maybeNull_allTypes, maybeNull_uncaughtTypes);
+    }
+
+    public String[][] getSnapshots(boolean remove) {
+        return GlobalIDebugManagerHolder.debugManager.getSnapshots(remove);
+    }
+
+    public String[] getExceptionInfo(long jdwpThreadID) {
+        return GlobalIDebugManagerHolder.debugManager.getExceptionInfo(threadMap_.getThreadByJdwpIdOrFail(new JdwpThreadID(jdwpThreadID)));
+    }
+
+    public IBreakpoint[] bindFunctionBreakpoints(String[] names, String[] exprs, String[] hitConditions) {
+        return functionBreakpointBinder_.bind(names, exprs, hitConditions);
     }
 
     public String getSourcePathForVariablesRef(int variablesRef) {
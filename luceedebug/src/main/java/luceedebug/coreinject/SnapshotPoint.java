@@ -0,0 +1,126 @@
+package luceedebug.coreinject;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lucee.runtime.PageContext;
+import luceedebug.Metrics;
+import luceedebug.coreinject.frame.Frame;
+
+/**
+ * A snapshot breakpoint: a logpoint whose message starts with `#snapshot` (that prefix is all that sets it apart from an ordinary logpoint),
+ * optionally followed by `{expr}`s.
+ * Hitting it writes a bounded JSON copy of the frame's arguments, local and variables scopes, and the value of each `{expr}`,
+ * on the thread that hit it, which then carries on without being suspended. The debugger collects the snapshots later, see `Snapshots`.
+ *
+ * Expressions are run like logpoint interpolations (see `Logpoint`). Each snapshot breakpoint takes at most `maxSnapshots` snapshots,
+ * and each snapshot is at most about `maxChars` long. The count survives rebinding, and setting the breakpoint again with the same message;
+ * it starts over only when the breakpoint's message changes, or the breakpoint is removed (and so comes back as a new breakpoint).
+ */
+class SnapshotPoint {
+    static final String prefix = "#snapshot";
+    static final int maxSnapshots = 10;
+    static final int maxChars = 64 * 1024;
+
+    private static final String resultName = "__luceedebug__snapshotResult";
+
+    private static final Metrics.Histogram captureTime = Metrics.histogram("snapshots.capture");
+    private static final Metrics.Counter truncated = Metrics.counter("snapshots.truncated");
+    private static final Metrics.Counter droppedOverBudget = Metrics.counter("snapshots.droppedOverBudget");
+
+    final String logMessage;
+    /**
+     * as written, these are the snapshot's keys for the expressions' values
+     */
+    private final String[] exprs;
+    /**
+     * page source text, parallel to exprs
+     */
+    private final String[] pageSourceTexts;
+
+    private final AtomicInteger taken = new AtomicInteger();
+
+    static boolean isSnapshotMessage(String logMessage) {
+        return logMessage.trim().startsWith(prefix);
+    }
+
+    SnapshotPoint(String logMessage) {
+        this.logMessage = logMessage;
+
+        final var exprs = new ArrayList<String>();
+        final String rest = logMessage.trim().substring(prefix.length());
+        int i = 0;
+        while (i < rest.length()) {
+            final int close = rest.charAt(i) == '{' ? Logpoint.matchingCloseBrace(rest, i) : -1;
+            if (close == -1) {
+                // text outside of braces doesn't mean anything
+                i++;
+                continue;
+            }
+            exprs.add(rest.substring(i + 1, close).trim());
+            i = close + 1;
+        }
+
+        this.exprs = exprs.toArray(new String[0]);
+        this.pageSourceTexts = exprs.stream().map(SnapshotPoint::pageSourceText).toArray(String[]::new);
+    }
+
+    private static String pageSourceText(String expr) {
+        return "<cfscript>request['" + resultName + "'] = (" + expr + ");</cfscript>";
+    }
+
+    /**
+     * Called on every hit (that passed the breakpoint's condition and hit condition), before `capture`.
+     * @return false if this breakpoint has taken all the snapshots it may take
+     */
+    boolean tryAcquire() {
+        if (taken.incrementAndGet() <= maxSnapshots) {
+            return true;
+        }
+        droppedOverBudget.increment();
+        return false;
+    }
+
+    /**
+     * On the thread that hit the breakpoint, in `frame`, which is its topmost frame.
+     * @return the snapshot, as JSON
+     */
+    String capture(Frame frame) {
+        final long start = System.nanoTime();
+        final Frame.FrameContext frameContext = frame.getFrameContext();
+        final var writer = new SnapshotWriter(maxChars);
+
+        writer.beginObject();
+        writer.member(true, "arguments", frameContext.arguments, 0);
+        writer.member(false, "local", frameContext.local, 0);
+        writer.member(false, "variables", frameContext.variables, 0);
+        if (exprs.length > 0 && writer.beginObjectMember(false, "expressions")) {
+            for (int i = 0; i < exprs.length; i++) {
+                if (!writer.member(i == 0, exprs[i], evaluate(frameContext.pageContext, pageSourceTexts[i]), 1)) {
+                    break;
+                }
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+
+        if (writer.isTruncated()) {
+            truncated.increment();
+        }
+        captureTime.stop(start);
+        return writer.toString();
+    }
+
+    private static Object evaluate(PageContext pageContext, String sourceText) {
+        try {
+            ExprEvaluator.render(pageContext, sourceText);
+            final var request = pageContext.requestScope();
+            final Object value = UnsafeUtils.deprecatedScopeGet(request, resultName);
+            request.remove(resultName);
+            return value;
+        }
+        catch (Throwable e) {
+            return "{error: " + e.getMessage() + "}";
+        }
+    }
+}
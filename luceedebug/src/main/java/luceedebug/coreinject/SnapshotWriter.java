@@ -0,0 +1,202 @@
+package luceedebug.coreinject;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import lucee.runtime.type.Collection;
+
+/**
+ * Writes cf values as JSON, bounded in nesting depth, in entries per collection, in string length, and in total size.
+ * Whatever doesn't fit is elided, so that snapshotting a huge or deeply nested structure costs about as much as snapshotting a small one.
+ *
+ * Once the output reaches `maxChars`, no more members or elements are written (but open objects and arrays are still closed, so the result is valid JSON),
+ * and `isTruncated` is true.
+ */
+class SnapshotWriter {
+    static final int maxDepth = 4;
+    static final int maxEntriesPerCollection = 50;
+    static final int maxStringLength = 1_000;
+
+    private final int maxChars;
+    private final StringBuilder out = new StringBuilder();
+    private boolean truncated = false;
+
+    /**
+     * collections on the path from the root to what is being written, so that a cycle is written once
+     */
+    private final IdentityHashMap<Object, Boolean> onPath = new IdentityHashMap<>();
+
+    SnapshotWriter(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    void beginObject() {
+        out.append('{');
+    }
+
+    void endObject() {
+        out.append('}');
+    }
+
+    /**
+     * @param isFirst true for the first member of an object
+     * @return false if the member was left out because the output is full
+     */
+    boolean member(boolean isFirst, String name, Object value, int depth) {
+        if (isFull()) {
+            return false;
+        }
+        if (!isFirst) {
+            out.append(',');
+        }
+        string(name);
+        out.append(':');
+        value(value, depth);
+        return true;
+    }
+
+    /**
+     * Begins a member whose value is an object, which the caller writes members into, and then ends.
+     * @return false if the member was left out because the output is full
+     */
+    boolean beginObjectMember(boolean isFirst, String name) {
+        if (isFull()) {
+            return false;
+        }
+        if (!isFirst) {
+            out.append(',');
+        }
+        string(name);
+        out.append(':');
+        beginObject();
+        return true;
+    }
+
+    void value(Object value, int depth) {
+        if (value == null) {
+            out.append("null");
+        }
+        else if (value instanceof Boolean) {
+            out.append(value);
+        }
+        else if (value instanceof Number && Double.isFinite(((Number)value).doubleValue())) {
+            out.append(lucee.runtime.op.Caster.toString(value, "null"));
+        }
+        else if (lucee.runtime.op.Decision.isSimpleValue(value)) {
+            string(lucee.runtime.op.Caster.toString(value, ""));
+        }
+        else if (value instanceof lucee.runtime.type.UDF) {
+            string("function " + ((lucee.runtime.type.UDF)value).getFunctionName() + "()");
+        }
+        else if (value instanceof lucee.runtime.type.Query) {
+            string("[query, " + ((lucee.runtime.type.Query)value).getRowCount() + " rows]");
+        }
+        else if (value instanceof lucee.runtime.type.Array) {
+            array((lucee.runtime.type.Array)value, depth);
+        }
+        else if (value instanceof Collection) {
+            struct((Collection)value, depth);
+        }
+        else {
+            string("[" + value.getClass().getName() + "]");
+        }
+    }
+
+    private void array(lucee.runtime.type.Array array, int depth) {
+        final int size = array.size();
+        if (depth >= maxDepth || onPath.containsKey(array)) {
+            string("[array, " + size + " elements]");
+            return;
+        }
+
+        onPath.put(array, true);
+        out.append('[');
+        int written = 0;
+        for (int i = 1; i <= size && written < maxEntriesPerCollection; i++) {
+            if (isFull()) {
+                break;
+            }
+            if (written > 0) {
+                out.append(',');
+            }
+            value(array.get(i, null), depth + 1);
+            written++;
+        }
+        if (written < size) {
+            if (written > 0) {
+                out.append(',');
+            }
+            string("... " + (size - written) + " more");
+        }
+        out.append(']');
+        onPath.remove(array);
+    }
+
+    private void struct(Collection collection, int depth) {
+        final int size = collection.size();
+        if (depth >= maxDepth || onPath.containsKey(collection)) {
+            string("[struct, " + size + " entries]");
+            return;
+        }
+
+        onPath.put(collection, true);
+        beginObject();
+        int written = 0;
+        final Iterator<Collection.Key> keys = collection.keyIterator();
+        while (keys.hasNext() && written < maxEntriesPerCollection) {
+            final Collection.Key key = keys.next();
+            if (!member(written == 0, key.getString(), collection.get(key, null), depth + 1)) {
+                break;
+            }
+            written++;
+        }
+        if (written < size) {
+            member(written == 0, "...", (size - written) + " more", depth + 1);
+        }
+        endObject();
+        onPath.remove(collection);
+    }
+
+    private boolean isFull() {
+        if (out.length() >= maxChars) {
+            truncated = true;
+            return true;
+        }
+        return false;
+    }
+
+    private void string(String s) {
+        final int length = Math.min(s.length(), maxStringLength);
+        out.append('"');
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int)c));
+                    }
+                    else {
+                        out.append(c);
+                    }
+            }
+        }
+        if (length < s.length()) {
+            out.append("...");
+        }
+        out.append('"');
+    }
+}
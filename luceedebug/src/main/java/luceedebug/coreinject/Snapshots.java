@@ -0,0 +1,97 @@
+package luceedebug.coreinject;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import luceedebug.Metrics;
+import luceedebug.strong.DapBreakpointID;
+
+/**
+ * Snapshots taken by snapshot breakpoints (see `SnapshotPoint`), held until the debugger collects them with the `snapshots` DAP request.
+ *
+ * `offer` is called on the thread that took the snapshot and never blocks: like `LogpointOutput`, the buffer is a lock-free queue with a fixed capacity,
+ * and a snapshot that doesn't fit is dropped and counted. Snapshots outlive the debugger's connection, so that they can be collected by a later one.
+ */
+class Snapshots {
+    static final int capacity = 200;
+
+    private static final Metrics.Counter captured = Metrics.counter("snapshots.captured");
+    private static final Metrics.Counter droppedBufferFull = Metrics.counter("snapshots.droppedBufferFull");
+
+    static class Snapshot {
+        final long id;
+        final DapBreakpointID breakpointID;
+        final String sourceFilePath;
+        final int line;
+        final String threadName;
+        final long capturedAtMillis;
+        final String json;
+
+        Snapshot(long id, DapBreakpointID breakpointID, String sourceFilePath, int line, String threadName, long capturedAtMillis, String json) {
+            this.id = id;
+            this.breakpointID = breakpointID;
+            this.sourceFilePath = sourceFilePath;
+            this.line = line;
+            this.threadName = threadName;
+            this.capturedAtMillis = capturedAtMillis;
+            this.json = json;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Snapshot> buffer = new ConcurrentLinkedQueue<>();
+    /**
+     * Reserved before a snapshot is queued, released after it's removed, so the buffer never holds more than `capacity` snapshots.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong nextID = new AtomicLong();
+
+    /**
+     * @return the snapshot's id, or -1 if it was dropped because the buffer is full
+     */
+    long offer(DapBreakpointID breakpointID, String sourceFilePath, int line, String json) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            droppedBufferFull.increment();
+            return -1;
+        }
+        final long id = nextID.incrementAndGet();
+        buffer.offer(new Snapshot(id, breakpointID, sourceFilePath, line, Thread.currentThread().getName(), System.currentTimeMillis(), json));
+        captured.increment();
+        return id;
+    }
+
+    /**
+     * @param remove if true, the returned snapshots are removed from the buffer, making room for more
+     * @return [id, breakpointID, sourceFilePath, line, threadName, capturedAtMillis, json][], oldest first
+     */
+    String[][] get(boolean remove) {
+        final var result = new ArrayList<String[]>();
+        if (remove) {
+            Snapshot snapshot;
+            while ((snapshot = buffer.poll()) != null) {
+                size.decrementAndGet();
+                result.add(toRow(snapshot));
+            }
+        }
+        else {
+            for (var snapshot : buffer) {
+                result.add(toRow(snapshot));
+            }
+        }
+        return result.toArray(new String[0][]);
+    }
+
+    private static String[] toRow(Snapshot snapshot) {
+        return new String[]{
+            Long.toString(snapshot.id),
+            Integer.toString(snapshot.breakpointID.get()),
+            snapshot.sourceFilePath,
+            Integer.toString(snapshot.line),
+            snapshot.threadName,
+            Long.toString(snapshot.capturedAtMillis),
+            snapshot.json
+        };
+    }
+}
@@ -0,0 +1,194 @@
+package luceedebug.coreinject;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+import luceedebug.Config;
+import luceedebug.Metrics;
+import luceedebug.strong.DapBreakpointID;
+import luceedebug.strong.JdwpThreadID;
+
+/**
+ * Limits on suspending threads for breakpoints (and exception filters), so that a breakpoint left on a hot line can't park every request thread
+ * of a server. A hit that is over budget isn't an error; the thread just carries on, and the rejection is counted.
+ *
+ *  - at most `Config.getMaxSuspendedThreads` threads are suspended by breakpoints or exceptions at once
+ *  - a breakpoint hit more than `Config.getMaxBreakpointHitsPerSecond` times in a second trips, and ignores hits for `trippedMillis`
+ *  - a breakpoint that has suspended `Config.getBreakpointAutoDisableAfterHits` threads is disabled, until the debugger sets it again
+ *
+ * Limits of 0 mean "no limit". Checked on the hitting thread, so everything here is lock-free. Breakpoints tripping, recovering,
+ * and being disabled are reported to `stateChanged`, at most once per transition. A tripped breakpoint's recovery is reported from a timer
+ * when its time is up, so the debugger hears about it even if the breakpoint isn't hit again.
+ */
+class SuspensionBudget {
+    static final long trippedMillis = 10_000;
+
+    private static final Metrics.Counter rejectedTooManySuspendedThreads = Metrics.counter("suspension.rejected.tooManySuspendedThreads");
+    private static final Metrics.Counter rejectedTripped = Metrics.counter("suspension.rejected.breakpointTripped");
+    private static final Metrics.Counter rejectedDisabled = Metrics.counter("suspension.rejected.breakpointDisabled");
+
+    private static class BreakpointState {
+        final AtomicLong currentSecond = new AtomicLong();
+        final AtomicInteger hitsInCurrentSecond = new AtomicInteger();
+        /**
+         * 0 if not tripped
+         */
+        final AtomicLong trippedUntilMillis = new AtomicLong();
+        final AtomicLong admittedHits = new AtomicLong();
+        final AtomicBoolean disabled = new AtomicBoolean();
+    }
+
+    private final Config config_;
+    /**
+     * (breakpoint, reason it's no longer suspending threads), or (breakpoint, null) once it suspends threads again
+     */
+    private final BiConsumer<DapBreakpointID, String> stateChanged_;
+    private final LongSupplier clockMillis_;
+    /**
+     * (delay in millis, task)
+     */
+    private final BiConsumer<Long, Runnable> runAfterMillis_;
+
+    private final Set<JdwpThreadID> admittedThreads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger admittedThreadCount = new AtomicInteger();
+    private final ConcurrentHashMap<DapBreakpointID, BreakpointState> breakpointStates = new ConcurrentHashMap<>();
+
+    SuspensionBudget(Config config, BiConsumer<DapBreakpointID, String> stateChanged) {
+        this(
+            config,
+            stateChanged,
+            System::currentTimeMillis,
+            (delayMillis, task) -> CompletableFuture.runAsync(task, CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS))
+        );
+    }
+
+    SuspensionBudget(Config config, BiConsumer<DapBreakpointID, String> stateChanged, LongSupplier clockMillis, BiConsumer<Long, Runnable> runAfterMillis) {
+        this.config_ = config;
+        this.stateChanged_ = stateChanged;
+        this.clockMillis_ = clockMillis;
+        this.runAfterMillis_ = runAfterMillis;
+    }
+
+    /**
+     * If this returns true, the thread counts against the suspended thread limit until `release` is called for it.
+     * @param maybeNull_breakpointID the breakpoint the thread hit, null if it's stopping for an exception
+     */
+    boolean tryAdmit(JdwpThreadID threadID, DapBreakpointID maybeNull_breakpointID) {
+        if (maybeNull_breakpointID != null && !tryAdmitBreakpointHit(maybeNull_breakpointID)) {
+            return false;
+        }
+
+        if (!admittedThreads.add(threadID)) {
+            // already counted
+            return true;
+        }
+
+        final int maxSuspendedThreads = config_.getMaxSuspendedThreads();
+        // count, then check, so that a burst of hits can't all get in before any of them is counted
+        if (admittedThreadCount.incrementAndGet() > maxSuspendedThreads && maxSuspendedThreads > 0) {
+            release(threadID);
+            rejectedTooManySuspendedThreads.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The thread was resumed. A no-op for threads that aren't counted.
+     */
+    void release(JdwpThreadID threadID) {
+        if (admittedThreads.remove(threadID)) {
+            admittedThreadCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * The debugger is going away. Every counted thread is released, including one that was admitted but never got as far as stopping
+     * (its step finalization breakpoint was deleted from under it), and so would never be resumed, and released, by the debugger.
+     */
+    void releaseAll() {
+        for (var threadID : admittedThreads) {
+            release(threadID);
+        }
+    }
+
+    /**
+     * The debugger set the breakpoint again; it starts over, untripped and enabled.
+     */
+    void forget(DapBreakpointID breakpointID) {
+        breakpointStates.remove(breakpointID);
+    }
+
+    private boolean tryAdmitBreakpointHit(DapBreakpointID breakpointID) {
+        final var state = breakpointStates.computeIfAbsent(breakpointID, ignored -> new BreakpointState());
+
+        if (state.disabled.get()) {
+            rejectedDisabled.increment();
+            return false;
+        }
+
+        final long nowMillis = clockMillis_.getAsLong();
+        final long trippedUntilMillis = state.trippedUntilMillis.get();
+        if (trippedUntilMillis != 0) {
+            if (nowMillis < trippedUntilMillis) {
+                rejectedTripped.increment();
+                return false;
+            }
+            // the recovery timer hasn't run yet
+            recover(breakpointID, state, trippedUntilMillis);
+        }
+
+        final int maxHitsPerSecond = config_.getMaxBreakpointHitsPerSecond();
+        if (maxHitsPerSecond > 0) {
+            final long second = nowMillis / 1000;
+            final long current = state.currentSecond.get();
+            if (current != second && state.currentSecond.compareAndSet(current, second)) {
+                state.hitsInCurrentSecond.set(0);
+            }
+            if (state.hitsInCurrentSecond.incrementAndGet() > maxHitsPerSecond) {
+                final long untilMillis = nowMillis + trippedMillis;
+                if (state.trippedUntilMillis.compareAndSet(0, untilMillis)) {
+                    stateChanged_.accept(
+                        breakpointID,
+                        "Hit more than " + maxHitsPerSecond + " times in a second; ignoring hits for " + (trippedMillis / 1000) + " seconds."
+                    );
+                    runAfterMillis_.accept(trippedMillis, () -> recover(breakpointID, state, untilMillis));
+                }
+                rejectedTripped.increment();
+                return false;
+            }
+        }
+
+        final long autoDisableAfterHits = config_.getBreakpointAutoDisableAfterHits();
+        if (autoDisableAfterHits > 0 && state.admittedHits.incrementAndGet() >= autoDisableAfterHits) {
+            // this hit still suspends; the ones after it don't
+            if (state.disabled.compareAndSet(false, true)) {
+                stateChanged_.accept(breakpointID, "Disabled after " + autoDisableAfterHits + " hits; set it again to re-enable it.");
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Untrips the breakpoint, if it's still tripped until `trippedUntilMillis`; called by the recovery timer, or by the first hit after it's due.
+     */
+    private void recover(DapBreakpointID breakpointID, BreakpointState state, long trippedUntilMillis) {
+        if (breakpointStates.get(breakpointID) != state) {
+            // set again (see `forget`) since it tripped, which untripped it
+            return;
+        }
+        if (state.trippedUntilMillis.compareAndSet(trippedUntilMillis, 0)) {
+            state.hitsInCurrentSecond.set(0);
+            stateChanged_.accept(breakpointID, null);
+        }
+    }
+}
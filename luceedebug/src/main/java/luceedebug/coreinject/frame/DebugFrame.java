@@ -3,7 +3,6 @@ package luceedebug.coreinject.frame;
 import lucee.runtime.PageContext;
 import luceedebug.IDebugFrame;
 import luceedebug.coreinject.ValTracker;
-import luceedebug.coreinject.frame.Frame.FrameContext;
 
 /**
  * Should be a sealed class, subtypes are:
@@ -18,16 +17,18 @@ public abstract class DebugFrame implements IDebugFrame {
     // pseudoconstructors), which in turn can push more frames, and we want to track those frames, which can push
     // more frames ... and so on. So when we push a frame, we need to know if we are "already pushing a frame",
     // and if so, we just return some dummy frame which is guranteed to NOT schedule more work.
+    // (Frames now defer grabbing the session scope and etc. until a debugger inspects them, so pushing a frame
+    // shouldn't reenter cf code, but we retain the guard in case the engine surprises us.)
     static private ThreadLocal<Boolean> isPushingFrame = ThreadLocal.withInitial(() -> false);
     
-    static public DebugFrame makeFrame(String sourceFilePath, int depth, ValTracker valTracker, PageContext pageContext, FrameContext root) {
+    static public DebugFrame makeFrame(String sourceFilePath, int depth, ValTracker valTracker, PageContext pageContext) {
         if (isPushingFrame.get()) {
             return DummyFrame.get();
         }
         else {
             try {
                 isPushingFrame.set(true);
-                return new Frame(sourceFilePath, depth, valTracker, pageContext, root);
+                return new Frame(sourceFilePath, depth, valTracker, pageContext);
             }
             finally {
                 isPushingFrame.set(false);
@@ -38,8 +38,8 @@ public class Frame extends DebugFrame {
 
     final private FrameContext frameContext_;
     final private String sourceFilePath;
-    final private long id;
-    final private String name;
+    private long id = 0; // assigned on first request for it, which is typically when the frame is first shown to the debugger
+    final private Collection.Key maybeNull_udfCalledName;
     final private int depth; // 0 is first frame in stack, 1 is next, ...
     private int line = 0; // initially unknown, until first step notification
     
@@ -49,12 +49,48 @@ public class Frame extends DebugFrame {
      */
     public boolean isUdfDefaultValueInitFrame = false;
 
+    /**
+     * True once this frame has been handed out to the debugger, and so is findable by ID in the DebugManager.
+     * Written by the debugger while the owning thread is suspended, read by the owning thread when popping this frame.
+     */
+    public volatile boolean isRegisteredByFrameID = false;
+
+    /**
+     * Non-null while the owning thread is stopped on an exception that is propagating out of this frame;
+     * the frame is popped as soon as the thread resumes. Written by the owning thread before it suspends.
+     */
+    private Throwable maybeNull_exception = null;
+    private String maybeNull_exceptionFilter = null;
+
     public String getSourceFilePath() { return sourceFilePath; };
-    public long getId() { return id; }
-    public String getName() { return name; }
+    public long getId() {
+        // Most frames are never inspected, so we don't contend on the global id counter when pushing every frame.
+        // Only the debugger asks for IDs, while the owning thread is suspended; `isRegisteredByFrameID` publishes it back to the owning thread.
+        if (id == 0) {
+            id = nextId.incrementAndGet();
+        }
+        return id;
+    }
+    public String getName() { return maybeNull_udfCalledName == null ? "??" : maybeNull_udfCalledName.getString(); }
+    /**
+     * The engine keeps keys' lower cased forms around, so this doesn't allocate.
+     */
+    public String maybeNull_getLowerCaseName() { return maybeNull_udfCalledName == null ? null : maybeNull_udfCalledName.getLowerString(); }
     public int getDepth() { return depth; }
     public int getLine() { return line; }
     public void setLine(int line) { this.line = line; }
+    public Throwable maybeNull_getException() { return maybeNull_exception; }
+    public String maybeNull_getExceptionFilter() { return maybeNull_exceptionFilter; }
+
+    /**
+     * @param filter the exception filter the thread is stopping for
+     */
+    public void setException(Throwable exception, String filter) {
+        this.maybeNull_exception = exception;
+        this.maybeNull_exceptionFilter = filter;
+        // if the debugger already looked at this frame, the exception scope has to be added; rebuild the scopes on next request
+        this.scopes_ = null;
+    }
 
     // lazy initialized on request for scopes
     // This is "scopes, wrapped with trackable IDs, which are expensive to create and cleanup"
@@ -63,14 +99,19 @@ public class Frame extends DebugFrame {
     // the results of evaluating complex expressions need to be kept alive for the entirety of the frame
     // these should be made gc'able when this frame is collected
     // We might want to place these results somewhere that is kept alive for the whole request?
-    private ArrayList<Object> refsToKeepAlive_ = new ArrayList<>();
+    private ArrayList<Object> refsToKeepAlive_ = null; // lazy init, most frames never pin anything
     void pin(Object obj) {
+        if (refsToKeepAlive_ == null) {
+            refsToKeepAlive_ = new ArrayList<>();
+        }
         refsToKeepAlive_.add(obj);
     }
 
-    // hold strong refs to scopes, because PageContext will swap them out as frames change (variables, local, this)
-    // (application, server and etc. maybe could be held as globals)
-    // We don't want to construct tracked refs to them until a debugger asks for them, because it is expensive
+    // hold strong refs to scopes, because PageContext will swap them out as frames change (variables, local, arguments)
+    // Those are the only scopes we capture when the frame is pushed, and capturing them is just 3 field reads.
+    // The others (application, session, this, and etc.) are the same for the whole request, or are derived from the variables scope,
+    // so they are looked up only when the debugger first asks for them. Most frames are never inspected.
+    // We don't want to construct tracked refs to any of them until a debugger asks for them, because it is expensive
     // to create and clean up references for every pushed frame, especially if that frame isn't ever inspected in a debugger.
     // This should be valid for the entirety of the frame, and should the frame should be always be disposed of at the end of the actual cf frame.
     //
@@ -84,18 +125,11 @@ public class Frame extends DebugFrame {
     public static class FrameContext {
         final public PageContext pageContext;
 
-        public final lucee.runtime.type.scope.Scope application;
         public final lucee.runtime.type.scope.Argument arguments;
-        public final lucee.runtime.type.scope.Scope form;
         public final lucee.runtime.type.scope.Local local;
-        public final lucee.runtime.type.scope.Scope request;
-        public final lucee.runtime.type.scope.Scope session;
-        public final lucee.runtime.type.scope.Scope server;
-        public final lucee.runtime.type.scope.Scope url;
         public final lucee.runtime.type.scope.Variables variables;
-        // n.b. the `this` scope does not derive from Scope
-        public final lucee.runtime.type.Struct this_;
-        public final lucee.runtime.type.scope.Scope static_;
+
+        private RequestAndDerivedScopes requestAndDerivedScopes_ = null;
         
         // lazy init because it (might?) be expensive to walk scope chains eagerly every frame
         private ArrayList<lucee.runtime.type.scope.ClosureScope> capturedScopeChain = null;
@@ -104,43 +138,76 @@ public class Frame extends DebugFrame {
             .weakKeys()
             .makeMap();
 
-        //
-        // Note that some of these `getScopeOrNull` calls need additional guards, to prevent from throwing
-        // expensive exceptions on literally every frame, e.g. if a scope is disabled by the engine and trying to touch it
-        // throws an ExpressionException.
-        //
-        private FrameContext(PageContext pageContext, FrameContext root) {
+        /**
+         * Scopes that are shared by every frame in a request, and scopes that derive from a frame's variables scope.
+         * These are looked up when the debugger first asks for them, rather than on every frame push.
+         *
+         * Note that some of these `getScopeOrNull` calls need additional guards, to prevent from throwing
+         * expensive exceptions, e.g. if a scope is disabled by the engine and trying to touch it throws an ExpressionException.
+         */
+        public static class RequestAndDerivedScopes {
+            public final lucee.runtime.type.scope.Scope application;
+            public final lucee.runtime.type.scope.Scope form;
+            public final lucee.runtime.type.scope.Scope request;
+            public final lucee.runtime.type.scope.Scope session;
+            public final lucee.runtime.type.scope.Scope server;
+            public final lucee.runtime.type.scope.Scope url;
+            // n.b. the `this` scope does not derive from Scope
+            public final lucee.runtime.type.Struct this_;
+            public final lucee.runtime.type.scope.Scope static_;
+
+            private RequestAndDerivedScopes(PageContext pageContext, lucee.runtime.type.scope.Variables variables) {
+                this.application = getScopelikeOrNull(() -> pageContext.applicationScope());
+                this.form        = getScopelikeOrNull(() -> pageContext.formScope());
+                this.request     = getScopelikeOrNull(() -> pageContext.requestScope());
+                this.session     = getScopelikeOrNull(() -> pageContext.getApplicationContext().isSetSessionManagement() ? pageContext.sessionScope() : null);
+                this.server      = getScopelikeOrNull(() -> pageContext.serverScope());
+                this.url         = getScopelikeOrNull(() -> pageContext.urlScope());
+                this.this_       = getScopelikeOrNull(() -> {
+                    // there is also `PageContextImpl.thisGet()` but it can create a `this` property on the variables scope, which seems like
+                    // something we don't want to do, since it mutates the user's scopes instead of just reading from them.
+                    if (variables instanceof lucee.runtime.ComponentScope) {
+                        // The `this` scope IS the component, bound to the variables scope that is an instanceof ComponentScope
+                        // (which means ComponentScope is a variables scope containing a THIS scope, rather than ComponentScope IS the this scope)
+                        // Alternatively we could just lookup the `this` property on `variables`.
+                        return ((lucee.runtime.ComponentScope)variables).getComponent();
+                    }
+                    else if (variables instanceof lucee.runtime.type.scope.ClosureScope) {
+                        // A closure scope is a variables scope wrapper containing a variable scope.
+                        // Probably we could test here for if the closureScope contains a component scope, but just looking for `this` seems to be fine.
+                        return (lucee.runtime.type.Struct)UnsafeUtils.deprecatedScopeGet(variables, "this");
+                    }
+                    else {
+                        return null;
+                    }
+                });
+
+                // If we have a `this` scope, meaning we are in a component, then we should have a static scope.
+                this.static_ = this.this_ instanceof lucee.runtime.Component ? ((lucee.runtime.Component)this.this_).staticScope() : null;
+            }
+        }
+
+        /**
+         * Runs on every frame push, so should do as little as possible.
+         * The page context swaps local/arguments/variables in and out as frames change, so now is our only chance to grab them.
+         * These getters are plain field reads in the engine.
+         */
+        private FrameContext(PageContext pageContext) {
             this.pageContext = pageContext;
-            this.application = root != null ? root.application : getScopelikeOrNull(() -> pageContext.applicationScope());
             this.arguments   = getScopelikeOrNull(() -> pageContext.argumentsScope());
-            this.form        = root != null ? root.form : getScopelikeOrNull(() -> pageContext.formScope());
             this.local       = getScopelikeOrNull(() -> pageContext.localScope());
-            this.request     = root != null ? root.request : getScopelikeOrNull(() -> pageContext.requestScope());
-            this.session     = root != null ? root.session : getScopelikeOrNull(() -> pageContext.getApplicationContext().isSetSessionManagement() ? pageContext.sessionScope() : null);
-            this.server      = root != null ? root.server : getScopelikeOrNull(() -> pageContext.serverScope());
-            this.url         = root != null ? root.url : getScopelikeOrNull(() -> pageContext.urlScope());
             this.variables   = getScopelikeOrNull(() -> pageContext.variablesScope());
-            this.this_       = getScopelikeOrNull(() -> {
-                // there is also `PageContextImpl.thisGet()` but it can create a `this` property on the variables scope, which seems like
-                // something we don't want to do, since it mutates the user's scopes instead of just reading from them.
-                if (this.variables instanceof lucee.runtime.ComponentScope) {
-                    // The `this` scope IS the component, bound to the variables scope that is an instanceof ComponentScope
-                    // (which means ComponentScope is a variables scope containing a THIS scope, rather than ComponentScope IS the this scope)
-                    // Alternatively we could just lookup the `this` property on `variables`.
-                    return ((lucee.runtime.ComponentScope)this.variables).getComponent();
-                }
-                else if (this.variables instanceof lucee.runtime.type.scope.ClosureScope) {
-                    // A closure scope is a variables scope wrapper containing a variable scope.
-                    // Probably we could test here for if the closureScope contains a component scope, but just looking for `this` seems to be fine.
-                    return (lucee.runtime.type.Struct)UnsafeUtils.deprecatedScopeGet(this.variables, "this");
-                }
-                else {
-                    return null;
-                }
-            });
+        }
 
-            // If we have a `this` scope, meaning we are in a component, then we should have a static scope.
-            this.static_ = this.this_ instanceof lucee.runtime.Component ? ((lucee.runtime.Component)this.this_).staticScope() : null;
+        /**
+         * This is expected to be called only while the frame's thread is suspended (e.g. when the debugger asks for scopes),
+         * at which point request-wide scopes are the same as they were when the frame was pushed.
+         */
+        synchronized public RequestAndDerivedScopes getRequestAndDerivedScopes() {
+            if (requestAndDerivedScopes_ == null) {
+                requestAndDerivedScopes_ = new RequestAndDerivedScopes(pageContext, variables);
+            }
+            return requestAndDerivedScopes_;
         }
 
         public ArrayList<lucee.runtime.type.scope.ClosureScope> getCapturedScopeChain() {
@@ -181,7 +248,7 @@ public class Frame extends DebugFrame {
         // scopes that are "garbage" scopes ("LocalNotSupportedScope") should be filtered away elsewhere
         // we especially are interested in when we swap out scopes during expression evaluation that we restore the scopes
         // as they were prior to; which might be troublesome if "getting a scope throws so we return null, but it doesn't make sense to restore the scope to null"
-        private <T> T getScopelikeOrNull(SupplierOrNull<T> f) {
+        private static <T> T getScopelikeOrNull(SupplierOrNull<T> f) {
             try {
                 return f.get();
             }
@@ -222,32 +289,26 @@ public class Frame extends DebugFrame {
         }
     }
 
-    Frame(String sourceFilePath, int depth, ValTracker valTracker, PageContext pageContext, FrameContext root) {
-        this(sourceFilePath, depth, valTracker, pageContext, Frame.tryGetFrameName(pageContext), root);
-    }
-
-    private Frame(String sourceFilePath, int depth, ValTracker valTracker, PageContext pageContext, String name, FrameContext root) {
-        this.frameContext_ = new FrameContext(pageContext, root);
+    Frame(String sourceFilePath, int depth, ValTracker valTracker, PageContext pageContext) {
+        this.frameContext_ = new FrameContext(pageContext);
         this.sourceFilePath = Objects.requireNonNull(sourceFilePath);
         this.valTracker = Objects.requireNonNull(valTracker);
-        this.id = nextId.incrementAndGet();
-        this.name = name;
+        this.maybeNull_udfCalledName = Frame.tryGetUdfCalledName(pageContext);
         this.depth = depth;
     }
 
-    private static String tryGetFrameName(PageContext pageContext) {
-        String frameName = "??";
+    /**
+     * The name is resolved from this key only if the debugger asks for it.
+     */
+    private static Collection.Key tryGetUdfCalledName(PageContext pageContext) {
         try {
             final PageContextImpl pageContextImpl = (PageContextImpl)pageContext;
-            final Collection.Key key = pageContextImpl.getActiveUDFCalledName();
-            if (key != null) {
-                frameName = key.getString();
-            }
+            return pageContextImpl.getActiveUDFCalledName();
         }
         catch (Throwable e) {
             // discard, cast was bad for some reason?
+            return null;
         }
-        return frameName;
     }
 
     private void checkedPutScopeRef(String name, Map<?,?> scope) {
@@ -258,23 +319,43 @@ public class Frame extends DebugFrame {
         }
     }
 
+    /**
+     * The exception as a struct, the same one a cfcatch block would see.
+     */
+    private void checkedPutExceptionScopeRef() {
+        try {
+            final var catchBlock = lucee.runtime.op.Caster
+                .toPageException(maybeNull_exception)
+                .getCatchBlock(frameContext_.pageContext.getConfig());
+            checkedPutScopeRef("exception", catchBlock);
+        }
+        catch (Throwable e) {
+            // the engine couldn't describe it; the frame's other scopes are still useful
+        }
+    }
+
     private void lazyInitScopeRefs() {
         if (scopes_ != null) {
             // already init'd
             return;
         }
 
+        final var requestAndDerivedScopes = frameContext_.getRequestAndDerivedScopes();
+
         scopes_ = new LinkedHashMap<>();
-        checkedPutScopeRef("application", frameContext_.application);
+        if (maybeNull_exception != null) {
+            checkedPutExceptionScopeRef();
+        }
+        checkedPutScopeRef("application", requestAndDerivedScopes.application);
         checkedPutScopeRef("arguments", frameContext_.arguments);
-        checkedPutScopeRef("form", frameContext_.form);
+        checkedPutScopeRef("form", requestAndDerivedScopes.form);
         checkedPutScopeRef("local", frameContext_.local);
-        checkedPutScopeRef("request", frameContext_.request);
-        checkedPutScopeRef("session", frameContext_.session);
-        checkedPutScopeRef("static", frameContext_.static_);
-        checkedPutScopeRef("server", frameContext_.server);
-        checkedPutScopeRef("this", frameContext_.this_);
-        checkedPutScopeRef("url", frameContext_.url);
+        checkedPutScopeRef("request", requestAndDerivedScopes.request);
+        checkedPutScopeRef("session", requestAndDerivedScopes.session);
+        checkedPutScopeRef("static", requestAndDerivedScopes.static_);
+        checkedPutScopeRef("server", requestAndDerivedScopes.server);
+        checkedPutScopeRef("this", requestAndDerivedScopes.this_);
+        checkedPutScopeRef("url", requestAndDerivedScopes.url);
         checkedPutScopeRef("variables", frameContext_.variables);
 
         if (!closureScopeGloballyDisabled) {
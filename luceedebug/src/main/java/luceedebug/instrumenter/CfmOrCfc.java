@@ -1,16 +1,92 @@
 package luceedebug.instrumenter;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+
 import org.objectweb.asm.*;
-import org.objectweb.asm.commons.AdviceAdapter;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import luceedebug.InstrumentedMethodNames;
 
 public class CfmOrCfc extends ClassVisitor {
+    /**
+     * Part of the instrumented class cache key (see `InstrumentedClassCache`).
+     * Bump this whenever the instrumented output changes, so that stale cache entries aren't used by a dev build with an unchanged version number.
+     */
+    public static final int OUTPUT_REVISION = 7;
+
+    /**
+     * How densely a delegated-to method is instrumented with step hooks.
+     * Every level after FULL produces less code than the one before it; LuceeTransformer walks down the levels
+     * for a method that doesn't fit in 64kb of bytecode once instrumented.
+     */
+    public static enum StepHooks {
+        /**
+         * a hook at the start of every line (less redundant ones, see `withoutRedundantHooks`)
+         */
+        FULL,
+        /**
+         * a hook only at the first line of each basic block (method entry, branch targets, exception handlers, after a jump/return/throw).
+         * Stepping moves from block to block rather than line to line. Breakpoints still bind to every line, since they don't depend on step hooks.
+         */
+        SPARSE,
+        /**
+         * as SPARSE, but each hook is a 3 byte `invokestatic` of a per-line helper method, rather than `push line; invokedynamic`
+         */
+        OUTLINED;
+
+        /**
+         * @return null if there is no cheaper level
+         */
+        public StepHooks maybeNull_next() {
+            switch (this) {
+                case FULL: return SPARSE;
+                case SPARSE: return OUTLINED;
+                default: return null;
+            }
+        }
+    }
+
     private Type thisType = null; // is not initialized until `visit`
     private String sourceName = "??????"; // is not initialized until `visitSource`
+    private final Map<String, StepHooks> stepHooksByDelegateName;
+    private final TreeSet<Integer> outlinedStepHookLines = new TreeSet<>();
+    private int stepHookCandidateCount = 0;
+    private int stepHookCount = 0;
 
     public CfmOrCfc(int api, ClassWriter cw, String className) {
+        this(api, cw, className, Map.of());
+    }
+
+    /**
+     * @param stepHooksByDelegateName delegated-to method name (e.g. `__luceedebug__call`) -> how densely to instrument it; absent means FULL
+     */
+    public CfmOrCfc(int api, ClassWriter cw, String className, Map<String, StepHooks> stepHooksByDelegateName) {
         super(api, cw);
+        this.stepHooksByDelegateName = stepHooksByDelegateName;
+    }
+
+    /**
+     * How many step hooks the density level(s) would have placed, before redundant ones were dropped.
+     */
+    public int getStepHookCandidateCount() {
+        return stepHookCandidateCount;
+    }
+
+    public int getStepHookCount() {
+        return stepHookCount;
     }
 
     @Override
@@ -23,7 +99,13 @@ public class CfmOrCfc extends ClassVisitor {
         String[] interfaces
     ) {
         this.thisType = Type.getType("L" + name + ";");
-        super.visit(version, access, name, signature, superName, interfaces);
+
+        // invokedynamic requires a classfile version of at least 51 (java 7), and some engines (e.g. lucee 5) emit version 50.
+        // Such classes have no StackMapTable to copy through, so LuceeTransformer computes frames for them from scratch,
+        // which meets the new verifier's requirement of a StackMapTable.
+        final int effectiveVersion = (version & 0xFFFF) < Opcodes.V1_7 ? Opcodes.V1_7 : version;
+
+        super.visit(effectiveVersion, access, name, signature, superName, interfaces);
     }
 
     static class IDebugManager_t {
@@ -38,10 +120,28 @@ public class CfmOrCfc extends ClassVisitor {
         static final Method m_step = Method.getMethod("void luceedebug_stepNotificationEntry_step(int)");
         // stepAfterCompletedUdfCall : () => void
         static final Method m_stepAfterCompletedUdfCall = Method.getMethod("void luceedebug_stepNotificationEntry_stepAfterCompletedUdfCall()");
+        // exception : (_ : Throwable) => void
+        static final Method m_exception = Method.getMethod("void luceedebug_stepNotificationEntry_exception(Throwable)");
+    }
+
+    static class DebugHookCallSites_t {
+        static final Handle bootstrap = new Handle(
+            Opcodes.H_INVOKESTATIC,
+            "luceedebug/DebugHookCallSites",
+            luceedebug.DebugHookCallSites.BOOTSTRAP_METHOD_NAME,
+            luceedebug.DebugHookCallSites.BOOTSTRAP_METHOD_DESCRIPTOR,
+            false
+        );
     }
 
-    static class GlobalIDebugManagerHolder_t {
-        static final Type type = Type.getType("Lluceedebug/GlobalIDebugManagerHolder;");
+    /**
+     * Call into the debug manager via an invokedynamic instruction, rather than `getstatic debugManager; invokeinterface ...`.
+     * While no debugger is attached, the call site is linked to a no-op. See `luceedebug.DebugHookCallSites`.
+     * Receiver is implicit, so the stack should contain exactly the hook's arguments.
+     * The source file name is passed as a static bootstrap argument, so step hooks can be linked per-file.
+     */
+    private void invokeHook(GeneratorAdapter ga, Method hook) {
+        ga.invokeDynamic(hook.getName(), hook.getDescriptor(), DebugHookCallSites_t.bootstrap, sourceName);
     }
 
     @Override
@@ -63,6 +163,10 @@ public class CfmOrCfc extends ClassVisitor {
      *       DebugManager.pushCfFrame();
      *       return __luceedebug__udfCallX(...args); // "real" method is renamed
      *    }
+     *    catch (Throwable e) {
+     *       DebugManager.exception(e); // may stop here, for exception breakpoints
+     *       throw e;
+     *    }
      *    finally {
      *       DebugManager.popCfFrame();
      *    }
@@ -93,20 +197,17 @@ public class CfmOrCfc extends ClassVisitor {
 
                 // pushCfFrame
                 {
-                    ga.getStatic(GlobalIDebugManagerHolder_t.type, "debugManager", IDebugManager_t.type);
-                    // [IDebugManager_t]
-
                     ga.loadArg(0); // should be PageContextImpl as PageContext
-                    // [IDebugManager_t, PageContext]
+                    // [PageContext]
                     
                     ga.push(sourceName);
-                    // [IDebugManager_t, PageContext, String]
+                    // [PageContext, String]
 
                     if (name.startsWith("udfDefaultValue")) {
-                        ga.invokeInterface(IDebugManager_t.type, IDebugManager_t.m_pushCfFunctionDefaultValueInitializationFrame);
+                        invokeHook(ga, IDebugManager_t.m_pushCfFunctionDefaultValueInitializationFrame);
                     }
                     else {
-                        ga.invokeInterface(IDebugManager_t.type, IDebugManager_t.m_pushCfFrame);
+                        invokeHook(ga, IDebugManager_t.m_pushCfFrame);
                     }
                     // [<empty>]
                 }
@@ -124,15 +225,13 @@ public class CfmOrCfc extends ClassVisitor {
 
                 // popCfFrame
                 {
-                    ga.getStatic(GlobalIDebugManagerHolder_t.type, "debugManager", IDebugManager_t.type);
-                    ga.invokeInterface(IDebugManager_t.type, IDebugManager_t.m_popCfFrame);
+                    invokeHook(ga, IDebugManager_t.m_popCfFrame);
 
                     // non-exceptional function return gets a step notification,
                     // with the exception of udfDefaultValue frames (serves to set function default args), which behave sort of weirdly
                     // (as if they're merged with their associated UDF? not clear at the moment)
                     if (!name.equals("udfDefaultValue")) {
-                        ga.getStatic(GlobalIDebugManagerHolder_t.type, "debugManager", IDebugManager_t.type);
-                        ga.invokeInterface(IDebugManager_t.type, IDebugManager_t.m_stepAfterCompletedUdfCall);
+                        invokeHook(ga, IDebugManager_t.m_stepAfterCompletedUdfCall);
                     }
                 }
                 
@@ -143,16 +242,27 @@ public class CfmOrCfc extends ClassVisitor {
 
             final var tryEnd = ga.mark();
 
+            // The handler is the only branch target in the wrapper, so its frame is the only one we need to supply.
+            // Ignored if the class writer is computing frames.
+            ga.visitFrame(Opcodes.F_NEW, argCount + 1, handlerFrameLocals(descriptor), 1, new Object[]{"java/lang/Throwable"});
+
             //
             // catch
             //
             {
                 // [<exception-object>]
 
+                // exception hook, while the frame is still on the cf stack
+                {
+                    ga.dup();
+                    // [<exception-object>, <exception-object>]
+                    invokeHook(ga, IDebugManager_t.m_exception);
+                    // [<exception-object>]
+                }
+
                 // popCfFrame
                 {
-                    ga.getStatic(GlobalIDebugManagerHolder_t.type, "debugManager", IDebugManager_t.type);
-                    ga.invokeInterface(IDebugManager_t.type, IDebugManager_t.m_popCfFrame);
+                    invokeHook(ga, IDebugManager_t.m_popCfFrame);
 
                     //
                     // n.b exceptional function return DOES NOT get a step notification
@@ -172,6 +282,259 @@ public class CfmOrCfc extends ClassVisitor {
         }
     }
 
+    /**
+     * At the wrapper's catch handler, the locals are exactly `this` and the args, none of which the wrapper reassigns.
+     */
+    private Object[] handlerFrameLocals(String descriptor) {
+        final var argTypes = Type.getArgumentTypes(descriptor);
+        final var result = new Object[argTypes.length + 1];
+        result[0] = thisType.getInternalName();
+        for (int i = 0; i < argTypes.length; ++i) {
+            result[i + 1] = frameTypeOf(argTypes[i]);
+        }
+        return result;
+    }
+
+    private static Object frameTypeOf(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return Opcodes.INTEGER;
+            case Type.FLOAT:
+                return Opcodes.FLOAT;
+            case Type.LONG:
+                return Opcodes.LONG;
+            case Type.DOUBLE:
+                return Opcodes.DOUBLE;
+            default:
+                return type.getInternalName(); // for arrays, this is the descriptor, which is what a frame wants
+        }
+    }
+
+    /**
+     * Inserts a step notification at the start of every line of a delegated-to method.
+     *
+     * The hook isn't emitted from `visitLineNumber` directly. For any given bytecode offset, ClassReader visits the label, then the line numbers,
+     * then the stack map frame. Emitting the hook on `visitLineNumber` would put the hook instructions between the label (maybe a branch target)
+     * and its frame, and the copied-through frame would end up describing the instruction after the hook rather than the branch target.
+     * So the hook is held until after the frame, just before the line's first real instruction. The hook pushes an int and consumes it,
+     * so the frame at the start of the line is also correct for the hook.
+     *
+     * A line can start with a `new`. Frames describe the object it creates, until its constructor is called, as "uninitialized, created at label L",
+     * where L must be the label of the `new` itself; with the hook in between, L is the label of the hook. So a `new` that follows a hook gets a label
+     * of its own, and the frames after it are rewritten to name that label instead.
+     */
+    private class StepHookInserter extends MethodVisitor {
+        private final java.util.ArrayList<Integer> pendingLines = new java.util.ArrayList<>();
+        private final StepHooks stepHooks;
+        /**
+         * the label visited since the last instruction, if any
+         */
+        private Label maybeNull_currentLabel = null;
+        /**
+         * true if a hook has been emitted after `maybeNull_currentLabel`
+         */
+        private boolean isHookAfterCurrentLabel = false;
+        /**
+         * label of a `new` that a hook was inserted before -> the label the `new` was moved to
+         */
+        private final java.util.HashMap<Label, Label> movedNewLabels = new java.util.HashMap<>();
+        /**
+         * only lines whose line number table entry starts at one of these labels get a hook
+         */
+        HashSet<Label> hookedLineStarts = null;
+
+        StepHookInserter(int api, MethodVisitor mv, StepHooks stepHooks) {
+            super(api, mv);
+            this.stepHooks = stepHooks;
+        }
+
+        /**
+         * Called before each instruction.
+         */
+        private void flushPendingLines() {
+            emitPendingHooks();
+            maybeNull_currentLabel = null;
+        }
+
+        private void emitPendingHooks() {
+            if (pendingLines.size() == 0) {
+                return;
+            }
+            isHookAfterCurrentLabel = true;
+            for (int line : pendingLines) {
+                if (stepHooks == StepHooks.OUTLINED) {
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, thisType.getInternalName(), InstrumentedMethodNames.outlinedStepHookName(line), "()V", false);
+                    outlinedStepHookLines.add(line);
+                }
+                else {
+                    pushInt(line);
+                    super.visitInvokeDynamicInsn(
+                        IDebugManager_t.m_step.getName(),
+                        IDebugManager_t.m_step.getDescriptor(),
+                        DebugHookCallSites_t.bootstrap,
+                        sourceName
+                    );
+                }
+
+                // the line's entry in the line number table starts after the hook
+                final var start = new Label();
+                super.visitLabel(start);
+                super.visitLineNumber(line, start);
+            }
+            pendingLines.clear();
+        }
+
+        private void pushInt(int v) {
+            if (v >= -1 && v <= 5) {
+                super.visitInsn(Opcodes.ICONST_0 + v);
+            }
+            else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+                super.visitIntInsn(Opcodes.BIPUSH, v);
+            }
+            else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                super.visitIntInsn(Opcodes.SIPUSH, v);
+            }
+            else {
+                super.visitLdcInsn(v);
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            if (!hookedLineStarts.contains(start)) {
+                super.visitLineNumber(line, start);
+            }
+            else {
+                pendingLines.add(line);
+            }
+        }
+
+        @Override
+        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+            super.visitFrame(type, numLocal, withMovedNewLabels(numLocal, local), numStack, withMovedNewLabels(numStack, stack));
+            emitPendingHooks();
+        }
+
+        private Object[] withMovedNewLabels(int n, Object[] types) {
+            if (movedNewLabels.size() == 0 || types == null) {
+                return types;
+            }
+            Object[] result = types;
+            for (int i = 0; i < n; i++) {
+                final Label maybeNull_moved = types[i] instanceof Label ? movedNewLabels.get(types[i]) : null;
+                if (maybeNull_moved != null) {
+                    if (result == types) {
+                        result = types.clone();
+                    }
+                    result[i] = maybeNull_moved;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            flushPendingLines();
+            super.visitLabel(label);
+            maybeNull_currentLabel = label;
+            isHookAfterCurrentLabel = false;
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            flushPendingLines();
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            flushPendingLines();
+            super.visitIntInsn(opcode, operand);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            flushPendingLines();
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            emitPendingHooks();
+            if (opcode == Opcodes.NEW && maybeNull_currentLabel != null && isHookAfterCurrentLabel) {
+                final var movedTo = new Label();
+                super.visitLabel(movedTo);
+                movedNewLabels.put(maybeNull_currentLabel, movedTo);
+            }
+            flushPendingLines();
+            super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            flushPendingLines();
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            flushPendingLines();
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+            flushPendingLines();
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            flushPendingLines();
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            flushPendingLines();
+            super.visitLdcInsn(value);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            flushPendingLines();
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            flushPendingLines();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            flushPendingLines();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            flushPendingLines();
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            flushPendingLines();
+            super.visitMaxs(maxStack, maxLocals);
+        }
+    }
+
     @Override
     public MethodVisitor visitMethod(
         final int access,
@@ -204,25 +567,28 @@ public class CfmOrCfc extends ClassVisitor {
             // Because the wrapper methods have no line info, stack trace elems in those methods have line numbers of -1,
             // which luckily for us, means "ignore this frame", for Lucee's `callStackGet` method.
             // see `lucee.runtime.functions.system.CallStackGet`
-            final String delegateToName = name.startsWith("udfCall")
-                ? "udfCall__luceedebug__" + name
-                : "__luceedebug__" + name;
+            final String delegateToName = InstrumentedMethodNames.delegateNameOf(name);
 
             createWrapperMethod(access, name, descriptor, signature, exceptions, delegateToName);
 
             final var mv = super.visitMethod(access, delegateToName, descriptor, signature, exceptions);
+            final var stepHooks = stepHooksByDelegateName.getOrDefault(delegateToName, StepHooks.FULL);
+            final var stepHookInserter = new StepHookInserter(this.api, mv, stepHooks);
 
-            return new AdviceAdapter(this.api, mv, access, delegateToName, descriptor) {
+            // need to see the whole method to know where hooks are needed, so buffer it, then replay it through the hook inserter
+            return new MethodNode(this.api, access, delegateToName, descriptor, signature, exceptions) {
                 @Override
-                public void visitLineNumber(int line, Label start) {
-                    // step
-                    {
-                        this.getStatic(GlobalIDebugManagerHolder_t.type, "debugManager", IDebugManager_t.type);
-                        this.push(line);
-                        this.invokeInterface(IDebugManager_t.type, IDebugManager_t.m_step);
-                    }
+                public void visitEnd() {
+                    final var candidates = stepHooks == StepHooks.FULL
+                        ? lineLabels(this)
+                        : blockStartLineLabels(this);
+                    final var hooked = withoutRedundantHooks(this, candidates);
+
+                    stepHookCandidateCount += candidates.size();
+                    stepHookCount += hooked.size();
 
-                    super.visitLineNumber(line, this.mark());
+                    stepHookInserter.hookedLineStarts = hooked;
+                    accept(stepHookInserter);
                 }
             };
         }
@@ -230,4 +596,201 @@ public class CfmOrCfc extends ClassVisitor {
             return super.visitMethod(access, name, descriptor, signature, exceptions);
         }
     }
+
+    private static HashSet<Label> lineLabels(MethodNode method) {
+        final var result = new HashSet<Label>();
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LineNumberNode) {
+                result.add(((LineNumberNode)insn).start.getLabel());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops hooks that can't change where a step stops: a hook whose line is the line of the most recently run hook, on every path that reaches it.
+     * Stopping at such a hook would be a step that goes nowhere. Lucee emits many of these, e.g. a line entry per subexpression of a statement.
+     *
+     * A backward jump starts another iteration of a loop, so the line is unknown after one. That keeps a hook on every iteration of a loop that's
+     * all on one line (e.g. `for (i = 1; i <= 3; i++) x++;`), which is where the line's breakpoint is checked, and where a step over the line
+     * stops again, once per iteration.
+     *
+     * Calls in between don't matter: returning to the calling line after a call is done by the wrapper's stepAfterCompletedUdfCall hook,
+     * not by line hooks. Exception handlers can be reached from anywhere, so the most recent line there is unknown.
+     *
+     * Forward dataflow over the method's instructions; the state is "line of the most recent hook", or unknown.
+     */
+    private static HashSet<Label> withoutRedundantHooks(MethodNode method, HashSet<Label> hookedLineStarts) {
+        final int NOT_REACHED = -2;
+        final int UNKNOWN = -1;
+
+        final var insns = method.instructions;
+        final int n = insns.size();
+        if (n == 0) {
+            return hookedLineStarts;
+        }
+
+        for (AbstractInsnNode insn : insns) {
+            if (insn.getOpcode() == Opcodes.JSR || insn.getOpcode() == Opcodes.RET) {
+                // subroutines have successors we don't model; not something lucee emits
+                return hookedLineStarts;
+            }
+        }
+
+        final int[] lineOnEntry = new int[n];
+        Arrays.fill(lineOnEntry, NOT_REACHED);
+        final boolean[] isQueued = new boolean[n];
+        final var worklist = new ArrayDeque<Integer>();
+
+        lineOnEntry[0] = UNKNOWN;
+        worklist.add(0);
+        isQueued[0] = true;
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            final int handler = insns.indexOf(tryCatchBlock.handler);
+            lineOnEntry[handler] = UNKNOWN;
+            if (!isQueued[handler]) {
+                worklist.add(handler);
+                isQueued[handler] = true;
+            }
+        }
+
+        final var successors = new int[16];
+        while (!worklist.isEmpty()) {
+            final int i = worklist.poll();
+            isQueued[i] = false;
+
+            final var insn = insns.get(i);
+            final int opcode = insn.getOpcode();
+
+            int lineOnExit = lineOnEntry[i];
+            if (insn instanceof LineNumberNode && hookedLineStarts.contains(((LineNumberNode)insn).start.getLabel())) {
+                lineOnExit = ((LineNumberNode)insn).line;
+            }
+
+            var successorList = successors;
+            int successorCount = 0;
+            if (insn instanceof JumpInsnNode) {
+                successorList[successorCount++] = insns.indexOf(((JumpInsnNode)insn).label);
+                if (opcode != Opcodes.GOTO && i + 1 < n) {
+                    successorList[successorCount++] = i + 1;
+                }
+            }
+            else if (insn instanceof TableSwitchInsnNode || insn instanceof LookupSwitchInsnNode) {
+                final var dflt = insn instanceof TableSwitchInsnNode ? ((TableSwitchInsnNode)insn).dflt : ((LookupSwitchInsnNode)insn).dflt;
+                final var labels = insn instanceof TableSwitchInsnNode ? ((TableSwitchInsnNode)insn).labels : ((LookupSwitchInsnNode)insn).labels;
+                successorList = new int[labels.size() + 1];
+                successorList[successorCount++] = insns.indexOf(dflt);
+                for (var label : labels) {
+                    successorList[successorCount++] = insns.indexOf(label);
+                }
+            }
+            else if ((opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) || opcode == Opcodes.ATHROW) {
+                // no successors
+            }
+            else if (i + 1 < n) {
+                successorList[successorCount++] = i + 1;
+            }
+
+            for (int k = 0; k < successorCount; k++) {
+                final int s = successorList[k];
+                final int lineAlongEdge = s <= i ? UNKNOWN : lineOnExit;
+                final int current = lineOnEntry[s];
+                final int merged = current == NOT_REACHED ? lineAlongEdge
+                    : current == lineAlongEdge ? current
+                    : UNKNOWN;
+                if (merged != current) {
+                    lineOnEntry[s] = merged;
+                    if (!isQueued[s]) {
+                        worklist.add(s);
+                        isQueued[s] = true;
+                    }
+                }
+            }
+        }
+
+        // a label can start more than one line entry; keep its hook if any of them is needed
+        final var result = new HashSet<Label>();
+        for (int i = 0; i < n; i++) {
+            final var insn = insns.get(i);
+            if (insn instanceof LineNumberNode) {
+                final var lineNode = (LineNumberNode)insn;
+                final var label = lineNode.start.getLabel();
+                if (hookedLineStarts.contains(label) && lineOnEntry[i] != lineNode.line && lineOnEntry[i] != NOT_REACHED) {
+                    result.add(label);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The start labels of line number table entries that are the first line entry in their basic block.
+     */
+    private static HashSet<Label> blockStartLineLabels(MethodNode method) {
+        final var branchTargets = new HashSet<LabelNode>();
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            branchTargets.add(tryCatchBlock.handler);
+        }
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof JumpInsnNode) {
+                branchTargets.add(((JumpInsnNode)insn).label);
+            }
+            else if (insn instanceof TableSwitchInsnNode) {
+                branchTargets.add(((TableSwitchInsnNode)insn).dflt);
+                branchTargets.addAll(((TableSwitchInsnNode)insn).labels);
+            }
+            else if (insn instanceof LookupSwitchInsnNode) {
+                branchTargets.add(((LookupSwitchInsnNode)insn).dflt);
+                branchTargets.addAll(((LookupSwitchInsnNode)insn).labels);
+            }
+        }
+
+        final var result = new HashSet<Label>();
+        boolean atBlockStart = true; // method entry
+        for (AbstractInsnNode insn : method.instructions) {
+            if (insn instanceof LabelNode) {
+                if (branchTargets.contains(insn)) {
+                    atBlockStart = true;
+                }
+            }
+            else if (insn instanceof LineNumberNode) {
+                if (atBlockStart) {
+                    result.add(((LineNumberNode)insn).start.getLabel());
+                    atBlockStart = false;
+                }
+            }
+            else if (insn.getOpcode() >= 0) {
+                final int opcode = insn.getOpcode();
+                if (insn instanceof JumpInsnNode
+                    || insn instanceof TableSwitchInsnNode
+                    || insn instanceof LookupSwitchInsnNode
+                    || (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN)
+                    || opcode == Opcodes.ATHROW
+                ) {
+                    atBlockStart = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Emit the helpers that OUTLINED step hooks call. Each is `push line; invokedynamic step; return`,
+     * so the step handler's "breakpoint right after the hook's invokedynamic" lands on the helper's return, which is fine.
+     * The helpers have no line number info, so like the wrappers, they are ignored by lucee's `callStackGet`.
+     */
+    @Override
+    public void visitEnd() {
+        for (int line : outlinedStepHookLines) {
+            final var name = InstrumentedMethodNames.outlinedStepHookName(line);
+            final int access = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC;
+            final var mv = super.visitMethod(access, name, "()V", null, null);
+            final var ga = new GeneratorAdapter(mv, access, name, "()V");
+            ga.push(line);
+            invokeHook(ga, IDebugManager_t.m_step);
+            ga.returnValue();
+            ga.endMethod();
+        }
+        super.visitEnd();
+    }
 }
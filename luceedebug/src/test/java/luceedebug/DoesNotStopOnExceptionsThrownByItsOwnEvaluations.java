@@ -0,0 +1,126 @@
+package luceedebug;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.dockerjava.api.DockerClient;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import luceedebug.testutils.DapUtils;
+import luceedebug.testutils.DockerUtils;
+import luceedebug.testutils.LuceeUtils;
+import luceedebug.testutils.TestParams.LuceeAndDockerInfo;
+import luceedebug.testutils.DockerUtils.HostPortBindings;
+
+import org.eclipse.lsp4j.debug.launch.DSPLauncher;
+
+class DoesNotStopOnExceptionsThrownByItsOwnEvaluations {
+    @ParameterizedTest
+    @MethodSource("luceedebug.testutils.TestParams#getLuceeAndDockerInfo")
+    void a(LuceeAndDockerInfo dockerInfo) throws Throwable {
+        final DockerClient dockerClient = DockerUtils.getDefaultDockerClient();
+
+        final String imageID = DockerUtils
+            .buildOrGetImage(dockerClient, dockerInfo.dockerFile)
+            .getImageID();
+
+        final String containerID = DockerUtils
+            .getFreshDefaultContainer(
+                dockerClient,
+                imageID,
+                dockerInfo.luceedebugProjectRoot.toFile(),
+                dockerInfo.getTestWebRoot("exception_breakpoints"),
+                new int[][]{
+                    new int[]{8888,8888},
+                    new int[]{10000,10000}
+                }
+            )
+            .getContainerID();
+
+        dockerClient
+            .startContainerCmd(containerID)
+            .exec();
+
+        HostPortBindings portBindings = DockerUtils.getPublishedHostPortBindings(dockerClient, containerID);
+
+        try {
+            LuceeUtils.pollForServerIsActive("http://localhost:" + portBindings.http + "/heartbeat.cfm");
+
+            final var dapClient = new DapUtils.MockClient();
+
+            final var FIXME_socket_needs_close = new Socket();
+            FIXME_socket_needs_close.connect(new InetSocketAddress("localhost", portBindings.dap));
+            final var launcher = DSPLauncher.createClientLauncher(dapClient, FIXME_socket_needs_close.getInputStream(), FIXME_socket_needs_close.getOutputStream());
+            launcher.startListening();
+            final var dapServer = launcher.getRemoteProxy();
+
+            DapUtils.init(dapServer).join();
+            DapUtils.attach(dapServer).join();
+
+            // every exception, from any frame
+            DapUtils
+                .setExceptionBreakpoints(dapServer, "all", "*")
+                .join();
+
+            final var requestThreadToBeBlockedByException = new java.lang.Thread(() -> {
+                final var requestFactory = new NetHttpTransport().createRequestFactory();
+                HttpRequest request;
+                try {
+                    request = requestFactory.buildGetRequest(new GenericUrl("http://localhost:" + portBindings.http + "/a.cfm"));
+                    request.execute().disconnect();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            final var stoppedEvent = DapUtils.doWithStoppedEventFuture(
+                dapClient,
+                () -> requestThreadToBeBlockedByException.start()
+            ).get(1000, TimeUnit.MILLISECONDS);
+
+            assertEquals("exception", stoppedEvent.getReason());
+
+            final var threadID = stoppedEvent.getThreadId();
+
+            final var stackTrace = DapUtils
+                .getStackTrace(dapServer, threadID)
+                .get(1, TimeUnit.SECONDS);
+
+            final var stopsWhileEvaluating = new AtomicInteger();
+            dapClient.stopped_handler = ignored -> stopsWhileEvaluating.incrementAndGet();
+
+            // `inner` throws out of its own frame, on the thread doing the evaluation; that's the evaluation's error, not a stop
+            final var evaluation = DapUtils.evaluate(dapServer, stackTrace.getStackFrames()[0].getId(), "inner()");
+            final var error = assertThrows(ExecutionException.class, () -> evaluation.get(2, TimeUnit.SECONDS));
+            assertTrue(error.getCause().getMessage().contains("oops"), "evaluation fails with the exception's message");
+
+            assertEquals(0, stopsWhileEvaluating.get(), "an exception thrown by the debugger's own evaluation doesn't stop any thread");
+
+            dapClient.stopped_handler = null;
+
+            // `outer` catches the original exception, so the request runs to completion
+            DapUtils.continue_(dapServer, threadID);
+
+            requestThreadToBeBlockedByException.join(5000);
+            assertFalse(requestThreadToBeBlockedByException.isAlive());
+
+            DapUtils.disconnect(dapServer).join();
+        }
+        finally {
+            dockerClient.stopContainerCmd(containerID).exec();
+            dockerClient.removeContainerCmd(containerID).exec();
+        }
+    }
+}
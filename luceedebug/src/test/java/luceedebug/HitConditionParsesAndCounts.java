@@ -0,0 +1,71 @@
+package luceedebug;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HitConditionParsesAndCounts {
+    /**
+     * @return the hits (1-based) out of the first `hits` on which the breakpoint would stop
+     */
+    private static String stops(String text, int hits) {
+        final var parsed = HitCondition.parse(text);
+        assertTrue(parsed.isRight(), () -> "expected '" + text + "' to parse, got " + parsed.getLeft());
+
+        final var condition = parsed.getRight();
+        final var result = new StringBuilder();
+        for (int i = 1; i <= hits; i++) {
+            if (condition.countHitAndTest()) {
+                result.append(result.length() == 0 ? "" : ",").append(i);
+            }
+        }
+        return result.toString();
+    }
+
+    @Test
+    void eachOperator() {
+        assertEquals("3", stops("3", 6));
+        assertEquals("3", stops("==3", 6));
+        assertEquals("3,4,5,6", stops(">=3", 6));
+        assertEquals("4,5,6", stops(">3", 6));
+        assertEquals("1,2,3", stops("<=3", 6));
+        assertEquals("1,2", stops("<3", 6));
+        assertEquals("2,4,6", stops("%2", 6));
+    }
+
+    @Test
+    void everyNthKeepsCountingPastTheFirstFewMultiples() {
+        assertEquals("3,6,9,12,15,18", stops("%3", 20));
+        assertEquals("1,2,3,4", stops("%1", 4));
+    }
+
+    @Test
+    void whitespaceIsIgnored() {
+        assertEquals("2", stops("  == 2 ", 4));
+        assertEquals("3,4", stops("\t>2\t", 4));
+        assertEquals("2,4", stops(" % 2", 4));
+    }
+
+    @Test
+    void badInputIsRejected() {
+        for (var text : new String[] {"", "abc", "=3", "!=3", "-1", ">=-1", "3.5", "== 3 4", "%0", "99999999999999999999"}) {
+            assertTrue(HitCondition.parse(text).isLeft(), () -> "expected '" + text + "' to be rejected");
+        }
+    }
+
+    @Test
+    void greaterThanTheLargestCountIsRejectedRatherThanOverflowing() {
+        assertTrue(HitCondition.parse(">" + Long.MAX_VALUE).isLeft());
+        assertTrue(HitCondition.parse(">=" + Long.MAX_VALUE).isRight());
+        assertEquals("", stops(">" + (Long.MAX_VALUE - 1), 4));
+    }
+
+    @Test
+    void settledOutcomesStopCounting() {
+        final var condition = HitCondition.parse("==2").getRight();
+        for (int i = 0; i < 5; i++) {
+            condition.countHitAndTest();
+        }
+        assertEquals(2, condition.getCountedHits());
+    }
+}
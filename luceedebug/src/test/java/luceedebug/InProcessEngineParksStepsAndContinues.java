@@ -0,0 +1,155 @@
+package luceedebug;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import com.github.dockerjava.api.DockerClient;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import luceedebug.testutils.DapUtils;
+import luceedebug.testutils.DockerUtils;
+import luceedebug.testutils.LuceeUtils;
+import luceedebug.testutils.TestParams.LuceeAndDockerInfo;
+import luceedebug.testutils.DockerUtils.HostPortBindings;
+
+import org.eclipse.lsp4j.debug.launch.DSPLauncher;
+
+/**
+ * Same page as `HitsABreakpointAndRetrievesVariableInfo`, but with `engine=inprocess`, where a stopped thread is parked in luceedebug's
+ * per-line hook rather than suspended over jdwp.
+ */
+class InProcessEngineParksStepsAndContinues {
+    @ParameterizedTest
+    @MethodSource("luceedebug.testutils.TestParams#getLuceeAndDockerInfo")
+    void a(LuceeAndDockerInfo dockerInfo) throws Throwable {
+        final DockerClient dockerClient = DockerUtils.getDefaultDockerClient();
+
+        final String imageID = DockerUtils
+            .buildOrGetImage(dockerClient, dockerInfo.dockerFile)
+            .getImageID();
+
+        final String containerID = DockerUtils
+            .getFreshDefaultContainer(
+                dockerClient,
+                imageID,
+                dockerInfo.luceedebugProjectRoot.toFile(),
+                dockerInfo.getTestWebRoot("app1"),
+                new int[][]{
+                    new int[]{8888,8888},
+                    new int[]{10000,10000}
+                },
+                ",engine=inprocess"
+            )
+            .getContainerID();
+
+        dockerClient
+            .startContainerCmd(containerID)
+            .exec();
+
+        HostPortBindings portBindings = DockerUtils.getPublishedHostPortBindings(dockerClient, containerID);
+
+        try {
+            LuceeUtils.pollForServerIsActive("http://localhost:" + portBindings.http + "/heartbeat.cfm");
+
+            final var dapClient = new DapUtils.MockClient();
+
+            final var FIXME_socket_needs_close = new Socket();
+            FIXME_socket_needs_close.connect(new InetSocketAddress("localhost", portBindings.dap));
+            final var launcher = DSPLauncher.createClientLauncher(dapClient, FIXME_socket_needs_close.getInputStream(), FIXME_socket_needs_close.getOutputStream());
+            launcher.startListening();
+            final var dapServer = launcher.getRemoteProxy();
+
+            DapUtils.init(dapServer).join();
+            DapUtils.attach(dapServer).join();
+
+            // `writedump(foo(42))`
+            DapUtils
+                .setBreakpoints(dapServer, "/var/www/a.cfm", 7)
+                .join();
+
+            final var requestThreadToBeBlockedByBreakpoint = new java.lang.Thread(() -> {
+                final var requestFactory = new NetHttpTransport().createRequestFactory();
+                HttpRequest request;
+                try {
+                    request = requestFactory.buildGetRequest(new GenericUrl("http://localhost:" + portBindings.http + "/a.cfm"));
+                    request.execute().disconnect();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            final var stoppedEvent = DapUtils.doWithStoppedEventFuture(
+                dapClient,
+                () -> requestThreadToBeBlockedByBreakpoint.start()
+            ).get(1000, TimeUnit.MILLISECONDS);
+
+            assertEquals("breakpoint", stoppedEvent.getReason());
+
+            final var threadID = stoppedEvent.getThreadId();
+
+            {
+                final var stackTrace = DapUtils
+                    .getStackTrace(dapServer, threadID)
+                    .get(1, TimeUnit.SECONDS);
+                assertEquals(1, stackTrace.getTotalFrames());
+                assertEquals(7, stackTrace.getStackFrames()[0].getLine());
+            }
+
+            // the parked thread stays parked
+            Thread.sleep(500);
+            assertTrue(requestThreadToBeBlockedByBreakpoint.isAlive());
+
+            {
+                DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> DapUtils.stepIn(dapServer, threadID)
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                // `var e = "bar";`, in foo
+                final var stackTrace = DapUtils
+                    .getStackTrace(dapServer, threadID)
+                    .get(1, TimeUnit.SECONDS);
+                assertEquals(2, stackTrace.getTotalFrames());
+                assertEquals(3, stackTrace.getStackFrames()[0].getLine());
+            }
+
+            {
+                DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> DapUtils.stepOver(dapServer, threadID)
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                // `return n;`
+                assertEquals(
+                    4,
+                    DapUtils
+                        .getStackTrace(dapServer, threadID)
+                        .get(1, TimeUnit.SECONDS)
+                        .getStackFrames()[0]
+                        .getLine()
+                );
+            }
+
+            DapUtils.continue_(dapServer, threadID);
+
+            requestThreadToBeBlockedByBreakpoint.join(5000);
+            assertFalse(requestThreadToBeBlockedByBreakpoint.isAlive());
+
+            DapUtils.disconnect(dapServer).join();
+        }
+        finally {
+            dockerClient.stopContainerCmd(containerID).exec();
+            dockerClient.removeContainerCmd(containerID).exec();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package luceedebug;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.github.dockerjava.api.DockerClient;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import luceedebug.testutils.DapUtils;
+import luceedebug.testutils.DockerUtils;
+import luceedebug.testutils.LuceeUtils;
+import luceedebug.testutils.TestParams.LuceeAndDockerInfo;
+import luceedebug.testutils.DockerUtils.HostPortBindings;
+
+import org.eclipse.lsp4j.debug.ExceptionInfoArguments;
+import org.eclipse.lsp4j.debug.launch.DSPLauncher;
+
+class StopsOnExceptionWhereItFirstPropagates {
+    @ParameterizedTest
+    @MethodSource("luceedebug.testutils.TestParams#getLuceeAndDockerInfo")
+    void a(LuceeAndDockerInfo dockerInfo) throws Throwable {
+        final DockerClient dockerClient = DockerUtils.getDefaultDockerClient();
+
+        final String imageID = DockerUtils
+            .buildOrGetImage(dockerClient, dockerInfo.dockerFile)
+            .getImageID();
+
+        final String containerID = DockerUtils
+            .getFreshDefaultContainer(
+                dockerClient,
+                imageID,
+                dockerInfo.luceedebugProjectRoot.toFile(),
+                dockerInfo.getTestWebRoot("exception_breakpoints"),
+                new int[][]{
+                    new int[]{8888,8888},
+                    new int[]{10000,10000}
+                }
+            )
+            .getContainerID();
+
+        dockerClient
+            .startContainerCmd(containerID)
+            .exec();
+
+        HostPortBindings portBindings = DockerUtils.getPublishedHostPortBindings(dockerClient, containerID);
+
+        try {
+            LuceeUtils.pollForServerIsActive("http://localhost:" + portBindings.http + "/heartbeat.cfm");
+
+            final var dapClient = new DapUtils.MockClient();
+
+            final var FIXME_socket_needs_close = new Socket();
+            FIXME_socket_needs_close.connect(new InetSocketAddress("localhost", portBindings.dap));
+            final var launcher = DSPLauncher.createClientLauncher(dapClient, FIXME_socket_needs_close.getInputStream(), FIXME_socket_needs_close.getOutputStream());
+            launcher.startListening();
+            final var dapServer = launcher.getRemoteProxy();
+
+            DapUtils.init(dapServer).join();
+            DapUtils.attach(dapServer).join();
+
+            DapUtils
+                .setExceptionBreakpoints(dapServer, "all", "myapp.*")
+                .join();
+
+            final var requestThreadToBeBlockedByException = new java.lang.Thread(() -> {
+                final var requestFactory = new NetHttpTransport().createRequestFactory();
+                HttpRequest request;
+                try {
+                    request = requestFactory.buildGetRequest(new GenericUrl("http://localhost:" + portBindings.http + "/a.cfm"));
+                    request.execute().disconnect();
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            final var stoppedEvent = DapUtils.doWithStoppedEventFuture(
+                dapClient,
+                () -> requestThreadToBeBlockedByException.start()
+            ).get(1000, TimeUnit.MILLISECONDS);
+
+            assertEquals("exception", stoppedEvent.getReason());
+
+            final var threadID = stoppedEvent.getThreadId();
+
+            final var stackTrace = DapUtils
+                .getStackTrace(dapServer, threadID)
+                .get(1, TimeUnit.SECONDS);
+
+            // stopped in `inner`, which the exception propagated out of first
+            //   throw(type="myapp.oops", message="oops"); <<<
+            assertEquals(3, stackTrace.getTotalFrames());
+            assertEquals(13, stackTrace.getStackFrames()[0].getLine());
+            // outer's frame is where it called inner
+            assertEquals(4, stackTrace.getStackFrames()[1].getLine());
+
+            final var scopes = DapUtils
+                .getScopes(dapServer, stackTrace.getStackFrames()[0].getId())
+                .get(1, TimeUnit.SECONDS)
+                .getScopes();
+
+            assertTrue(
+                Arrays.stream(scopes).anyMatch(scope -> scope.getName().equals("exception")),
+                "frame stopped on an exception has an exception scope"
+            );
+
+            final var exceptionInfoArgs = new ExceptionInfoArguments();
+            exceptionInfoArgs.setThreadId(threadID);
+            final var exceptionInfo = dapServer.exceptionInfo(exceptionInfoArgs).get(1, TimeUnit.SECONDS);
+
+            assertTrue(exceptionInfo.getDescription().startsWith("oops"));
+
+            // `outer` catches it, so the request runs to completion
+            DapUtils.continue_(dapServer, threadID);
+
+            requestThreadToBeBlockedByException.join(5000);
+            assertFalse(requestThreadToBeBlockedByException.isAlive());
+
+            DapUtils.disconnect(dapServer).join();
+        }
+        finally {
+            dockerClient.stopContainerCmd(containerID).exec();
+            dockerClient.removeContainerCmd(containerID).exec();
+        }
+    }
+}
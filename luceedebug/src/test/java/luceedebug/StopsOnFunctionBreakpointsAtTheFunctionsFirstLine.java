@@ -0,0 +1,207 @@
+package luceedebug;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.dockerjava.api.DockerClient;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import luceedebug.testutils.DapUtils;
+import luceedebug.testutils.DockerUtils;
+import luceedebug.testutils.LuceeUtils;
+import luceedebug.testutils.TestParams.LuceeAndDockerInfo;
+import luceedebug.testutils.DockerUtils.HostPortBindings;
+
+import org.eclipse.lsp4j.debug.StackFrame;
+import org.eclipse.lsp4j.debug.launch.DSPLauncher;
+import org.eclipse.lsp4j.debug.services.IDebugProtocolServer;
+
+class StopsOnFunctionBreakpointsAtTheFunctionsFirstLine {
+    private static java.lang.Thread request(HostPortBindings portBindings) {
+        return new java.lang.Thread(() -> {
+            final var requestFactory = new NetHttpTransport().createRequestFactory();
+            HttpRequest request;
+            try {
+                request = requestFactory.buildGetRequest(new GenericUrl("http://localhost:" + portBindings.http + "/a.cfm"));
+                request.execute().disconnect();
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static StackFrame topFrame(IDebugProtocolServer dapServer, int threadID) throws Throwable {
+        return DapUtils
+            .getStackTrace(dapServer, threadID)
+            .get(1, TimeUnit.SECONDS)
+            .getStackFrames()[0];
+    }
+
+    @ParameterizedTest
+    @MethodSource("luceedebug.testutils.TestParams#getLuceeAndDockerInfo")
+    void a(LuceeAndDockerInfo dockerInfo) throws Throwable {
+        final DockerClient dockerClient = DockerUtils.getDefaultDockerClient();
+
+        final String imageID = DockerUtils
+            .buildOrGetImage(dockerClient, dockerInfo.dockerFile)
+            .getImageID();
+
+        final String containerID = DockerUtils
+            .getFreshDefaultContainer(
+                dockerClient,
+                imageID,
+                dockerInfo.luceedebugProjectRoot.toFile(),
+                dockerInfo.getTestWebRoot("function_breakpoints"),
+                new int[][]{
+                    new int[]{8888,8888},
+                    new int[]{10000,10000}
+                }
+            )
+            .getContainerID();
+
+        dockerClient
+            .startContainerCmd(containerID)
+            .exec();
+
+        HostPortBindings portBindings = DockerUtils.getPublishedHostPortBindings(dockerClient, containerID);
+
+        try {
+            LuceeUtils.pollForServerIsActive("http://localhost:" + portBindings.http + "/heartbeat.cfm");
+
+            final var dapClient = new DapUtils.MockClient();
+
+            final var FIXME_socket_needs_close = new Socket();
+            FIXME_socket_needs_close.connect(new InetSocketAddress("localhost", portBindings.dap));
+            final var launcher = DSPLauncher.createClientLauncher(dapClient, FIXME_socket_needs_close.getInputStream(), FIXME_socket_needs_close.getOutputStream());
+            launcher.startListening();
+            final var dapServer = launcher.getRemoteProxy();
+
+            DapUtils.init(dapServer).join();
+            DapUtils.attach(dapServer).join();
+
+            //
+            // `Comp.foo` stops only in Comp.cfc's foo, on its first line; a.cfm's own foo doesn't match
+            //
+            {
+                DapUtils.setFunctionBreakpoints(dapServer, "Comp.foo").join();
+
+                final var requestThread = request(portBindings);
+                final var stoppedEvent = DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> requestThread.start()
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                assertEquals("breakpoint", stoppedEvent.getReason());
+                final var frame = topFrame(dapServer, stoppedEvent.getThreadId());
+                // var x = 1;
+                assertTrue(frame.getSource().getPath().endsWith("Comp.cfc"));
+                assertEquals(3, frame.getLine());
+
+                DapUtils.continue_(dapServer, stoppedEvent.getThreadId());
+
+                requestThread.join(5000);
+                assertFalse(requestThread.isAlive());
+            }
+
+            //
+            // `foo` stops in both functions named foo
+            //
+            {
+                DapUtils.setFunctionBreakpoints(dapServer, "foo").join();
+
+                final var requestThread = request(portBindings);
+                final var first = DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> requestThread.start()
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                assertTrue(topFrame(dapServer, first.getThreadId()).getSource().getPath().endsWith("Comp.cfc"));
+                assertEquals(3, topFrame(dapServer, first.getThreadId()).getLine());
+
+                final var second = DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> DapUtils.continue_(dapServer, first.getThreadId())
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                assertEquals("breakpoint", second.getReason());
+                // var y = 2;
+                assertTrue(topFrame(dapServer, second.getThreadId()).getSource().getPath().endsWith("a.cfm"));
+                assertEquals(3, topFrame(dapServer, second.getThreadId()).getLine());
+
+                DapUtils.continue_(dapServer, second.getThreadId());
+
+                requestThread.join(5000);
+                assertFalse(requestThread.isAlive());
+            }
+
+            //
+            // `empty` returns without reaching a line, so there's nowhere to stop; in particular, not on the line that called it
+            //
+            {
+                DapUtils.setFunctionBreakpoints(dapServer, "empty").join();
+
+                final var stops = new AtomicInteger();
+                dapClient.stopped_handler = ignored -> stops.incrementAndGet();
+
+                final var requestThread = request(portBindings);
+                requestThread.start();
+                requestThread.join(5000);
+
+                assertFalse(requestThread.isAlive());
+                assertEquals(0, stops.get());
+
+                dapClient.stopped_handler = null;
+            }
+
+            //
+            // a step over the call to `empty` survives the step-into the breakpoint arms when `empty` is called,
+            // and completes on the next line as a step
+            //
+            {
+                DapUtils.setBreakpoints(dapServer, "/var/www/a.cfm", 12).join();
+
+                final var requestThread = request(portBindings);
+                final var stoppedOnCall = DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> requestThread.start()
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                final var threadID = stoppedOnCall.getThreadId();
+                // empty();
+                assertEquals(12, topFrame(dapServer, threadID).getLine());
+
+                final var stepped = DapUtils.doWithStoppedEventFuture(
+                    dapClient,
+                    () -> DapUtils.stepOver(dapServer, threadID)
+                ).get(1000, TimeUnit.MILLISECONDS);
+
+                assertEquals("step", stepped.getReason());
+                // z = 3;
+                assertEquals(13, topFrame(dapServer, threadID).getLine());
+                assertEquals(1, DapUtils.getStackTrace(dapServer, threadID).get(1, TimeUnit.SECONDS).getTotalFrames());
+
+                DapUtils.continue_(dapServer, threadID);
+
+                requestThread.join(5000);
+                assertFalse(requestThread.isAlive());
+            }
+
+            DapUtils.disconnect(dapServer).join();
+        }
+        finally {
+            dockerClient.stopContainerCmd(containerID).exec();
+            dockerClient.removeContainerCmd(containerID).exec();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package luceedebug.coreinject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LogpointParsesAndRateLimits {
+    private static final long second = 1_000_000_000L;
+
+    private static void assertParts(String logMessage, String[] literals, String[] exprs) {
+        final var logpoint = new Logpoint(logMessage);
+        assertArrayEquals(literals, logpoint.literals);
+
+        final var interpolations = new String[exprs.length];
+        for (int i = 0; i < exprs.length; i++) {
+            interpolations[i] = Logpoint.pageSourceText(exprs[i]);
+        }
+        assertArrayEquals(interpolations, logpoint.interpolations);
+    }
+
+    @Test
+    void interpolationsAreSplitOutOfTheMessage() {
+        assertParts("no interpolations", new String[] {"no interpolations"}, new String[0]);
+        assertParts("x={x}", new String[] {"x=", ""}, new String[] {"x"});
+        assertParts("{a}{b}", new String[] {"", "", ""}, new String[] {"a", "b"});
+        assertParts("a={a}, b={ b + 1 }!", new String[] {"a=", ", b=", "!"}, new String[] {"a", " b + 1 "});
+    }
+
+    @Test
+    void bracesNest() {
+        assertParts("v={ {a: {b: 1}}.a.b } end", new String[] {"v=", " end"}, new String[] {" {a: {b: 1}}.a.b "});
+    }
+
+    @Test
+    void unclosedOrStrayBracesAreLiteral() {
+        assertParts("open { brace", new String[] {"open { brace"}, new String[0]);
+        assertParts("stray } brace {x}", new String[] {"stray } brace ", ""}, new String[] {"x"});
+    }
+
+    @Test
+    void atMostMaxPerSecondAreLoggedInAWindow() {
+        final var logpoint = new Logpoint("hit");
+        for (int i = 0; i < Logpoint.maxPerSecond; i++) {
+            assertTrue(logpoint.tryAcquire(5 * second));
+        }
+        assertFalse(logpoint.tryAcquire(5 * second + second / 2));
+        assertFalse(logpoint.tryAcquire(5 * second + second - 1));
+        assertEquals(2, logpoint.getDropped());
+
+        // the next window starts over
+        assertTrue(logpoint.tryAcquire(6 * second));
+    }
+
+    @Test
+    void theNextLoggedMessageSaysHowManyWereDropped() {
+        final var logpoint = new Logpoint("hit");
+        for (int i = 0; i < Logpoint.maxPerSecond + 3; i++) {
+            logpoint.tryAcquire(second);
+        }
+        assertEquals(3, logpoint.getDropped());
+
+        assertTrue(logpoint.tryAcquire(2 * second));
+        assertEquals("hit (3 earlier messages from this logpoint were dropped)", logpoint.format(null));
+        assertTrue(logpoint.tryAcquire(2 * second));
+        assertEquals("hit", logpoint.format(null));
+        assertEquals(2, logpoint.getLogged());
+    }
+
+    @Test
+    void concurrentHitsDontExceedTheLimit() throws Throwable {
+        final var logpoint = new Logpoint("hit");
+        final var acquired = new AtomicInteger();
+        final var threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (logpoint.tryAcquire(7 * second)) {
+                        acquired.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Logpoint.maxPerSecond, acquired.get());
+        assertEquals(threads.length * 1000 - Logpoint.maxPerSecond, logpoint.getDropped());
+    }
+}
@@ -0,0 +1,130 @@
+package luceedebug.coreinject;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import lucee.runtime.type.Array;
+import lucee.runtime.type.ArrayImpl;
+import lucee.runtime.type.KeyImpl;
+import lucee.runtime.type.Struct;
+import lucee.runtime.type.StructImpl;
+
+class SnapshotsStayWithinTheirLimits {
+    private static JsonElement write(Object value, int maxChars) {
+        final var writer = new SnapshotWriter(maxChars);
+        writer.value(value, 0);
+        return JsonParser.parseString(writer.toString());
+    }
+
+    private static Struct struct(Object ...keysAndValues) {
+        final var result = new StructImpl(Struct.TYPE_LINKED);
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            result.setEL(KeyImpl.init((String)keysAndValues[i]), keysAndValues[i + 1]);
+        }
+        return result;
+    }
+
+    private static Array array(int size) {
+        final var result = new ArrayImpl();
+        for (int i = 0; i < size; i++) {
+            result.appendEL((double)i);
+        }
+        return result;
+    }
+
+    @Test
+    void nestingDeeperThanMaxDepthIsSummarized() {
+        Object value = struct("leaf", "x");
+        for (int i = 0; i < SnapshotWriter.maxDepth + 2; i++) {
+            value = struct("next", value);
+        }
+
+        JsonElement json = write(value, SnapshotPoint.maxChars);
+        for (int i = 0; i < SnapshotWriter.maxDepth; i++) {
+            json = json.getAsJsonObject().get("next");
+        }
+        assertEquals("[struct, 1 entries]", json.getAsString());
+    }
+
+    @Test
+    void collectionsAreCutOffAtMaxEntries() {
+        final var json = write(array(SnapshotWriter.maxEntriesPerCollection + 10), SnapshotPoint.maxChars).getAsJsonArray();
+        assertEquals(SnapshotWriter.maxEntriesPerCollection + 1, json.size());
+        assertEquals("... 10 more", json.get(SnapshotWriter.maxEntriesPerCollection).getAsString());
+
+        final var big = new StructImpl(Struct.TYPE_LINKED);
+        for (int i = 0; i < SnapshotWriter.maxEntriesPerCollection + 5; i++) {
+            big.setEL(KeyImpl.init("k" + i), "v");
+        }
+        final var structJson = write(big, SnapshotPoint.maxChars).getAsJsonObject();
+        assertEquals(SnapshotWriter.maxEntriesPerCollection + 1, structJson.size());
+        assertEquals("5 more", structJson.get("...").getAsString());
+    }
+
+    @Test
+    void longStringsAreShortened() {
+        final var json = write("x".repeat(SnapshotWriter.maxStringLength + 500), SnapshotPoint.maxChars).getAsString();
+        assertEquals("x".repeat(SnapshotWriter.maxStringLength) + "...", json);
+    }
+
+    @Test
+    void cyclesAreWrittenOnce() {
+        final var cyclic = struct("a", 1.0);
+        cyclic.setEL(KeyImpl.init("self"), cyclic);
+
+        final var json = write(cyclic, SnapshotPoint.maxChars).getAsJsonObject();
+        assertEquals("[struct, 2 entries]", json.get("self").getAsString());
+    }
+
+    @Test
+    void outputStopsNearMaxCharsAndIsStillValidJson() {
+        final var huge = new StructImpl(Struct.TYPE_LINKED);
+        for (int i = 0; i < 20; i++) {
+            final var inner = new StructImpl(Struct.TYPE_LINKED);
+            for (int j = 0; j < SnapshotWriter.maxEntriesPerCollection; j++) {
+                inner.setEL(KeyImpl.init("k" + j), "x".repeat(SnapshotWriter.maxStringLength));
+            }
+            huge.setEL(KeyImpl.init("inner" + i), inner);
+        }
+
+        final var writer = new SnapshotWriter(SnapshotPoint.maxChars);
+        writer.value(huge, 0);
+        final String text = writer.toString();
+
+        assertTrue(writer.isTruncated());
+        // the last member started before the limit may run past it, by about one string
+        assertTrue(text.length() >= SnapshotPoint.maxChars);
+        assertTrue(text.length() < SnapshotPoint.maxChars + 2 * SnapshotWriter.maxStringLength, "length was " + text.length());
+        assertTrue(JsonParser.parseString(text).isJsonObject());
+    }
+
+    @Test
+    void smallValuesArentTruncated() {
+        final var writer = new SnapshotWriter(SnapshotPoint.maxChars);
+        writer.value(struct("a", 1.0, "b", "two", "c", array(3)), 0);
+        assertFalse(writer.isTruncated());
+        assertEquals("{\"a\":1,\"b\":\"two\",\"c\":[0,1,2]}", writer.toString());
+    }
+
+    @Test
+    void aSnapshotBreakpointTakesAtMostMaxSnapshots() {
+        final var snapshotPoint = new SnapshotPoint("#snapshot {a}");
+        for (int i = 0; i < SnapshotPoint.maxSnapshots; i++) {
+            assertTrue(snapshotPoint.tryAcquire());
+        }
+        assertFalse(snapshotPoint.tryAcquire());
+        assertFalse(snapshotPoint.tryAcquire());
+    }
+
+    @Test
+    void onlyMessagesStartingWithThePrefixAreSnapshots() {
+        assertTrue(SnapshotPoint.isSnapshotMessage("#snapshot"));
+        assertTrue(SnapshotPoint.isSnapshotMessage("  #snapshot {a} {b}"));
+        assertFalse(SnapshotPoint.isSnapshotMessage("x = {x} #snapshot"));
+        assertFalse(SnapshotPoint.isSnapshotMessage("snapshot {a}"));
+    }
+}
@@ -0,0 +1,207 @@
+package luceedebug.coreinject;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import luceedebug.Config;
+import luceedebug.SourcePathFilter;
+import luceedebug.strong.DapBreakpointID;
+import luceedebug.strong.JdwpThreadID;
+
+class SuspensionBudgetAdmitsTripsAndDisables {
+    private static final DapBreakpointID bp = new DapBreakpointID(1);
+
+    private final Config config = new Config(true, new SourcePathFilter(null, null));
+    private final AtomicLong nowMillis = new AtomicLong(1_000_000);
+    /**
+     * "tripped", "disabled", or "recovered", in the order they were reported
+     */
+    private final List<String> reported = new ArrayList<>();
+    private final List<Runnable> timers = new ArrayList<>();
+    private final List<Long> timerDelays = new ArrayList<>();
+
+    private final SuspensionBudget budget = new SuspensionBudget(
+        config,
+        (id, maybeNull_reason) -> reported.add(maybeNull_reason == null ? "recovered" : maybeNull_reason.startsWith("Disabled") ? "disabled" : "tripped"),
+        nowMillis::get,
+        (delayMillis, task) -> {
+            timerDelays.add(delayMillis);
+            timers.add(task);
+        }
+    );
+
+    private static JdwpThreadID thread(long id) {
+        return new JdwpThreadID(id);
+    }
+
+    /**
+     * admits a hit on a fresh thread, and resumes it straight away, so only the breakpoint's own limits apply
+     */
+    private boolean hit(DapBreakpointID id) {
+        final var threadID = thread(100 + nowMillis.incrementAndGet() % 1000);
+        final boolean result = budget.tryAdmit(threadID, id);
+        budget.release(threadID);
+        return result;
+    }
+
+    @Test
+    void admitsAtMostMaxSuspendedThreadsUntilReleased() {
+        config.setMaxSuspendedThreads(2);
+
+        assertTrue(budget.tryAdmit(thread(1), null));
+        assertTrue(budget.tryAdmit(thread(2), bp));
+        assertFalse(budget.tryAdmit(thread(3), null));
+        // already counted
+        assertTrue(budget.tryAdmit(thread(1), bp));
+
+        budget.release(thread(1));
+        assertTrue(budget.tryAdmit(thread(3), null));
+        assertFalse(budget.tryAdmit(thread(4), null));
+
+        // not counted, so a no-op
+        budget.release(thread(4));
+        assertFalse(budget.tryAdmit(thread(4), null));
+    }
+
+    @Test
+    void releaseAllFreesEveryCountedThread() {
+        config.setMaxSuspendedThreads(2);
+
+        assertTrue(budget.tryAdmit(thread(1), null));
+        assertTrue(budget.tryAdmit(thread(2), bp));
+        assertFalse(budget.tryAdmit(thread(3), null));
+
+        budget.releaseAll();
+        assertTrue(budget.tryAdmit(thread(3), null));
+        assertTrue(budget.tryAdmit(thread(4), null));
+        assertFalse(budget.tryAdmit(thread(5), null));
+
+        // released already, so a no-op
+        budget.release(thread(1));
+        assertFalse(budget.tryAdmit(thread(5), null));
+    }
+
+    @Test
+    void zeroMeansNoLimit() {
+        for (long i = 0; i < 1000; i++) {
+            assertTrue(budget.tryAdmit(thread(i), bp));
+        }
+        assertEquals(List.of(), reported);
+    }
+
+    @Test
+    void tripsWhenHitTooOftenAndRecoversFromATimer() {
+        config.setMaxBreakpointHitsPerSecond(3);
+        nowMillis.set(5_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(budget.tryAdmit(thread(i), bp));
+            budget.release(thread(i));
+        }
+        assertFalse(budget.tryAdmit(thread(10), bp));
+        assertFalse(budget.tryAdmit(thread(11), bp));
+        assertEquals(List.of("tripped"), reported);
+        assertEquals(List.of(SuspensionBudget.trippedMillis), timerDelays);
+
+        // still tripped just before it's due
+        nowMillis.addAndGet(SuspensionBudget.trippedMillis - 100);
+        assertFalse(budget.tryAdmit(thread(12), bp));
+
+        // the timer reports the recovery, without another hit
+        nowMillis.addAndGet(100);
+        timers.get(0).run();
+        assertEquals(List.of("tripped", "recovered"), reported);
+
+        assertTrue(budget.tryAdmit(thread(13), bp));
+        assertEquals(List.of("tripped", "recovered"), reported);
+    }
+
+    @Test
+    void aHitAfterTheTripIsDueRecoversItIfTheTimerHasntRun() {
+        config.setMaxBreakpointHitsPerSecond(1);
+        nowMillis.set(5_000);
+
+        assertTrue(budget.tryAdmit(thread(1), bp));
+        budget.release(thread(1));
+        assertFalse(budget.tryAdmit(thread(2), bp));
+
+        nowMillis.addAndGet(SuspensionBudget.trippedMillis + 1000);
+        assertTrue(budget.tryAdmit(thread(3), bp));
+        assertEquals(List.of("tripped", "recovered"), reported);
+
+        // late timer; already recovered, so nothing more to report
+        timers.get(0).run();
+        assertEquals(List.of("tripped", "recovered"), reported);
+    }
+
+    @Test
+    void aBreakpointSetAgainWhileTrippedStartsOverAndItsTimerIsIgnored() {
+        config.setMaxBreakpointHitsPerSecond(1);
+        nowMillis.set(5_000);
+
+        assertTrue(budget.tryAdmit(thread(1), bp));
+        budget.release(thread(1));
+        assertFalse(budget.tryAdmit(thread(2), bp));
+
+        budget.forget(bp);
+        nowMillis.addAndGet(1000);
+        assertTrue(budget.tryAdmit(thread(3), bp));
+
+        timers.get(0).run();
+        assertEquals(List.of("tripped"), reported);
+    }
+
+    @Test
+    void hitsInANewSecondStartANewCount() {
+        config.setMaxBreakpointHitsPerSecond(2);
+        nowMillis.set(7_000);
+
+        assertTrue(budget.tryAdmit(thread(1), bp));
+        budget.release(thread(1));
+        assertTrue(budget.tryAdmit(thread(2), bp));
+        budget.release(thread(2));
+
+        nowMillis.set(8_000);
+        assertTrue(budget.tryAdmit(thread(3), bp));
+        budget.release(thread(3));
+        assertTrue(budget.tryAdmit(thread(4), bp));
+        assertEquals(List.of(), reported);
+    }
+
+    @Test
+    void autoDisablesAfterHitsUntilSetAgain() {
+        config.setBreakpointAutoDisableAfterHits(3);
+
+        assertTrue(hit(bp));
+        assertTrue(hit(bp));
+        // the last one that suspends
+        assertTrue(hit(bp));
+        assertEquals(List.of("disabled"), reported);
+
+        assertFalse(hit(bp));
+        assertFalse(hit(bp));
+        assertEquals(List.of("disabled"), reported);
+
+        // exceptions don't count against any breakpoint
+        assertTrue(budget.tryAdmit(thread(1), null));
+
+        budget.forget(bp);
+        assertTrue(hit(bp));
+    }
+
+    @Test
+    void breakpointsHaveTheirOwnBudgets() {
+        config.setBreakpointAutoDisableAfterHits(1);
+        final var other = new DapBreakpointID(2);
+
+        assertTrue(hit(bp));
+        assertFalse(hit(bp));
+        assertTrue(hit(other));
+        assertFalse(hit(other));
+    }
+}
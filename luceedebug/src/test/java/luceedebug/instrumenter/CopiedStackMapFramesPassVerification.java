@@ -0,0 +1,179 @@
+package luceedebug.instrumenter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+
+import luceedebug.InstrumentedMethodNames;
+
+/**
+ * The transformer falls back to computing frames only if ASM fails while writing the class. A copied-through frame that's wrong
+ * for the instrumented code shows up later, as a VerifyError (or ClassFormatError) when the page is loaded, so it's checked here instead,
+ * by having the jvm verify instrumented pages.
+ */
+class CopiedStackMapFramesPassVerification {
+    @Test
+    void a() throws Throwable {
+        final byte[] page = SyntheticPages.compile("ManyUdfs", SyntheticPages.pageSource("ManyUdfs", 5));
+        SyntheticPages.defineAndLink("ManyUdfs", SyntheticPages.instrument(page, "ManyUdfs", ClassWriter.COMPUTE_MAXS));
+    }
+
+    /**
+     * A line that starts with a `new` gets its step hook between the `new`'s label and the `new`, and frames that name the uninitialized object
+     * by that label have to be rewritten to name the `new` itself. The ternaries put frames between the `new` and its constructor call.
+     */
+    @Test
+    void lineStartingWithNew() throws Throwable {
+        final String source =
+            "public class LineStartingWithNew {\n"
+            + "  public Object call(lucee.runtime.PageContext pc) throws Throwable { return udfCall(pc, null, 1); }\n"
+            + "  public Object udfCall(lucee.runtime.PageContext pc, lucee.runtime.type.UDF udf, int n) throws Throwable {\n"
+            + "    Object o =\n"
+            + "      new StringBuilder(n > 0 ? \"a\" : \"b\");\n"
+            + "    do {\n"
+            // a branch target, so the hook also follows a frame
+            + "      o = new StringBuilder(n > 1 ? \"a\" : \"b\");\n"
+            + "      n--;\n"
+            + "    } while (n > 0);\n"
+            + "    return o;\n"
+            + "  }\n"
+            + "}\n";
+
+        final byte[] page = SyntheticPages.compile("LineStartingWithNew", source);
+
+        // sanity check that the page itself is fine
+        SyntheticPages.defineAndLink("LineStartingWithNew", SyntheticPages.instrument(page, "LineStartingWithNew", ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS));
+
+        final byte[] copiedThrough = SyntheticPages.instrument(page, "LineStartingWithNew", ClassWriter.COMPUTE_MAXS);
+        assertDoesNotThrow(() -> SyntheticPages.defineAndLink("LineStartingWithNew", copiedThrough));
+    }
+
+    /**
+     * A page whose udf has `lines` lines, each made by `line` from its line number, after `int acc = 0;` (`acc` is an int).
+     */
+    private static String bigUdfPage(String className, int lines, IntFunction<String> line) {
+        final var source = new StringBuilder();
+        source.append("public class " + className + " {\n");
+        source.append("  public Object udfCall(lucee.runtime.PageContext pc, lucee.runtime.type.UDF udf, int n) throws Throwable {\n");
+        source.append("    int acc = 0;\n");
+        for (int i = 0; i < lines; i++) {
+            // the class and method declarations are lines 1 and 2, `acc` is line 3
+            source.append("    " + line.apply(i + 4) + "\n");
+        }
+        source.append("    return acc;\n");
+        source.append("  }\n");
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Walks too-large delegates down the step hook levels, as `LuceeTransformer` does.
+     * @param stepHooksByDelegateName filled in with the levels it took
+     */
+    private static byte[] instrumentDegrading(byte[] page, String className, Map<String, CfmOrCfc.StepHooks> stepHooksByDelegateName) {
+        while (true) {
+            try {
+                return SyntheticPages.instrument(page, className, ClassWriter.COMPUTE_MAXS, stepHooksByDelegateName);
+            }
+            catch (MethodTooLargeException e) {
+                final var current = stepHooksByDelegateName.getOrDefault(e.getMethodName(), CfmOrCfc.StepHooks.FULL);
+                final var maybeNull_next = current.maybeNull_next();
+                assertNotNull(maybeNull_next, "'" + e.getMethodName() + "' fits at some level");
+                stepHooksByDelegateName.put(e.getMethodName(), maybeNull_next);
+            }
+        }
+    }
+
+    /**
+     * Straight-line code, one basic block: too large with a hook on every line, but SPARSE only hooks its first line.
+     */
+    @Test
+    void sparseStepHooks() throws Throwable {
+        final byte[] page = SyntheticPages.compile("LongStraightLineUdf", bigUdfPage("LongStraightLineUdf", 5000, line -> "acc = acc * 31 + n;"));
+
+        final var stepHooksByDelegateName = new HashMap<String, CfmOrCfc.StepHooks>();
+        final byte[] instrumented = instrumentDegrading(page, "LongStraightLineUdf", stepHooksByDelegateName);
+        assertEquals(Map.of(InstrumentedMethodNames.delegateNameOf("udfCall"), CfmOrCfc.StepHooks.SPARSE), stepHooksByDelegateName);
+
+        SyntheticPages.defineAndLink("LongStraightLineUdf", instrumented);
+
+        final var hookedLines = new HashSet<Integer>();
+        for (var insn : SyntheticPages.method(instrumented, InstrumentedMethodNames.delegateNameOf("udfCall")).instructions) {
+            final int line = SyntheticPages.stepHookLineOrNegativeOne(insn);
+            if (line != -1) {
+                hookedLines.add(line);
+            }
+        }
+        // method entry; `return` follows straight on from the last line, so it's in the same block
+        assertEquals(Set.of(3), hookedLines);
+    }
+
+    /**
+     * Every line starts a basic block (it's the target of the previous line's `if`), so SPARSE hooks every line too,
+     * and only OUTLINED hooks are small enough.
+     */
+    @Test
+    void outlinedStepHooks() throws Throwable {
+        final int lines = 4500;
+        final byte[] page = SyntheticPages.compile("ManyBranchesUdf", bigUdfPage("ManyBranchesUdf", lines, line -> "if (n > " + line + ") acc++;"));
+
+        final var stepHooksByDelegateName = new HashMap<String, CfmOrCfc.StepHooks>();
+        final byte[] instrumented = instrumentDegrading(page, "ManyBranchesUdf", stepHooksByDelegateName);
+        assertEquals(Map.of(InstrumentedMethodNames.delegateNameOf("udfCall"), CfmOrCfc.StepHooks.OUTLINED), stepHooksByDelegateName);
+
+        SyntheticPages.defineAndLink("ManyBranchesUdf", instrumented);
+
+        // each hook calls its line's helper, and is followed by that line's line number entry
+        final var hookedLines = new HashSet<Integer>();
+        for (var insn : SyntheticPages.method(instrumented, InstrumentedMethodNames.delegateNameOf("udfCall")).instructions) {
+            final int line = SyntheticPages.stepHookLineOrNegativeOne(insn);
+            if (line == -1) {
+                continue;
+            }
+            assertTrue(insn instanceof MethodInsnNode, "only outlined hooks");
+            assertTrue(insn.getNext() instanceof LabelNode && insn.getNext().getNext() instanceof LineNumberNode);
+            assertEquals(line, ((LineNumberNode)insn.getNext().getNext()).line);
+            hookedLines.add(line);
+        }
+        // the first `if` is in the method entry's block, with `acc`; every other one is the previous one's branch target, as is the `return`
+        for (int line = 5; line < lines + 4; line++) {
+            assertTrue(hookedLines.contains(line), "line " + line + " is hooked");
+        }
+        assertTrue(hookedLines.contains(3));
+        assertTrue(hookedLines.contains(lines + 4));
+
+        // each hooked line has its own helper, which names the line it steps on; and nothing else does
+        final var helperLines = new HashSet<Integer>();
+        final var classNode = new ClassNode();
+        new ClassReader(instrumented).accept(classNode, 0);
+        for (var method : classNode.methods) {
+            final int line = InstrumentedMethodNames.outlinedStepHookLineOrNegativeOne(method.name);
+            if (line == -1) {
+                continue;
+            }
+            helperLines.add(line);
+            int stepsOn = -1;
+            for (var insn : method.instructions) {
+                if (SyntheticPages.stepHookLineOrNegativeOne(insn) != -1) {
+                    stepsOn = SyntheticPages.stepHookLineOrNegativeOne(insn);
+                }
+            }
+            assertEquals(line, stepsOn, "helper " + method.name);
+        }
+        assertEquals(hookedLines, helperLines);
+    }
+}
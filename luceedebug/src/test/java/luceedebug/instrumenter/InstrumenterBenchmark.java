@@ -0,0 +1,41 @@
+package luceedebug.instrumenter;
+
+import org.objectweb.asm.ClassWriter;
+
+/**
+ * Times the CfmOrCfc instrumenter on a synthetic page class (40 udf-like methods with loops, a switch, and a try/catch each),
+ * computing stack map frames (ClassWriter.COMPUTE_FRAMES) vs copying them through (see `LuceeTransformer.canCopyFramesThrough`).
+ *
+ * Not a test; run it with `gradle instrumenterBenchmark`. Common supertypes are looked up with the application class loader,
+ * which is cheaper than lucee's core loader, so the COMPUTE_FRAMES numbers are on the low side.
+ */
+class InstrumenterBenchmark {
+    static final int METHODS = 40;
+    static final int TRANSFORMS_PER_ROUND = 3000;
+    static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Throwable {
+        final byte[] page = SyntheticPages.compile("SyntheticPage", SyntheticPages.pageSource("SyntheticPage", METHODS));
+
+        for (int round = 0; round < ROUNDS; round++) {
+            report(round, "COMPUTE_FRAMES", time(() -> SyntheticPages.instrument(page, "SyntheticPage", ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS)));
+            report(round, "copy-through", time(() -> SyntheticPages.instrument(page, "SyntheticPage", ClassWriter.COMPUTE_MAXS)));
+        }
+    }
+
+    interface Work {
+        void run() throws Throwable;
+    }
+
+    static double time(Work work) throws Throwable {
+        final long start = System.nanoTime();
+        for (int i = 0; i < TRANSFORMS_PER_ROUND; i++) {
+            work.run();
+        }
+        return (System.nanoTime() - start) / 1000.0 / TRANSFORMS_PER_ROUND;
+    }
+
+    static void report(int round, String mode, double microsPerClass) {
+        System.out.printf("round %d, %-20s %7.1f us/class%n", round, mode + ":", microsPerClass);
+    }
+}
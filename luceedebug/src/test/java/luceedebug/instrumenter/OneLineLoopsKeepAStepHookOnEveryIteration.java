@@ -0,0 +1,132 @@
+package luceedebug.instrumenter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.JumpInsnNode;
+
+import luceedebug.InstrumentedMethodNames;
+
+/**
+ * A loop that's all on one line runs that line's step hook once per iteration, so a breakpoint on the line is hit on every iteration;
+ * dropping redundant hooks (see `CfmOrCfc.withoutRedundantHooks`) mustn't drop the hook inside the loop just because the previous iteration
+ * was on the same line.
+ *
+ * javac emits one line entry for a whole one-line loop, so these pages are written with ASM instead, with a line entry per statement,
+ * the way lucee emits them.
+ */
+class OneLineLoopsKeepAStepHookOnEveryIteration {
+    private static final int LOOP_LINE = 5;
+
+    interface Body {
+        void emit(MethodVisitor mv);
+    }
+
+    private static void line(MethodVisitor mv, int line) {
+        final var start = new Label();
+        mv.visitLabel(start);
+        mv.visitLineNumber(line, start);
+    }
+
+    /**
+     * A page whose `udfCall(pc, udf, n)` has `acc` in local 4, then `body`, then returns `acc`.
+     */
+    private static byte[] page(String className, Body body) {
+        final var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object", null);
+        final var mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "udfCall", "(Llucee/runtime/PageContext;Llucee/runtime/type/UDF;I)Ljava/lang/Object;", null, new String[]{"java/lang/Throwable"});
+        mv.visitCode();
+        body.emit(mv);
+        line(mv, LOOP_LINE + 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void assertHookRunsOnEveryIteration(String className, byte[] page) {
+        final byte[] instrumented = SyntheticPages.instrument(page, className, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        SyntheticPages.defineAndLink(className, instrumented);
+
+        final var insns = SyntheticPages.method(instrumented, InstrumentedMethodNames.delegateNameOf("udfCall")).instructions;
+        int loops = 0;
+        for (int i = 0; i < insns.size(); i++) {
+            if (!(insns.get(i) instanceof JumpInsnNode)) {
+                continue;
+            }
+            final int target = insns.indexOf(((JumpInsnNode)insns.get(i)).label);
+            if (target > i) {
+                continue;
+            }
+
+            loops++;
+            boolean hooked = false;
+            for (int k = target; k <= i; k++) {
+                hooked |= SyntheticPages.stepHookLineOrNegativeOne(insns.get(k)) == LOOP_LINE;
+            }
+            assertTrue(hooked, "a hook for line " + LOOP_LINE + " is inside the loop");
+        }
+        assertEquals(1, loops);
+    }
+
+    /**
+     * `acc = 0; for (i = 0; i < n; i++) acc += i;`, condition first, which is also the shape of a `while`
+     */
+    @Test
+    void oneLineFor() {
+        assertHookRunsOnEveryIteration("OneLineFor", page("OneLineFor", mv -> {
+            final var head = new Label();
+            final var end = new Label();
+            line(mv, LOOP_LINE);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, 4);
+            line(mv, LOOP_LINE);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, 5);
+            mv.visitLabel(head);
+            mv.visitLineNumber(LOOP_LINE, head);
+            mv.visitVarInsn(Opcodes.ILOAD, 5);
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+            line(mv, LOOP_LINE);
+            mv.visitVarInsn(Opcodes.ILOAD, 4);
+            mv.visitVarInsn(Opcodes.ILOAD, 5);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitVarInsn(Opcodes.ISTORE, 4);
+            mv.visitIincInsn(5, 1);
+            mv.visitJumpInsn(Opcodes.GOTO, head);
+            mv.visitLabel(end);
+        }));
+    }
+
+    /**
+     * `acc = 0; do { acc += n; n--; } while (n > 0);`, condition last
+     */
+    @Test
+    void oneLineDoWhile() {
+        assertHookRunsOnEveryIteration("OneLineDoWhile", page("OneLineDoWhile", mv -> {
+            final var body = new Label();
+            line(mv, LOOP_LINE);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ISTORE, 4);
+            mv.visitLabel(body);
+            mv.visitLineNumber(LOOP_LINE, body);
+            mv.visitVarInsn(Opcodes.ILOAD, 4);
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitVarInsn(Opcodes.ISTORE, 4);
+            mv.visitIincInsn(3, -1);
+            line(mv, LOOP_LINE);
+            mv.visitVarInsn(Opcodes.ILOAD, 3);
+            mv.visitJumpInsn(Opcodes.IFGT, body);
+        }));
+    }
+}
@@ -0,0 +1,157 @@
+package luceedebug.instrumenter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import javax.tools.ToolProvider;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import luceedebug.InstrumentedMethodNames;
+
+/**
+ * Page-like classes for exercising the instrumenter without a lucee engine: a `call` entry point and `udfCall<N>` methods,
+ * with the same signatures lucee gives them, compiled from java source with the jdk's compiler.
+ */
+class SyntheticPages {
+    /**
+     * @return a page with `udfCount` udf-like methods, each with loops, a switch, and a try/catch
+     */
+    static String pageSource(String className, int udfCount) {
+        final var source = new StringBuilder();
+        source.append("public class " + className + " {\n");
+        source.append("  public Object call(lucee.runtime.PageContext pc) throws Throwable {\n    Object r = null;\n");
+        for (int i = 0; i < udfCount; i++) {
+            source.append("    r = udfCall" + i + "(pc, null, " + i + ");\n");
+        }
+        source.append("    return r;\n  }\n");
+        for (int i = 0; i < udfCount; i++) {
+            source.append("  public Object udfCall" + i + "(lucee.runtime.PageContext pc, lucee.runtime.type.UDF udf, int n) throws Throwable {\n");
+            source.append("    java.util.List<Object> acc = new java.util.ArrayList<>();\n");
+            source.append("    for (int i = 0; i < n; i++) {\n");
+            source.append("      if (i % 3 == 0) { acc.add(\"fizz\" + i); }\n");
+            source.append("      else if (i % 5 == 0) { acc.add(Integer.valueOf(i)); }\n");
+            source.append("      else { acc.add(i > 2 ? (Object)\"x\" : (Object)Double.valueOf(i)); }\n");
+            source.append("    }\n");
+            source.append("    try {\n");
+            source.append("      Object o = acc.isEmpty() ? null : acc.get(0);\n");
+            source.append("      switch (n % 4) { case 0: o = \"a\"; break; case 1: o = new StringBuilder(\"b\"); break; default: o = acc; }\n");
+            source.append("      if (o instanceof CharSequence) { acc.add(((CharSequence)o).length()); }\n");
+            source.append("    }\n");
+            source.append("    catch (RuntimeException e) {\n");
+            source.append("      acc.add(e);\n");
+            source.append("    }\n");
+            source.append("    long l = n * 2L; double d = l / 3.0;\n");
+            source.append("    while (d > 1) { d = d / 2; }\n");
+            source.append("    return acc.size() + l + (int)d;\n");
+            source.append("  }\n");
+        }
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * @param className a class in the default package
+     */
+    static byte[] compile(String className, String source) throws Exception {
+        final Path dir = Files.createTempDirectory("luceedebug-synthetic-page");
+        try {
+            final Path sourceFile = dir.resolve(className + ".java");
+            Files.writeString(sourceFile, source);
+
+            final int exitCode = ToolProvider.getSystemJavaCompiler().run(
+                null, null, null,
+                "-d", dir.toString(),
+                "-cp", Path.of(lucee.runtime.PageContext.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString(),
+                "-g",
+                sourceFile.toString()
+            );
+            if (exitCode != 0) {
+                throw new RuntimeException("couldn't compile synthetic page '" + className + "'");
+            }
+
+            return Files.readAllBytes(dir.resolve(className + ".class"));
+        }
+        finally {
+            for (var f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            dir.toFile().delete();
+        }
+    }
+
+    static byte[] instrument(byte[] classfile, String className, int classWriterFlags) {
+        return instrument(classfile, className, classWriterFlags, Map.of());
+    }
+
+    /**
+     * @param stepHooksByDelegateName see `CfmOrCfc`
+     */
+    static byte[] instrument(byte[] classfile, String className, int classWriterFlags, Map<String, CfmOrCfc.StepHooks> stepHooksByDelegateName) {
+        final var classWriter = new ClassWriter(classWriterFlags) {
+            @Override
+            protected ClassLoader getClassLoader() {
+                return SyntheticPages.class.getClassLoader();
+            }
+        };
+        new ClassReader(classfile).accept(new CfmOrCfc(Opcodes.ASM9, classWriter, className, stepHooksByDelegateName), ClassReader.EXPAND_FRAMES);
+        return classWriter.toByteArray();
+    }
+
+    static MethodNode method(byte[] classfile, String methodName) {
+        final var classNode = new ClassNode();
+        new ClassReader(classfile).accept(classNode, 0);
+        for (var method : classNode.methods) {
+            if (method.name.equals(methodName)) {
+                return method;
+            }
+        }
+        throw new RuntimeException("no method '" + methodName + "'");
+    }
+
+    /**
+     * @return the line `insn` is a step hook for, either `push line; invokedynamic` or a call to an outlined per-line helper; -1 if it isn't a step hook
+     */
+    static int stepHookLineOrNegativeOne(AbstractInsnNode insn) {
+        if (insn instanceof MethodInsnNode) {
+            return InstrumentedMethodNames.outlinedStepHookLineOrNegativeOne(((MethodInsnNode)insn).name);
+        }
+        if (!(insn instanceof InvokeDynamicInsnNode) || !((InvokeDynamicInsnNode)insn).name.equals("luceedebug_stepNotificationEntry_step")) {
+            return -1;
+        }
+        final var push = insn.getPrevious();
+        if (push instanceof IntInsnNode) {
+            return ((IntInsnNode)push).operand;
+        }
+        if (push instanceof LdcInsnNode) {
+            return (Integer)((LdcInsnNode)push).cst;
+        }
+        return push.getOpcode() - Opcodes.ICONST_0;
+    }
+
+    /**
+     * Defines the class in a throwaway loader, and links it, which is when the jvm verifies it (and checks its stack map frames).
+     * @throws VerifyError (or ClassFormatError) if the jvm rejects it
+     */
+    static Class<?> defineAndLink(String className, byte[] classfile) {
+        final var loader = new ClassLoader(SyntheticPages.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(className, classfile, 0, classfile.length);
+            }
+        };
+        final var klass = loader.define();
+        // reflecting on a class's methods links it, without initializing it
+        klass.getDeclaredMethods();
+        return klass;
+    }
+}
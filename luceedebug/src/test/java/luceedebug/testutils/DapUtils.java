@@ -54,6 +54,45 @@ public class DapUtils {
         return dapServer.setBreakpoints(breakpointsArgs);
     }
 
+    /**
+     * @param filterAndTypes pairs of (filter id, comma separated exception types)
+     */
+    public static CompletableFuture<SetExceptionBreakpointsResponse> setExceptionBreakpoints(
+        IDebugProtocolServer dapServer,
+        String ...filterAndTypes
+    ) {
+        var filterOptions = new ArrayList<ExceptionFilterOptions>();
+        for (int i = 0; i < filterAndTypes.length; i += 2) {
+            var options = new ExceptionFilterOptions();
+            options.setFilterId(filterAndTypes[i]);
+            options.setCondition(filterAndTypes[i + 1]);
+            filterOptions.add(options);
+        }
+
+        var args = new SetExceptionBreakpointsArguments();
+        args.setFilters(new String[0]);
+        args.setFilterOptions(filterOptions.toArray(new ExceptionFilterOptions[0]));
+
+        return dapServer.setExceptionBreakpoints(args);
+    }
+
+    public static CompletableFuture<SetFunctionBreakpointsResponse> setFunctionBreakpoints(
+        IDebugProtocolServer dapServer,
+        String ...names
+    ) {
+        var breakpoints = new ArrayList<FunctionBreakpoint>();
+        for (var name : names) {
+            var bp = new FunctionBreakpoint();
+            bp.setName(name);
+            breakpoints.add(bp);
+        }
+
+        var args = new SetFunctionBreakpointsArguments();
+        args.setBreakpoints(breakpoints.toArray(new FunctionBreakpoint[0]));
+
+        return dapServer.setFunctionBreakpoints(args);
+    }
+
     public static CompletableFuture<Capabilities> init(IDebugProtocolServer dapServer) {
         var initArgs = new InitializeRequestArguments();
         initArgs.setClientID("test");
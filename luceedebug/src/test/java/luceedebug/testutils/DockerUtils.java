@@ -103,6 +103,20 @@ public class DockerUtils {
         File projectRoot,
         File luceeTestAppRoot,
         int[][] portMappingPairs
+    ) {
+        return getFreshDefaultContainer(dockerClient, imageID, projectRoot, luceeTestAppRoot, portMappingPairs, "");
+    }
+
+    /**
+     * @param extraAgentArgs appended as-is to the luceedebug agent args (see the Dockerfiles), e.g. ",engine=inprocess"
+     */
+    public static ContainerID getFreshDefaultContainer(
+        DockerClient dockerClient,
+        String imageID, 
+        File projectRoot,
+        File luceeTestAppRoot,
+        int[][] portMappingPairs,
+        String extraAgentArgs
     ) {
         var portBindings = new ArrayList<PortBinding>();
         var exposedPorts = new ArrayList<ExposedPort>();
@@ -136,6 +150,7 @@ public class DockerUtils {
                 .createContainerCmd(imageID)
                 .withExposedPorts(exposedPorts)
                 .withHostConfig(hostConfig)
+                .withEnv("LUCEEDEBUG_EXTRA_AGENT_ARGS=" + extraAgentArgs)
                 .exec()
                 .getId()
         );
@@ -183,6 +183,7 @@ export function activate(context: vscode.ExtensionContext) {
 				canonicalFilenames: string[],
 				breakpoints: [string, string][],
 				pathTransforms: string[],
+				degradedInstrumentation?: [string, string][],
 			}
 			const data : DebugBreakpointBindingsResponse = await currentDebugSession?.customRequest("debugBreakpointBindings");
 			
@@ -194,6 +195,8 @@ export function activate(context: vscode.ExtensionContext) {
 					.map(([idePath, serverPath]) => `  (ide)    ${idePath}\n  (server) ${serverPath}`).join("\n\n")
 				+ "\n\nPath transforms:\n"
 				+ (data.pathTransforms.length === 0 ? "<<none>>" : data.pathTransforms.map(v => `  ${v}`).join("\n"))
+				+ "\n\nFiles too large to instrument fully (stepping is coarser, or not possible, in these):\n"
+				+ ((data.degradedInstrumentation ?? []).length === 0 ? "<<none>>" : data.degradedInstrumentation!.map(([serverPath, description]) => `  ${serverPath}\n    ${description}`).join("\n"))
 				+ "\n\nFiles luceedebug knows about (all filenames are as the server sees them, and match against breakpoint 'server' paths):\n"
 				+ data.canonicalFilenames.sort().map(s => `  ${s}`).join("\n");
 			
@@ -204,6 +207,39 @@ export function activate(context: vscode.ExtensionContext) {
 		})
 	)
 
+	context.subscriptions.push(
+		vscode.commands.registerCommand("luceedebug.showMetrics", async () => {
+			if (!currentDebugSession) {
+				throw Error("luceedebug is not currently connected to Lucee, cannot show metrics.")
+			}
+
+			interface MetricsResponse {
+				metrics: [string, string][],
+				stepHookCounts?: [string, string, string][],
+				breakpointConditions?: [string, string, string, string, string, string, string][],
+				logpoints?: [string, string, string, string][],
+			}
+			const data : MetricsResponse = await currentDebugSession.customRequest("metrics");
+
+			const uri = vscode.Uri.from({scheme: "luceedebug", path: "metrics"});
+			const text = "luceedebug agent metrics:\n"
+				+ data.metrics.map(([name, value]) => `  ${name} = ${value}`).join("\n")
+				+ "\n\nStep hooks per file (emitted / candidates, after dropping hooks that can't change where a step stops):\n"
+				+ ((data.stepHookCounts ?? []).length === 0 ? "<<none>>" : data.stepHookCounts!.map(([serverPath, candidates, emitted]) => `  ${emitted} / ${candidates}  ${serverPath}`).join("\n"))
+				+ "\n\nBreakpoint conditions:\n"
+				+ ((data.breakpointConditions ?? []).length === 0 ? "<<none>>" : data.breakpointConditions!.map(([id, expr, evaluations, trues, failures, meanMicros, maxMicros]) =>
+					`  breakpoint ${id}: ${expr}\n    evaluations=${evaluations} true=${trues} failed=${failures} meanMicros=${meanMicros} maxMicros=${maxMicros}`).join("\n"))
+				+ "\n\nLogpoints:\n"
+				+ ((data.logpoints ?? []).length === 0 ? "<<none>>" : data.logpoints!.map(([id, logMessage, logged, dropped]) =>
+					`  breakpoint ${id}: ${logMessage}\n    logged=${logged} dropped=${dropped}`).join("\n"));
+
+			luceedebugTextDocumentProvider.addOrReplaceTextDoc(uri, text);
+
+			const doc = await vscode.workspace.openTextDocument(uri);
+			await vscode.window.showTextDocument(doc);
+		})
+	)
+
 	context.subscriptions.push(
 		vscode.commands.registerCommand("luceedebug.openFileForVariableSourcePath", async (args?: Partial<DebugPaneContextMenuArgs>) => {
 			if (!currentDebugSession || !args || args.variable === undefined || args.variable.variablesReference === 0) {